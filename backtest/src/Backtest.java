@@ -0,0 +1,445 @@
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.uchicago.options.OptionsHelpers.QuoteList;
+import org.uchicago.pairs.PairsHelper.Order;
+import org.uchicago.pairs.PairsHelper.Quote;
+import org.uchicago.pairs.PairsHelper.Ticker;
+
+import com.optionscity.freeway.api.IJobSetup;
+
+/**
+ * Replays every bundled round of every case at the same time, each on its
+ * own strategy instance, and reports how each one did.
+ * <p>
+ * A strategy sees the variables it declares in addVariables() at their
+ * defaults, except where a run overrides them, and its log goes nowhere.
+ * Runs are ForkJoinTasks, so a sweep takes about as long as its slowest
+ * replay as long as there are as many cores as runs.
+ * <p>
+ * Strategies are called through Latency's wrappers, and how long they took
+ * per callback is reported after each run, along with how many calls took
+ * longer than the tick budget if one is given. Runs share the cores, so
+ * latencies are only realistic with a parallelism of 1.
+ * <p>
+ * Usage: <tt>Backtest [project directory [parallelism [tick budget in microseconds]]]</tt>
+ */
+public class Backtest {
+	public static class Report {
+		public final String name;
+		public double pnl;
+		public int penalties;
+		//anything else worth knowing about the run, in the order it was added
+		public final Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+		public int logged;
+		public long nanos;
+		//null if the replay failed before the strategy was made
+		public Latency.Instrumented latency;
+		//null unless the replay threw
+		public Throwable failure;
+
+		public Report(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder line = new StringBuilder(name).append(": ");
+			if (failure != null)
+				return line.append("failed with ").append(failure).toString();
+			line.append("PnL ").append(pnl).append(", ").append(penalties).append(" penalties");
+			for (Map.Entry<String, Double> metric : metrics.entrySet())
+				line.append(", ").append(metric.getKey()).append(' ').append(metric.getValue());
+			return line.append(", ").append(logged).append(" lines logged, ").append(nanos / 1000000).append(" ms").toString();
+		}
+	}
+
+	/**
+	 * Variables as the platform would hand them to a strategy: what its
+	 * addVariables() declared, with setVariable() overriding the defaults.
+	 */
+	public static class Variables implements IJobSetup {
+		private final Map<String, String> defaults = new HashMap<String, String>();
+		private final Map<String, String> overrides = new HashMap<String, String>();
+
+		@Override
+		public void addVariable(String name, String description, String type, String defaultValue) {
+			defaults.put(name, defaultValue);
+		}
+
+		@Override
+		public void addProbe(String name, String description, boolean graph) {
+		}
+
+		@Override
+		public void setDefaultDescription(String description) {
+		}
+
+		@Override
+		public void setVariable(String name, String value) {
+			overrides.put(name, value);
+		}
+
+		public String getString(String name) {
+			if (overrides.containsKey(name))
+				return overrides.get(name);
+			if (!defaults.containsKey(name))
+				throw new IllegalArgumentException(name + " was never declared in addVariables()");
+			return defaults.get(name);
+		}
+
+		public int getInt(String name) {
+			return Integer.parseInt(getString(name).trim());
+		}
+	}
+
+	public static abstract class Run extends RecursiveTask<Report> {
+		private static final long serialVersionUID = 1L;
+
+		protected final Report report;
+		protected final Variables variables = new Variables();
+
+		protected Run(String name) {
+			report = new Report(name);
+		}
+
+		@Override
+		protected Report compute() {
+			long start = System.nanoTime();
+			try {
+				replay();
+			} catch (Throwable e) {
+				report.failure = e;
+			}
+			report.nanos = System.nanoTime() - start;
+			return report;
+		}
+
+		protected abstract void replay() throws Exception;
+	}
+
+	public static class PairsRun extends Run {
+		private static final long serialVersionUID = 1L;
+
+		private final File csv;
+		private final int round;
+
+		public PairsRun(File csv, int round) {
+			super("pairs " + csv.getName());
+			this.csv = csv;
+			this.round = round;
+			variables.setVariable("round", Integer.toString(round));
+			variables.setVariable("LOG_TICKS", "0");
+		}
+
+		@Override
+		protected void replay() throws Exception {
+			PairsCaseNYU1 c = new PairsCaseNYU1() {
+				@Override
+				public String getStringVar(String str) {
+					return variables.getString(str);
+				}
+
+				@Override
+				public int getIntVar(String str) {
+					return variables.getInt(str);
+				}
+
+				@Override
+				public void log(String s) {
+					report.logged++;
+				}
+			};
+			Latency.InstrumentedPairs timed = new Latency.InstrumentedPairs(report.name, c);
+			report.latency = timed;
+			timed.addVariables(variables);
+			TickFile ticks = TickFile.load(csv.getPath());
+			Ticker[] tickers = Arrays.copyOf(Ticker.values(), ticks.columns());
+			PairsExchange exchange = new PairsExchange(round, tickers.length);
+			timed.initializeAlgo(null);
+			timed.currentSymbols(tickers);
+			for (int i = 0; i < ticks.rows(); i++) {
+				Quote[] quotes = new Quote[tickers.length];
+				for (int j = 0; j < tickers.length; j++)
+					quotes[j] = new Quote(tickers[j], ticks.get(i, j) - 1, ticks.get(i, j) + 1);
+				Order[] orders = timed.getNewQuotes(quotes);
+				exchange.fill(quotes, orders);
+				timed.ordersConfirmation(orders);
+			}
+			report.pnl = exchange.pnl();
+			//orders rejected for going over the position limit are the pairs case's penalties
+			report.penalties = exchange.rejected();
+			report.metrics.put("contracts sold", Double.valueOf(exchange.contractsSold()));
+		}
+	}
+
+	public static class OptionsRun extends Run {
+		private static final long serialVersionUID = 1L;
+
+		private final File csv;
+
+		public OptionsRun(File csv) {
+			super("options " + csv.getName());
+			this.csv = csv;
+			variables.setVariable("LOG_LEVEL", "0");
+		}
+
+		static org.uchicago.options.OptionsHelpers.Quote getQuote(QuoteList list, int strike) {
+			switch (strike) {
+				case 80:
+					return list.quoteEighty;
+				case 90:
+					return list.quoteNinety;
+				case 100:
+					return list.quoteHundred;
+				case 110:
+					return list.quoteHundredTen;
+				case 120:
+					return list.quoteHundredTwenty;
+				default:
+					throw new IllegalArgumentException("no quote for strike " + strike);
+			}
+		}
+
+		@Override
+		protected void replay() throws Exception {
+			OptionsCaseNYU1 c = new OptionsCaseNYU1() {
+				@Override
+				public String getStringVar(String str) {
+					return variables.getString(str);
+				}
+
+				@Override
+				public int getIntVar(String str) {
+					return variables.getInt(str);
+				}
+
+				@Override
+				public void log(String s) {
+					report.logged++;
+				}
+			};
+			Latency.InstrumentedOptions timed = new Latency.InstrumentedOptions(report.name, c);
+			report.latency = timed;
+			timed.addVariables(variables);
+			TickFile ticks = TickFile.load(csv.getPath());
+			timed.initializeAlgo(null, null);
+			for (int i = 0; i < ticks.rows(); i++) {
+				QuoteList list = timed.getCurrentQuotes();
+				int direction = (int) ticks.get(i, 0);
+				int strike = (int) ticks.get(i, 1);
+				double price = ticks.get(i, 2);
+				if (direction == 1 && getQuote(list, strike).offer <= price)
+					timed.newFill(strike, direction, getQuote(list, strike).offer);
+				else if (direction == -1 && getQuote(list, strike).bid >= price)
+					timed.newFill(strike, direction, getQuote(list, strike).bid);
+				else
+					timed.noBrokerFills();
+			}
+			report.pnl = c.pnl;
+			report.penalties = c.penalties;
+			report.metrics.put("penalty dollars", Double.valueOf(c.penaltyDollars));
+			report.metrics.put("highest vega", Double.valueOf(c.highestVega));
+			report.metrics.put("cleared", Double.valueOf(c.cleared));
+		}
+	}
+
+	/**
+	 * Announces each change to what's tradable ANNOUNCEMENT_LEAD ticks before
+	 * it takes effect, and from then on counts a penalty for every tick the
+	 * portfolio still holds an untradable asset. PnL is what the portfolio,
+	 * rebalanced to the weights the strategy asks for every tick, ends up
+	 * worth over the index, in index points, and tracking is how far its
+	 * return strays from the index's on an average tick.
+	 */
+	public static class IndexRun extends Run {
+		private static final long serialVersionUID = 1L;
+		private static final double COMMISSION = 0.031399675;
+		private static final int ANNOUNCEMENT_LEAD = 20;
+
+		private final File round;
+
+		public IndexRun(File round) {
+			super("index " + round.getName());
+			this.round = round;
+			variables.setVariable("TRACE", "0");
+		}
+
+		@Override
+		protected void replay() throws Exception {
+			IndexCaseNYU1 c = new IndexCaseNYU1() {
+				@Override
+				public String getStringVar(String str) {
+					return variables.getString(str);
+				}
+
+				@Override
+				public int getIntVar(String str) {
+					return variables.getInt(str);
+				}
+
+				@Override
+				public void log(String s) {
+					report.logged++;
+				}
+			};
+			Latency.InstrumentedIndexCase timed = new Latency.InstrumentedIndexCase(report.name, c);
+			report.latency = timed;
+			timed.addVariables(variables);
+			TickFile capWeights = TickFile.load(new File(round, "capWeights.csv").getPath());
+			TickFile prices = TickFile.load(new File(round, "prices.csv").getPath());
+			TickFile initial = TickFile.load(new File(round, "tradable_init.csv").getPath());
+			TickFile changes = TickFile.load(new File(round, "tradable_changes.csv").getPath());
+			int assets = capWeights.rows();
+			double[] weights = new double[assets];
+			capWeights.column(0).get(weights);
+			boolean[] announced = new boolean[assets];
+			for (int j = 0; j < assets; j++)
+				announced[j] = initial.get(j, 0) == 1;
+			boolean[] tradables = announced.clone();
+
+			double[] last = prices.row(0, new double[assets]), current = new double[assets];
+			timed.initializeAlgo(null);
+			double[] held = timed.initalizePosition(last, indexValue(last), weights, announced.clone()).clone();
+			double portfolio = 0;
+			for (int j = 0; j < assets; j++)
+				portfolio += weights[j] * last[j];
+			double totalTracking = 0;
+			//changes are listed by time, one based. the first `announcements` have been announced, the first `effective` are in force
+			int announcements = 0, effective = 0;
+			for (int i = 1; i < prices.rows(); i++) {
+				prices.row(i, current);
+				while (announcements < changes.rows() && (int) changes.get(announcements, 0) - 1 <= i) {
+					announced[(int) changes.get(announcements, 1)] = changes.get(announcements, 2) == 1;
+					timed.regulationAnnouncement(i, i + ANNOUNCEMENT_LEAD, announced.clone());
+					announcements++;
+				}
+				while (effective < announcements && (int) changes.get(effective, 0) - 1 + ANNOUNCEMENT_LEAD <= i) {
+					tradables[(int) changes.get(effective, 1)] = changes.get(effective, 2) == 1;
+					effective++;
+				}
+
+				double growth = 0, index = 0, lastIndex = 0;
+				for (int j = 0; j < assets; j++) {
+					growth += held[j] * current[j] / last[j];
+					index += weights[j] * current[j];
+					lastIndex += weights[j] * last[j];
+				}
+				portfolio *= growth;
+				totalTracking += Math.abs(growth - index / lastIndex) * 100;
+
+				System.arraycopy(timed.updatePosition(i, current, indexValue(current)), 0, held, 0, assets);
+				for (int j = 0; j < assets; j++) {
+					if (held[j] != 0 && !tradables[j]) {
+						report.penalties++;
+						timed.penaltyNotification(i, tradables.clone());
+						break;
+					}
+				}
+				double[] swap = last;
+				last = current;
+				current = swap;
+			}
+			double index = 0;
+			for (int j = 0; j < assets; j++)
+				index += weights[j] * last[j];
+			report.pnl = portfolio - index;
+			report.metrics.put("mean tick tracking %", Double.valueOf(totalTracking / (prices.rows() - 1)));
+		}
+
+		//what the case's replays have always passed as indexValue
+		private static double indexValue(double[] prices) {
+			double index = 0;
+			for (int j = 0; j < prices.length; j++)
+				index += prices[j];
+			return index * (1 - COMMISSION);
+		}
+	}
+
+	/**
+	 * Every round bundled with the cases under a project directory.
+	 */
+	public static List<Run> discover(File project) {
+		List<Run> runs = new ArrayList<Run>();
+		File[] pairs = new File(project, "pairsCase").listFiles();
+		if (pairs != null) {
+			Arrays.sort(pairs);
+			for (File csv : pairs)
+				if (csv.getName().matches("PairsRound\\d+\\.csv"))
+					runs.add(new PairsRun(csv, Integer.parseInt(csv.getName().replaceAll("\\D", ""))));
+		}
+		File[] options = new File(project, "optionsCase").listFiles();
+		if (options != null) {
+			Arrays.sort(options);
+			for (File csv : options)
+				if (csv.getName().endsWith(".csv"))
+					runs.add(new OptionsRun(csv));
+		}
+		File[] index = new File(project, "indexCase/market-data").listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File dir) {
+				return new File(dir, "prices.csv").isFile();
+			}
+		});
+		if (index != null) {
+			Arrays.sort(index);
+			for (File round : index)
+				runs.add(new IndexRun(round));
+		}
+		return runs;
+	}
+
+	/**
+	 * Runs them all on the pool at once and returns their reports in the
+	 * same order.
+	 */
+	public static List<Report> run(List<? extends Run> runs, ForkJoinPool pool) {
+		for (Run run : runs)
+			pool.execute(run);
+		List<Report> reports = new ArrayList<Report>(runs.size());
+		for (Run run : runs)
+			reports.add(run.join());
+		return reports;
+	}
+
+	public static void main(String[] args) {
+		File project = new File(args.length > 0 ? args[0] : ".");
+		int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long budget = args.length > 2 ? (long) (Double.parseDouble(args[2]) * 1000) : 0;
+		List<Run> runs = discover(project);
+		if (runs.isEmpty()) {
+			System.err.println("Nothing to replay under " + project.getAbsolutePath());
+			System.exit(1);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		long start = System.nanoTime();
+		List<Report> reports = run(runs, pool);
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+
+		long slowest = 0;
+		int failures = 0;
+		for (Report report : reports) {
+			System.out.println(report);
+			if (report.latency != null) {
+				report.latency.setBudgetNanos(budget);
+				System.out.println(report.latency.report());
+			}
+			slowest = Math.max(slowest, report.nanos);
+			if (report.failure != null)
+				failures++;
+		}
+		System.out.println(reports.size() + " replays on " + parallelism + " threads in " + elapsed / 1000000 + " ms, slowest replay " + slowest / 1000000 + " ms");
+		if (failures != 0)
+			System.exit(1);
+	}
+}
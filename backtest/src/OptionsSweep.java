@@ -0,0 +1,301 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.uchicago.options.OptionsHelpers.QuoteList;
+
+/**
+ * Replays the options order streams for many OptionsCaseNYU1.Parameters at
+ * once and prints how each configuration did on each stream, as CSV.
+ * <p>
+ * Configurations are replayed in blocks of BLOCK. A block makes one pass
+ * over a stream, and every strategy in the block answers each order before
+ * the pass moves on to the next one, so an order is read once per block
+ * rather than once per configuration. Results are kept per stream as
+ * columns indexed by configuration. Blocks run side by side on a
+ * ForkJoinPool.
+ * <p>
+ * Usage: <tt>OptionsSweep [random [configurations] | grid [levels]] [project directory]</tt>
+ */
+public class OptionsSweep {
+	private static final int BLOCK = 64;
+
+	/**
+	 * A field of OptionsCaseNYU1.Parameters and the range it's searched over.
+	 */
+	public static class Dimension {
+		public final Field field;
+		public final double min, max;
+		//the field whose value the range starts from, or null if it's absolute
+		public final Field offsetFrom;
+
+		public Dimension(String field, double min, double max) {
+			this(field, min, max, null);
+		}
+
+		/**
+		 * A dimension whose range is a width added to the value of another
+		 * field, which must come before it in DIMENSIONS.
+		 */
+		public Dimension(String field, double min, double max, String offsetFrom) {
+			this.field = field(field);
+			this.min = min;
+			this.max = max;
+			this.offsetFrom = offsetFrom == null ? null : field(offsetFrom);
+		}
+
+		private static Field field(String name) {
+			try {
+				return OptionsCaseNYU1.Parameters.class.getField(name);
+			} catch (NoSuchFieldException e) {
+				throw new IllegalArgumentException("OptionsCaseNYU1.Parameters has no " + name, e);
+			}
+		}
+
+		/**
+		 * Sets the field to where unit falls in [min, max], plus offsetFrom's
+		 * value if there is one.
+		 */
+		public void set(OptionsCaseNYU1.Parameters parameters, double unit) {
+			double value = min + unit * (max - min);
+			try {
+				if (offsetFrom != null)
+					value += offsetFrom.getDouble(parameters);
+				if (field.getType() == int.class)
+					field.setInt(parameters, (int) Math.round(value));
+				else
+					field.setDouble(parameters, value);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public String get(OptionsCaseNYU1.Parameters parameters) {
+			try {
+				return String.valueOf(field.get(parameters));
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	public static final Dimension[] DIMENSIONS = {
+		new Dimension("initialVolatility", 0.2, 0.5),
+		new Dimension("initialSpread", 0.5, 6),
+		new Dimension("marginalWeightVelocityForInventory", 0, 0.005),
+		new Dimension("maxWeightVelocityMagnitude", 0, 0.0005),
+		new Dimension("maxWeightDeviation", 0, 2),
+		new Dimension("minSpread", 0.5, 8),
+		//a width over minSpread, so that maxSpread is never below it
+		new Dimension("maxSpread", 0, 15, "minSpread"),
+		new Dimension("spreadFactor", 0.01, 1),
+		new Dimension("vegaPower", 0, 2),
+		new Dimension("vegaClamp", 0.25, 4),
+		new Dimension("maxNetInventoryMagnitude", 0, 10),
+		new Dimension("maxAssetInventoryMagnitude", 0, 10)
+	};
+
+	/**
+	 * One order stream, and how every configuration did on it.
+	 */
+	public static class Stream {
+		public final String name;
+		//the orders, column by column
+		private final int[] direction, strike;
+		private final double[] price;
+		public final double[] pnl, highestVega, penaltyDollars;
+		public final int[] penalties, cleared;
+
+		public Stream(File csv, int configurations) throws IOException {
+			name = csv.getName();
+			TickFile ticks = TickFile.load(csv.getPath());
+			direction = new int[ticks.rows()];
+			strike = new int[ticks.rows()];
+			price = new double[ticks.rows()];
+			for (int i = 0; i < ticks.rows(); i++) {
+				direction[i] = (int) ticks.get(i, 0);
+				strike[i] = (int) ticks.get(i, 1);
+				price[i] = ticks.get(i, 2);
+			}
+			pnl = new double[configurations];
+			highestVega = new double[configurations];
+			penaltyDollars = new double[configurations];
+			penalties = new int[configurations];
+			cleared = new int[configurations];
+		}
+	}
+
+	private static class Block extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Stream stream;
+		private final List<OptionsCaseNYU1.Parameters> configurations;
+		private final int from, to;
+
+		public Block(Stream stream, List<OptionsCaseNYU1.Parameters> configurations, int from, int to) {
+			this.stream = stream;
+			this.configurations = configurations;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			final Backtest.Variables variables = new Backtest.Variables();
+			OptionsCaseNYU1[] strategies = new OptionsCaseNYU1[to - from];
+			for (int b = 0; b < strategies.length; b++) {
+				strategies[b] = new OptionsCaseNYU1(configurations.get(from + b)) {
+					@Override
+					public String getStringVar(String str) {
+						return variables.getString(str);
+					}
+
+					@Override
+					public void log(String s) {
+					}
+				};
+				if (b == 0) {
+					strategies[b].addVariables(variables);
+					variables.setVariable("LOG_LEVEL", "0");
+				}
+				strategies[b].initializeAlgo(null, null);
+			}
+
+			for (int i = 0; i < stream.direction.length; i++) {
+				int direction = stream.direction[i], strike = stream.strike[i];
+				double price = stream.price[i];
+				for (OptionsCaseNYU1 c : strategies) {
+					QuoteList list = c.getCurrentQuotes();
+					if (direction == 1 && Backtest.OptionsRun.getQuote(list, strike).offer <= price)
+						c.newFill(strike, direction, Backtest.OptionsRun.getQuote(list, strike).offer);
+					else if (direction == -1 && Backtest.OptionsRun.getQuote(list, strike).bid >= price)
+						c.newFill(strike, direction, Backtest.OptionsRun.getQuote(list, strike).bid);
+					else
+						c.noBrokerFills();
+				}
+			}
+
+			for (int b = 0; b < strategies.length; b++) {
+				stream.pnl[from + b] = strategies[b].pnl;
+				stream.highestVega[from + b] = strategies[b].highestVega;
+				stream.penalties[from + b] = strategies[b].penalties;
+				stream.penaltyDollars[from + b] = strategies[b].penaltyDollars;
+				stream.cleared[from + b] = strategies[b].cleared;
+			}
+		}
+	}
+
+	/**
+	 * Replays every configuration over every stream.
+	 */
+	public static void run(List<OptionsCaseNYU1.Parameters> configurations, List<Stream> streams, ForkJoinPool pool) {
+		List<Block> blocks = new ArrayList<Block>();
+		for (Stream stream : streams) {
+			for (int from = 0; from < configurations.size(); from += BLOCK) {
+				Block block = new Block(stream, configurations, from, Math.min(from + BLOCK, configurations.size()));
+				blocks.add(block);
+				pool.execute(block);
+			}
+		}
+		for (Block block : blocks)
+			block.join();
+	}
+
+	/**
+	 * The defaults first, then count points picked uniformly at random.
+	 */
+	public static List<OptionsCaseNYU1.Parameters> random(int count, Random random) {
+		List<OptionsCaseNYU1.Parameters> configurations = new ArrayList<OptionsCaseNYU1.Parameters>(count + 1);
+		configurations.add(new OptionsCaseNYU1.Parameters());
+		for (int i = 0; i < count; i++) {
+			OptionsCaseNYU1.Parameters parameters = new OptionsCaseNYU1.Parameters();
+			for (Dimension dimension : DIMENSIONS)
+				dimension.set(parameters, random.nextDouble());
+			configurations.add(parameters);
+		}
+		return configurations;
+	}
+
+	/**
+	 * The defaults first, then every combination of levels evenly spaced
+	 * values of each dimension.
+	 */
+	public static List<OptionsCaseNYU1.Parameters> grid(int levels) {
+		long total = 1;
+		for (int d = 0; d < DIMENSIONS.length; d++)
+			total *= levels;
+		if (total > Integer.MAX_VALUE - 1)
+			throw new IllegalArgumentException(levels + " levels over " + DIMENSIONS.length + " dimensions is too many configurations");
+		List<OptionsCaseNYU1.Parameters> configurations = new ArrayList<OptionsCaseNYU1.Parameters>((int) total + 1);
+		configurations.add(new OptionsCaseNYU1.Parameters());
+		for (int i = 0; i < total; i++) {
+			OptionsCaseNYU1.Parameters parameters = new OptionsCaseNYU1.Parameters();
+			for (int d = 0, rest = i; d < DIMENSIONS.length; d++, rest /= levels)
+				DIMENSIONS[d].set(parameters, levels == 1 ? 0.5 : (double) (rest % levels) / (levels - 1));
+			configurations.add(parameters);
+		}
+		return configurations;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 0 ? args[0] : "random";
+		File project = new File(args.length > 2 ? args[2] : ".");
+		List<OptionsCaseNYU1.Parameters> configurations;
+		switch (mode) {
+			case "random":
+				configurations = random(args.length > 1 ? Integer.parseInt(args[1]) : 1024, new Random(0));
+				break;
+			case "grid":
+				configurations = grid(args.length > 1 ? Integer.parseInt(args[1]) : 2);
+				break;
+			default:
+				System.err.println("Unknown mode " + mode + ", expected random or grid");
+				System.exit(1);
+				return;
+		}
+
+		List<Stream> streams = new ArrayList<Stream>();
+		File[] files = new File(project, "optionsCase").listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File csv : files)
+				if (csv.getName().endsWith(".csv"))
+					streams.add(new Stream(csv, configurations.size()));
+		}
+		if (streams.isEmpty()) {
+			System.err.println("No options order streams under " + project.getAbsolutePath());
+			System.exit(1);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		long start = System.nanoTime();
+		run(configurations, streams, pool);
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+
+		StringBuilder line = new StringBuilder("configuration");
+		for (Dimension dimension : DIMENSIONS)
+			line.append(',').append(dimension.field.getName());
+		for (Stream stream : streams)
+			for (String column : new String[] { "pnl", "highest vega", "penalties", "penalty dollars", "cleared" })
+				line.append(',').append(stream.name).append(' ').append(column);
+		System.out.println(line);
+		for (int c = 0; c < configurations.size(); c++) {
+			line.setLength(0);
+			line.append(c);
+			for (Dimension dimension : DIMENSIONS)
+				line.append(',').append(dimension.get(configurations.get(c)));
+			for (Stream stream : streams)
+				line.append(',').append(stream.pnl[c]).append(',').append(stream.highestVega[c]).append(',').append(stream.penalties[c]).append(',').append(stream.penaltyDollars[c]).append(',').append(stream.cleared[c]);
+			System.out.println(line);
+		}
+		System.err.println(String.format(Locale.US, "%d configurations over %d streams on %d threads in %d ms", configurations.size(), streams.size(), pool.getParallelism(), elapsed / 1000000));
+	}
+}
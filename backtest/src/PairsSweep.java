@@ -0,0 +1,537 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.math3.special.Erf;
+import org.uchicago.pairs.PairsHelper.Order;
+import org.uchicago.pairs.PairsHelper.Quote;
+import org.uchicago.pairs.PairsHelper.Ticker;
+
+/**
+ * Searches the pairs case's _OVERRIDE variables for what does best over
+ * every bundled round, replaying configurations side by side on a
+ * ForkJoinPool. Every configuration overrides all of DIMENSIONS, and is
+ * scored on its PnL and contracts sold summed over the rounds.
+ * <p>
+ * Configurations come from a grid, from uniform random sampling, or from
+ * Bayesian optimization of PnL with a Gaussian process and expected
+ * improvement. Whichever it is, the sweep reports the best PnL and the
+ * Pareto front of PnL against contracts sold. Orders are filled by
+ * PairsExchange, and configurations that had any rejected for
+ * going over the position limit are left out of both.
+ * <p>
+ * Usage: <tt>PairsSweep [grid [levels] | random [configurations] | bayesian [configurations]] [project directory]</tt>
+ */
+public class PairsSweep {
+	/**
+	 * An override variable and the range it's searched over.
+	 */
+	public static class Dimension {
+		public final String variable;
+		public final double min, max;
+		public final boolean integer;
+		//the index in DIMENSIONS of a dimension this one must not fall below, or -1
+		public final int atLeast;
+
+		public Dimension(String variable, double min, double max, boolean integer) {
+			this(variable, min, max, integer, -1);
+		}
+
+		/**
+		 * A dimension whose range is shifted up by however far the value of
+		 * DIMENSIONS[atLeast] is past min, so that it's never below it.
+		 */
+		public Dimension(String variable, double min, double max, boolean integer, int atLeast) {
+			this.variable = variable;
+			this.min = min;
+			this.max = max;
+			this.integer = integer;
+			this.atLeast = atLeast;
+		}
+
+		/**
+		 * Maps unit, in [0, 1], onto the range, where point is the rest of
+		 * the configuration in the unit cube.
+		 */
+		public double number(double unit, double[] point) {
+			double value = min + unit * (max - min);
+			if (atLeast != -1)
+				value += Math.max(0, DIMENSIONS[atLeast].number(point[atLeast], point) - min);
+			return integer ? Math.round(value) : value;
+		}
+
+		public String value(double unit, double[] point) {
+			double value = number(unit, point);
+			return integer ? Long.toString((long) value) : Double.toString(value);
+		}
+	}
+
+	public static final Dimension[] DIMENSIONS = {
+		new Dimension("TRIGGER_SIGNAL_OVERRIDE", 1, 3.5, false),
+		new Dimension("CLOSE_SIGNAL_OVERRIDE", 0, 1.5, false),
+		new Dimension("EMA_SHORT_OVERRIDE", 4, 40, true),
+		new Dimension("EMA_LONG_OVERRIDE", 4, 40, true),
+		new Dimension("POSITION_CHANGE_ON_TRIGGER_OVERRIDE", 1, 20, true),
+		new Dimension("POSITION_DOUBLE_DOWN_RATE_OVERRIDE", 0, 20, true),
+		new Dimension("MINIMUM_CORRELATION_STAGE_TICKS_OVERRIDE", 2, 60, true),
+		//past the longest EMA's seed, and never before the minimum
+		new Dimension("MAXIMUM_CORRELATION_STAGE_TICKS_OVERRIDE", 44, 100, true, 6)
+	};
+
+	/**
+	 * One round's quotes, built once and then only read by every replay.
+	 */
+	public static class Round {
+		public final int round;
+		public final Ticker[] tickers;
+		public final Quote[][] quotes;
+
+		public Round(File csv, int round) throws IOException {
+			TickFile ticks = TickFile.load(csv.getPath());
+			this.round = round;
+			tickers = Arrays.copyOf(Ticker.values(), ticks.columns());
+			quotes = new Quote[ticks.rows()][tickers.length];
+			for (int i = 0; i < ticks.rows(); i++)
+				for (int j = 0; j < tickers.length; j++)
+					quotes[i][j] = new Quote(tickers[j], ticks.get(i, j) - 1, ticks.get(i, j) + 1);
+		}
+	}
+
+	public static class Evaluation extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		//where in the unit cube over DIMENSIONS this configuration is
+		public final double[] point;
+		private final List<Round> rounds;
+		public double pnl;
+		public int contractsSold;
+		//orders the exchange rejected for going over the position limit
+		public int rejected;
+		//null unless a replay threw
+		public Throwable failure;
+
+		public Evaluation(double[] point, List<Round> rounds) {
+			this.point = point;
+			this.rounds = rounds;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				for (Round round : rounds)
+					replay(round);
+			} catch (Throwable e) {
+				failure = e;
+			}
+		}
+
+		private void replay(Round round) {
+			final Backtest.Variables variables = new Backtest.Variables();
+			PairsCaseNYU1 c = new PairsCaseNYU1() {
+				@Override
+				public String getStringVar(String str) {
+					return variables.getString(str);
+				}
+
+				@Override
+				public int getIntVar(String str) {
+					return variables.getInt(str);
+				}
+
+				@Override
+				public void log(String s) {
+				}
+			};
+			c.addVariables(variables);
+			variables.setVariable("round", Integer.toString(round.round));
+			variables.setVariable("LOG_TICKS", "0");
+			for (int d = 0; d < DIMENSIONS.length; d++)
+				variables.setVariable(DIMENSIONS[d].variable, DIMENSIONS[d].value(point[d], point));
+			PairsExchange exchange = new PairsExchange(round.round, round.tickers.length);
+			c.initializeAlgo(null);
+			c.currentSymbols(round.tickers);
+			for (Quote[] quotes : round.quotes) {
+				Order[] orders = c.getNewQuotes(quotes);
+				exchange.fill(quotes, orders);
+				c.ordersConfirmation(orders);
+			}
+			pnl += exchange.pnl();
+			contractsSold += exchange.contractsSold();
+			rejected += exchange.rejected();
+		}
+
+		/**
+		 * Whether it finished every round without going over the position
+		 * limit.
+		 */
+		public boolean feasible() {
+			return failure == null && rejected == 0;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder line = new StringBuilder();
+			if (failure != null)
+				line.append("failed with ").append(failure);
+			else
+				line.append("PnL ").append(pnl).append(", contracts sold ").append(contractsSold).append(", rejected orders ").append(rejected);
+			for (int d = 0; d < DIMENSIONS.length; d++)
+				line.append(d == 0 ? ": " : ", ").append(DIMENSIONS[d].variable).append('=').append(DIMENSIONS[d].value(point[d], point));
+			return line.toString();
+		}
+	}
+
+	/**
+	 * Gaussian process regression with a squared exponential kernel over the
+	 * unit cube. The length scale is whichever of LENGTH_SCALES makes the
+	 * observations most likely.
+	 */
+	public static class GaussianProcess {
+		private static final double[] LENGTH_SCALES = { 0.1, 0.2, 0.35, 0.5, 0.75, 1 };
+		//replays are deterministic, this only keeps the factorization stable
+		private static final double JITTER = 1e-6;
+
+		private double[][] points;
+		private double mean, scale;
+		private double lengthScale;
+		//lower triangle of the kernel matrix's Cholesky factor, row by row
+		private double[] factor;
+		private double[] weights;
+
+		public void fit(List<double[]> points, double[] values) {
+			this.points = points.toArray(new double[points.size()][]);
+			int n = values.length;
+			mean = 0;
+			for (double value : values)
+				mean += value;
+			mean /= n;
+			scale = 0;
+			for (double value : values)
+				scale += (value - mean) * (value - mean);
+			scale = Math.sqrt(scale / n);
+			if (scale == 0)
+				scale = 1;
+			double[] y = new double[n];
+			for (int i = 0; i < n; i++)
+				y[i] = (values[i] - mean) / scale;
+
+			double best = Double.NEGATIVE_INFINITY;
+			double bestLengthScale = LENGTH_SCALES[0];
+			for (double candidate : LENGTH_SCALES) {
+				lengthScale = candidate;
+				if (!factorize())
+					continue;
+				solve(y);
+				//log marginal likelihood, less the constant
+				double likelihood = 0;
+				for (int i = 0; i < n; i++)
+					likelihood -= 0.5 * y[i] * weights[i] + Math.log(factor[i * (i + 1) / 2 + i]);
+				if (likelihood > best) {
+					best = likelihood;
+					bestLengthScale = candidate;
+				}
+			}
+			lengthScale = bestLengthScale;
+			factorize();
+			solve(y);
+		}
+
+		private double kernel(double[] a, double[] b) {
+			double distance = 0;
+			for (int d = 0; d < a.length; d++)
+				distance += (a[d] - b[d]) * (a[d] - b[d]);
+			return Math.exp(-distance / (2 * lengthScale * lengthScale));
+		}
+
+		private boolean factorize() {
+			int n = points.length;
+			factor = new double[n * (n + 1) / 2];
+			for (int i = 0; i < n; i++) {
+				int row = i * (i + 1) / 2;
+				for (int j = 0; j <= i; j++) {
+					int other = j * (j + 1) / 2;
+					double sum = kernel(points[i], points[j]) + (i == j ? JITTER : 0);
+					for (int k = 0; k < j; k++)
+						sum -= factor[row + k] * factor[other + k];
+					if (i == j) {
+						if (sum <= 0)
+							return false;
+						factor[row + i] = Math.sqrt(sum);
+					} else {
+						factor[row + j] = sum / factor[other + j];
+					}
+				}
+			}
+			return true;
+		}
+
+		//weights = K^-1 y
+		private void solve(double[] y) {
+			int n = y.length;
+			weights = forward(y);
+			for (int i = n - 1; i >= 0; i--) {
+				double sum = weights[i];
+				for (int k = i + 1; k < n; k++)
+					sum -= factor[k * (k + 1) / 2 + i] * weights[k];
+				weights[i] = sum / factor[i * (i + 1) / 2 + i];
+			}
+		}
+
+		//L^-1 b
+		private double[] forward(double[] b) {
+			double[] x = new double[b.length];
+			for (int i = 0; i < b.length; i++) {
+				int row = i * (i + 1) / 2;
+				double sum = b[i];
+				for (int k = 0; k < i; k++)
+					sum -= factor[row + k] * x[k];
+				x[i] = sum / factor[row + i];
+			}
+			return x;
+		}
+
+		/**
+		 * Mean and standard deviation of the value at a point.
+		 */
+		public double[] predict(double[] point) {
+			double[] covariances = new double[points.length];
+			double mu = 0;
+			for (int i = 0; i < points.length; i++) {
+				covariances[i] = kernel(point, points[i]);
+				mu += covariances[i] * weights[i];
+			}
+			double[] v = forward(covariances);
+			double variance = 1;
+			for (double x : v)
+				variance -= x * x;
+			return new double[] { mean + scale * mu, scale * Math.sqrt(Math.max(variance, 0)) };
+		}
+
+		public static double expectedImprovement(double mean, double deviation, double best) {
+			if (deviation == 0)
+				return Math.max(mean - best, 0);
+			double z = (mean - best) / deviation;
+			return (mean - best) * 0.5 * (1 + Erf.erf(z / Math.sqrt(2))) + deviation * Math.exp(-z * z / 2) / Math.sqrt(2 * Math.PI);
+		}
+	}
+
+	private final List<Round> rounds;
+	private final ForkJoinPool pool;
+	private final List<Evaluation> evaluations = new ArrayList<Evaluation>();
+
+	public PairsSweep(List<Round> rounds, ForkJoinPool pool) {
+		this.rounds = rounds;
+		this.pool = pool;
+	}
+
+	public static List<Round> loadRounds(File project) throws IOException {
+		List<Round> rounds = new ArrayList<Round>();
+		File[] files = new File(project, "pairsCase").listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File csv : files)
+				if (csv.getName().matches("PairsRound\\d+\\.csv"))
+					rounds.add(new Round(csv, Integer.parseInt(csv.getName().replaceAll("\\D", ""))));
+		}
+		return rounds;
+	}
+
+	/**
+	 * Replays the points all at once and returns how each of them did.
+	 */
+	public List<Evaluation> evaluate(List<double[]> points) {
+		List<Evaluation> batch = new ArrayList<Evaluation>(points.size());
+		for (double[] point : points) {
+			Evaluation evaluation = new Evaluation(point, rounds);
+			batch.add(evaluation);
+			pool.execute(evaluation);
+		}
+		for (Evaluation evaluation : batch)
+			evaluation.join();
+		evaluations.addAll(batch);
+		return batch;
+	}
+
+	/**
+	 * Every combination of levels evenly spaced values of each dimension.
+	 */
+	public List<Evaluation> grid(int levels) {
+		int total = 1;
+		for (int d = 0; d < DIMENSIONS.length; d++)
+			total *= levels;
+		List<double[]> points = new ArrayList<double[]>(total);
+		for (int i = 0; i < total; i++) {
+			double[] point = new double[DIMENSIONS.length];
+			for (int d = 0, rest = i; d < DIMENSIONS.length; d++, rest /= levels)
+				point[d] = levels == 1 ? 0.5 : (double) (rest % levels) / (levels - 1);
+			points.add(point);
+		}
+		return evaluate(points);
+	}
+
+	public List<Evaluation> random(int count, Random random) {
+		List<double[]> points = new ArrayList<double[]>(count);
+		for (int i = 0; i < count; i++)
+			points.add(randomPoint(random));
+		return evaluate(points);
+	}
+
+	private static double[] randomPoint(Random random) {
+		double[] point = new double[DIMENSIONS.length];
+		for (int d = 0; d < point.length; d++)
+			point[d] = random.nextDouble();
+		return point;
+	}
+
+	/**
+	 * Starts from random points, then keeps replaying batches of the points
+	 * with the highest expected improvement in PnL. Each batch is picked one
+	 * point at a time, pretending the points already picked scored what the
+	 * process predicted, so that one batch doesn't pile up on one optimum.
+	 * Failed configurations, and ones that went over the position limit,
+	 * count as the worst PnL seen.
+	 */
+	public List<Evaluation> bayesian(int count, int batchSize, Random random) {
+		List<Evaluation> results = new ArrayList<Evaluation>(random(Math.min(count, Math.max(batchSize, 4 * DIMENSIONS.length)), random));
+		GaussianProcess process = new GaussianProcess();
+		while (results.size() < count) {
+			List<double[]> points = new ArrayList<double[]>();
+			List<Double> values = new ArrayList<Double>();
+			double worst = Double.POSITIVE_INFINITY, best = Double.NEGATIVE_INFINITY;
+			double[] incumbent = null;
+			for (Evaluation evaluation : results) {
+				if (evaluation.failure == null)
+					worst = Math.min(worst, evaluation.pnl);
+				if (evaluation.feasible() && evaluation.pnl > best) {
+					best = evaluation.pnl;
+					incumbent = evaluation.point;
+				}
+			}
+			if (worst == Double.POSITIVE_INFINITY)
+				return results;
+			//nothing stayed within the limit yet, so only explore
+			if (incumbent == null)
+				best = worst;
+			for (Evaluation evaluation : results) {
+				points.add(evaluation.point);
+				values.add(Double.valueOf(evaluation.feasible() ? evaluation.pnl : worst));
+			}
+
+			List<double[]> batch = new ArrayList<double[]>();
+			for (int b = 0; b < batchSize && results.size() + batch.size() < count; b++) {
+				double[] y = new double[values.size()];
+				for (int i = 0; i < y.length; i++)
+					y[i] = values.get(i).doubleValue();
+				process.fit(points, y);
+
+				double[] next = null;
+				double improvement = Double.NEGATIVE_INFINITY;
+				//random candidates to explore, and ones near the best so far to exploit
+				for (int i = 0; i < 2000; i++) {
+					double[] candidate = randomPoint(random);
+					if (i % 4 == 0 && incumbent != null)
+						for (int d = 0; d < candidate.length; d++)
+							candidate[d] = Math.min(1, Math.max(0, incumbent[d] + 0.05 * random.nextGaussian()));
+					double[] prediction = process.predict(candidate);
+					double ei = GaussianProcess.expectedImprovement(prediction[0], prediction[1], best);
+					if (ei > improvement) {
+						improvement = ei;
+						next = candidate;
+					}
+				}
+				batch.add(next);
+				points.add(next);
+				values.add(Double.valueOf(process.predict(next)[0]));
+			}
+			results.addAll(evaluate(batch));
+		}
+		return results;
+	}
+
+	/**
+	 * The feasible configurations no other one beats on both PnL and
+	 * contracts sold, from fewest contracts sold to most.
+	 */
+	public static List<Evaluation> paretoFront(List<Evaluation> evaluations) {
+		List<Evaluation> sorted = new ArrayList<Evaluation>();
+		for (Evaluation evaluation : evaluations)
+			if (evaluation.feasible())
+				sorted.add(evaluation);
+		Collections.sort(sorted, new Comparator<Evaluation>() {
+			@Override
+			public int compare(Evaluation a, Evaluation b) {
+				if (a.contractsSold != b.contractsSold)
+					return Integer.compare(a.contractsSold, b.contractsSold);
+				return Double.compare(b.pnl, a.pnl);
+			}
+		});
+		List<Evaluation> front = new ArrayList<Evaluation>();
+		double best = Double.NEGATIVE_INFINITY;
+		for (Evaluation evaluation : sorted) {
+			if (evaluation.pnl > best) {
+				front.add(evaluation);
+				best = evaluation.pnl;
+			}
+		}
+		return front;
+	}
+
+	public List<Evaluation> evaluations() {
+		return evaluations;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 0 ? args[0] : "random";
+		File project = new File(args.length > 2 ? args[2] : ".");
+		List<Round> rounds = loadRounds(project);
+		if (rounds.isEmpty()) {
+			System.err.println("No pairs rounds under " + project.getAbsolutePath());
+			System.exit(1);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		PairsSweep sweep = new PairsSweep(rounds, pool);
+		Random random = new Random(0);
+		long start = System.nanoTime();
+		switch (mode) {
+			case "grid":
+				sweep.grid(args.length > 1 ? Integer.parseInt(args[1]) : 3);
+				break;
+			case "random":
+				sweep.random(args.length > 1 ? Integer.parseInt(args[1]) : 2000, random);
+				break;
+			case "bayesian":
+				sweep.bayesian(args.length > 1 ? Integer.parseInt(args[1]) : 256, Math.max(pool.getParallelism(), 4), random);
+				break;
+			default:
+				System.err.println("Unknown mode " + mode + ", expected grid, random or bayesian");
+				System.exit(1);
+		}
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+
+		Evaluation best = null;
+		int failures = 0, infeasible = 0;
+		for (Evaluation evaluation : sweep.evaluations()) {
+			if (evaluation.failure != null)
+				failures++;
+			else if (!evaluation.feasible())
+				infeasible++;
+			else if (best == null || evaluation.pnl > best.pnl)
+				best = evaluation;
+		}
+		System.out.println(sweep.evaluations().size() + " configurations over " + rounds.size() + " rounds on " + pool.getParallelism() + " threads in " + elapsed / 1000000 + " ms, " + failures + " failed, " + infeasible + " went over the position limit");
+		if (best != null)
+			System.out.println("Best: " + best);
+		System.out.println("Pareto front of PnL against contracts sold:");
+		for (Evaluation evaluation : paretoFront(sweep.evaluations()))
+			System.out.println(evaluation);
+	}
+}
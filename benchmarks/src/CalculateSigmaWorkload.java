@@ -0,0 +1,52 @@
+import java.util.Arrays;
+
+import org.uchicago.options.OptionsMathUtils;
+
+import benchmarks.Workload;
+
+/**
+ * Solves for the implied volatility of one price per operation, cycling
+ * through prices across the band the options case clamps sigma to, the way
+ * the options Test's benchmark does.
+ */
+public class CalculateSigmaWorkload implements Workload {
+	private static final int[] STRIKES = { 80, 90, 100, 110, 120 };
+	private static final int VOL_STEPS = 1000;
+	private static final String[] SOLVERS = { "bisection", "newton", "table", "polished" };
+
+	private final OptionsCaseNYU1 c = new OptionsCaseNYU1();
+	private final OptionsCaseNYU1.ImpliedVolatilityTable[] tables = new OptionsCaseNYU1.ImpliedVolatilityTable[STRIKES.length];
+	private final double[][] prices = new double[STRIKES.length][VOL_STEPS + 1];
+	private int solver;
+	private int strike, price;
+
+	@Override
+	public void setUp(String... parameters) {
+		solver = Arrays.asList(SOLVERS).indexOf(parameters[0]);
+		if (solver == -1)
+			throw new IllegalArgumentException("Unknown solver " + parameters[0] + ", expected one of " + Arrays.toString(SOLVERS));
+		for (int i = 0; i < STRIKES.length; i++) {
+			for (int j = 0; j <= VOL_STEPS; j++)
+				prices[i][j] = OptionsMathUtils.theoValue(STRIKES[i], 0.2 + 0.3 * j / VOL_STEPS);
+			tables[i] = new OptionsCaseNYU1.ImpliedVolatilityTable(STRIKES[i], prices[i][0], prices[i][VOL_STEPS], 1e-8);
+		}
+	}
+
+	@Override
+	public double run() {
+		if (++price > VOL_STEPS) {
+			price = 0;
+			strike = (strike + 1) % STRIKES.length;
+		}
+		switch (solver) {
+			case 0:
+				return c.calculateSigmaByBisection(STRIKES[strike], prices[strike][price]);
+			case 1:
+				return c.calculateSigmaByNewton(STRIKES[strike], prices[strike][price]);
+			case 2:
+				return tables[strike].lookup(prices[strike][price]);
+			default:
+				return tables[strike].lookupPolished(prices[strike][price]);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+import java.util.Random;
+
+import benchmarks.Workload;
+
+/**
+ * Matches every pair of tickers by the absolute value of a random z-score per
+ * operation, on one reused PairMatcher the way the pairs strategy does on
+ * every tick.
+ */
+public class FindBestPairWorkload implements Workload {
+	//enough matrices that the branch predictor can't learn the answers
+	private static final int MATRICES = 64;
+
+	private PairsCaseNYU1.PairMatcher matcher;
+	private double[][][] zScores;
+	private int next;
+
+	@Override
+	public void setUp(String... parameters) {
+		int n = Integer.parseInt(parameters[0]);
+		matcher = new PairsCaseNYU1.PairMatcher(n);
+		Random random = new Random(0);
+		zScores = new double[MATRICES][n][n];
+		for (double[][] matrix : zScores)
+			for (int i = 0; i < n; i++)
+				for (int j = i + 1; j < n; j++)
+					matrix[i][j] = 2 * random.nextGaussian();
+	}
+
+	@Override
+	public double run() {
+		double[][] matrix = zScores[next];
+		next = (next + 1) % MATRICES;
+		matcher.clear();
+		for (int i = 0; i < matrix.length; i++)
+			for (int j = i + 1; j < matrix.length; j++)
+				matcher.setEdge(i, j, Math.abs(matrix[i][j]));
+		return matcher.solve();
+	}
+}
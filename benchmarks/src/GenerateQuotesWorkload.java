@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+import org.uchicago.pairs.PairsHelper.Order;
+import org.uchicago.pairs.PairsHelper.Quote;
+import org.uchicago.pairs.PairsHelper.Ticker;
+
+import benchmarks.Workload;
+
+/**
+ * Feeds the pairs strategy one tick of a bundled round per operation, with
+ * tick logging off. At the end of the round a fresh strategy starts over, so
+ * its setup is amortized over every tick of the round.
+ */
+public class GenerateQuotesWorkload implements Workload {
+	private static final Ticker[] TICKERS = { Ticker.HURON, Ticker.SUPERIOR, Ticker.MICHIGAN, Ticker.ONTARIO, Ticker.ERIE };
+
+	private int round;
+	private Ticker[] tickers;
+	private Quote[][] ticks;
+	private PairsCaseNYU1 c;
+	private int tick;
+
+	@Override
+	public void setUp(String... parameters) throws Exception {
+		round = Integer.parseInt(parameters[0]);
+		TickFile prices = TickFile.load("pairsCase/PairsRound" + round + ".csv");
+		tickers = Arrays.copyOf(TICKERS, prices.columns());
+		ticks = new Quote[prices.rows()][tickers.length];
+		for (int i = 0; i < ticks.length; i++)
+			for (int j = 0; j < tickers.length; j++)
+				ticks[i][j] = new Quote(tickers[j], prices.get(i, j) - 1, prices.get(i, j) + 1);
+		tick = ticks.length;
+	}
+
+	@Override
+	public double run() {
+		if (tick == ticks.length) {
+			c = new PairsCaseNYU1() {
+				@Override
+				public String getStringVar(String str) {
+					return null;
+				}
+
+				@Override
+				public int getIntVar(String str) {
+					if (str.equals("round"))
+						return round;
+					if (str.equals("LOG_TICKS"))
+						return 0;
+					return -1;
+				}
+
+				@Override
+				public void log(String s) {
+				}
+			};
+			c.initializeAlgo(null);
+			c.currentSymbols(tickers);
+			tick = 0;
+		}
+		Order[] orders = c.getNewQuotes(ticks[tick++]);
+		return orders[0].quantity + c.cashAndPnl;
+	}
+}
@@ -0,0 +1,70 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.util.Scanner;
+
+import benchmarks.Workload;
+
+/**
+ * Reads every value of a CSV per operation, either by parsing it with the
+ * Scanner loop the replay harnesses used before tick files, or by opening
+ * its converted tick file and summing each column. Sums are returned so that
+ * neither can skip any values.
+ */
+public class LoadTicksWorkload implements Workload {
+	private String csv;
+	private boolean scanner;
+
+	@Override
+	public void setUp(String... parameters) throws IOException {
+		csv = parameters[0];
+		if (!parameters[1].equals("scanner") && !parameters[1].equals("ticks"))
+			throw new IllegalArgumentException("Unknown loader " + parameters[1] + ", expected scanner or ticks");
+		scanner = parameters[1].equals("scanner");
+		//convert ahead of time, so that only opening is timed
+		TickFile.load(csv);
+	}
+
+	@Override
+	public double run() {
+		try {
+			return scanner ? scan() : open();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private double scan() throws FileNotFoundException {
+		double sum = 0;
+		try (Scanner scan = new Scanner(new File(csv))) {
+			boolean first = true;
+			while (scan.hasNextLine()) {
+				String[] line = scan.nextLine().split(",");
+				for (String value : line) {
+					try {
+						sum += Double.parseDouble(value);
+					} catch (NumberFormatException e) {
+						//a line of column names
+						if (!first)
+							throw e;
+					}
+				}
+				first = false;
+			}
+		}
+		return sum;
+	}
+
+	private double open() throws IOException {
+		TickFile ticks = TickFile.open(csv + TickFile.EXTENSION);
+		double sum = 0;
+		for (int c = 0; c < ticks.columns(); c++) {
+			DoubleBuffer column = ticks.column(c);
+			while (column.hasRemaining())
+				sum += column.get();
+		}
+		return sum;
+	}
+}
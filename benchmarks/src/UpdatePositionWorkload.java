@@ -0,0 +1,77 @@
+import benchmarks.Workload;
+
+/**
+ * Feeds IndexCaseNYU1 one tick of a bundled round per operation, announcing
+ * changes in tradability as they come, with tracing off. At the end of the
+ * round the strategy is initialized again, so that is amortized over every
+ * tick of the round.
+ */
+public class UpdatePositionWorkload implements Workload {
+	private static final double COMMISSION = 0.031399675;
+
+	private IndexCaseNYU1 c;
+	private double[] weights;
+	private double[][] prices;
+	private double[] indexValues;
+	private boolean[] initialTradables, tradables;
+	//the asset and whether it becomes tradable, by the tick it's announced on
+	private int[][] changes;
+	private int tick;
+
+	@Override
+	public void setUp(String... parameters) throws Exception {
+		String round = "indexCase/market-data/round" + parameters[0] + "/";
+		final int trackingSolver = Integer.parseInt(parameters[1]);
+		c = new IndexCaseNYU1() {
+			@Override
+			public int getIntVar(String str) {
+				return str.equals("TRACKING_SOLVER") ? trackingSolver : 0;
+			}
+
+			@Override
+			public void log(String s) {
+			}
+		};
+
+		TickFile ticks = TickFile.load(round + "capWeights.csv");
+		weights = new double[ticks.rows()];
+		ticks.column(0).get(weights);
+		ticks = TickFile.load(round + "prices.csv");
+		prices = new double[ticks.rows()][weights.length];
+		indexValues = new double[prices.length];
+		for (int i = 0; i < prices.length; i++) {
+			ticks.row(i, prices[i]);
+			for (int j = 0; j < weights.length; j++)
+				indexValues[i] += prices[i][j];
+			indexValues[i] *= (1 - COMMISSION);
+		}
+		ticks = TickFile.load(round + "tradable_init.csv");
+		initialTradables = new boolean[weights.length];
+		for (int j = 0; j < weights.length; j++)
+			initialTradables[j] = ticks.get(j, 0) == 1;
+		ticks = TickFile.load(round + "tradable_changes.csv");
+		changes = new int[prices.length][];
+		for (int i = 0; i < ticks.rows(); i++)
+			changes[(int) ticks.get(i, 0) - 1] = new int[] { (int) ticks.get(i, 1), (int) ticks.get(i, 2) };
+		tradables = new boolean[weights.length];
+		tick = prices.length;
+	}
+
+	@Override
+	public double run() {
+		if (tick == prices.length) {
+			System.arraycopy(initialTradables, 0, tradables, 0, tradables.length);
+			c.initializeAlgo(null);
+			c.initalizePosition(prices[0], indexValues[0], weights, tradables);
+			tick = 1;
+		}
+		int[] change = changes[tick];
+		if (change != null) {
+			tradables[change[0]] = change[1] == 1;
+			c.regulationAnnouncement(tick, tick + 20, tradables);
+		}
+		double[] position = c.updatePosition(tick, prices[tick], indexValues[tick]);
+		tick++;
+		return position[0];
+	}
+}
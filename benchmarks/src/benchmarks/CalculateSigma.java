@@ -0,0 +1,21 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * One implied volatility solve by each of the options strategy's solvers.
+ */
+public class CalculateSigma extends WorkloadBenchmark {
+	@Param({ "bisection", "newton", "table", "polished" })
+	public String solver;
+
+	@Override
+	protected String workload() {
+		return "CalculateSigmaWorkload";
+	}
+
+	@Override
+	protected String[] parameters() {
+		return new String[] { solver };
+	}
+}
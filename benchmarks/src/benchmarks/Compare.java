@@ -0,0 +1,113 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares a JMH CSV result file against a recorded baseline, benchmark by
+ * benchmark and parameter by parameter, and exits with 1 if anything got
+ * slower. A score counts as slower if it is more than the tolerance above
+ * the baseline's and the two scores' error bars don't overlap.
+ * <p>
+ * Usage: <tt>Compare baseline.csv results.csv [tolerance, 0.1 by default]</tt>
+ */
+public class Compare {
+	private static class Result {
+		public final String unit;
+		public final double score, error;
+
+		public Result(String unit, double score, double error) {
+			this.unit = unit;
+			this.score = score;
+			this.error = Double.isNaN(error) ? 0 : error;
+		}
+	}
+
+	//JMH quotes strings and never puts quotes inside them
+	private static List<String> fields(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Results keyed by the benchmark's name followed by its parameters.
+	 */
+	private static Map<String, Result> read(String file) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+		if (lines.isEmpty())
+			throw new IOException(file + " is empty");
+		List<String> header = fields(lines.get(0));
+		int benchmark = header.indexOf("Benchmark"), score = header.indexOf("Score"), unit = header.indexOf("Unit"), error = -1;
+		for (int c = 0; c < header.size(); c++)
+			if (header.get(c).startsWith("Score Error"))
+				error = c;
+		if (benchmark == -1 || score == -1 || unit == -1 || error == -1)
+			throw new IOException(file + " is not a JMH CSV result file");
+
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		for (int i = 1; i < lines.size(); i++) {
+			if (lines.get(i).trim().isEmpty())
+				continue;
+			List<String> fields = fields(lines.get(i));
+			StringBuilder key = new StringBuilder(fields.get(benchmark));
+			for (int c = 0; c < header.size(); c++)
+				if (header.get(c).startsWith("Param: ") && !fields.get(c).isEmpty())
+					key.append(' ').append(header.get(c).substring("Param: ".length())).append('=').append(fields.get(c));
+			results.put(key.toString(), new Result(fields.get(unit), Double.parseDouble(fields.get(score)), Double.parseDouble(fields.get(error))));
+		}
+		return results;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: Compare baseline.csv results.csv [tolerance]");
+			System.exit(2);
+		}
+		Map<String, Result> baseline = read(args[0]), results = read(args[1]);
+		double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+
+		int regressions = 0;
+		for (Map.Entry<String, Result> entry : results.entrySet()) {
+			Result now = entry.getValue(), then = baseline.get(entry.getKey());
+			if (then == null) {
+				System.out.println(String.format(Locale.US, "%-70s %12.3f %s (not in the baseline)", entry.getKey(), now.score, now.unit));
+				continue;
+			}
+			if (!now.unit.equals(then.unit)) {
+				System.out.println(String.format(Locale.US, "%-70s measured in %s, but the baseline is in %s", entry.getKey(), now.unit, then.unit));
+				regressions++;
+				continue;
+			}
+			//every mode the benchmarks use reports time per operation, where lower is better
+			boolean slower = now.score > then.score * (1 + tolerance) && now.score - now.error > then.score + then.error;
+			if (slower)
+				regressions++;
+			System.out.println(String.format(Locale.US, "%-70s %12.3f -> %12.3f %s (%+.1f%%)%s", entry.getKey(), then.score, now.score, now.unit, (now.score / then.score - 1) * 100, slower ? "  REGRESSION" : ""));
+		}
+		if (regressions != 0) {
+			System.out.println(regressions + " regression" + (regressions == 1 ? "" : "s") + " against " + args[0]);
+			System.exit(1);
+		}
+	}
+}
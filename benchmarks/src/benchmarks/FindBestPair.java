@@ -0,0 +1,22 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * One choice of pairs to trade among every pair of tickers, by the exact
+ * matching up to PairMatcher.EXACT_MAX_TICKERS and the greedy one past it.
+ */
+public class FindBestPair extends WorkloadBenchmark {
+	@Param({ "5", "12", "30" })
+	public String tickers;
+
+	@Override
+	protected String workload() {
+		return "FindBestPairWorkload";
+	}
+
+	@Override
+	protected String[] parameters() {
+		return new String[] { tickers };
+	}
+}
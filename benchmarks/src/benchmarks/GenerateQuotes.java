@@ -0,0 +1,22 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * One tick of the pairs strategy, which is mostly generateQuotes(), replayed
+ * from a bundled round.
+ */
+public class GenerateQuotes extends WorkloadBenchmark {
+	@Param({ "1", "2", "3" })
+	public String round;
+
+	@Override
+	protected String workload() {
+		return "GenerateQuotesWorkload";
+	}
+
+	@Override
+	protected String[] parameters() {
+		return new String[] { round };
+	}
+}
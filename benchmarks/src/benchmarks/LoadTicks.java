@@ -0,0 +1,25 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Reading every value of a bundled CSV, by the Scanner loop the replay
+ * harnesses used to parse them with and out of its converted tick file.
+ */
+public class LoadTicks extends WorkloadBenchmark {
+	@Param({ "pairsCase/PairsRound3.csv", "indexCase/market-data/round1/prices.csv" })
+	public String file;
+
+	@Param({ "scanner", "ticks" })
+	public String loader;
+
+	@Override
+	protected String workload() {
+		return "LoadTicksWorkload";
+	}
+
+	@Override
+	protected String[] parameters() {
+		return new String[] { file, loader };
+	}
+}
@@ -0,0 +1,25 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * One tick of IndexCaseNYU1.updatePosition(), replayed from a bundled round,
+ * with each way of replacing untradable assets.
+ */
+public class UpdatePosition extends WorkloadBenchmark {
+	@Param({ "1", "2", "3" })
+	public String round;
+
+	@Param({ "0", "1" })
+	public String trackingSolver;
+
+	@Override
+	protected String workload() {
+		return "UpdatePositionWorkload";
+	}
+
+	@Override
+	protected String[] parameters() {
+		return new String[] { round, trackingSolver };
+	}
+}
@@ -0,0 +1,24 @@
+package benchmarks;
+
+/**
+ * One operation of a strategy, set up ahead of time so that a benchmark can
+ * time it on its own.
+ * <p>
+ * The strategies live in the default package, which nothing in a named
+ * package can refer to, and JMH won't generate benchmarks in the default
+ * package. So each workload is a default package class next to the
+ * strategies, and the benchmarks in this package load it by name.
+ */
+public interface Workload {
+	/**
+	 * Called once per trial, with the benchmark's parameters. Paths are
+	 * relative to the project directory.
+	 */
+	void setUp(String... parameters) throws Exception;
+
+	/**
+	 * Performs one operation and returns something that depends on all of
+	 * its work, so that none of it can be optimized away.
+	 */
+	double run();
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times {@link Workload#run()} of the workload a subclass names. The
+ * settings here are what the recorded baseline was measured with, so
+ * results are only comparable against it if they aren't overridden.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public abstract class WorkloadBenchmark {
+	private Workload workload;
+
+	/**
+	 * The default package class implementing the workload, and the
+	 * parameters to set it up with.
+	 */
+	protected abstract String workload();
+
+	protected abstract String[] parameters();
+
+	@Setup
+	public void setUp() throws Exception {
+		workload = (Workload) Class.forName(workload()).newInstance();
+		workload.setUp(parameters());
+	}
+
+	@Benchmark
+	public double run() {
+		return workload.run();
+	}
+}
@@ -1,9 +1,15 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
 
 import org.uchicago.index.core.AbstractIndexCase;
 import org.uchicago.index.core.IndexCase;
@@ -19,173 +25,814 @@ import com.optionscity.freeway.api.IJobSetup;
  * @author Kevin Jin
  */
 public class IndexCaseNYU1 extends AbstractIndexCase implements IndexCase {
-	private static final DecimalFormat FMT = new DecimalFormat("0.00");
-
-	private static final int[][][] CORRELATION_ORDER = {
-		{
-			{26,	15,	28,	4,	2,	5,	21,	11,	1,	8,	19,	16,	14,	20,	29,	23,	9,	22,	0,	6,	17,	18,	7,	10,	12,	25,	3,	27,	24,	13,	},
-			{15,	13,	11,	25,	0,	18,	21,	20,	7,	27,	8,	23,	10,	9,	26,	1,	3,	29,	14,	4,	2,	19,	16,	22,	12,	24,	6,	17,	28,	5,	},
-			{9,	4,	17,	13,	0,	21,	16,	26,	12,	18,	6,	19,	25,	22,	7,	24,	2,	5,	15,	23,	1,	3,	20,	10,	27,	8,	14,	11,	29,	28,	},
-			{6,	25,	8,	9,	24,	18,	3,	21,	12,	17,	1,	4,	29,	14,	5,	2,	10,	15,	20,	26,	28,	23,	27,	7,	22,	16,	0,	19,	11,	13,	},
-			{20,	2,	19,	8,	0,	15,	12,	13,	28,	21,	5,	22,	18,	4,	24,	16,	3,	7,	29,	6,	1,	25,	26,	14,	10,	27,	17,	11,	23,	9,	},
-			{21,	26,	23,	0,	19,	29,	15,	18,	14,	16,	4,	8,	6,	7,	12,	11,	5,	22,	2,	24,	27,	25,	3,	9,	28,	13,	17,	20,	1,	10,	},
-			{19,	7,	10,	26,	11,	3,	17,	2,	29,	5,	6,	24,	20,	15,	0,	14,	18,	4,	23,	28,	16,	25,	27,	1,	22,	21,	12,	8,	9,	13,	},
-			{9,	25,	11,	6,	26,	21,	18,	1,	19,	2,	29,	5,	23,	7,	17,	0,	10,	4,	13,	27,	16,	22,	28,	8,	3,	15,	12,	14,	24,	20,	},
-			{11,	19,	12,	4,	27,	3,	0,	10,	1,	18,	5,	14,	25,	9,	8,	16,	23,	22,	15,	26,	17,	7,	24,	13,	2,	29,	6,	20,	21,	28,	},
-			{7,	25,	2,	29,	24,	21,	15,	3,	18,	23,	11,	16,	0,	1,	8,	9,	22,	17,	13,	20,	28,	14,	5,	27,	19,	26,	12,	6,	10,	4,	},
-			{6,	13,	24,	17,	26,	22,	23,	8,	15,	1,	11,	29,	10,	25,	7,	19,	20,	0,	27,	14,	3,	2,	28,	4,	18,	16,	21,	9,	5,	12,	},
-			{8,	7,	18,	6,	19,	23,	12,	1,	26,	0,	17,	24,	9,	14,	10,	5,	11,	20,	27,	29,	28,	25,	21,	16,	13,	3,	2,	22,	4,	15,	},
-			{21,	13,	14,	28,	24,	23,	11,	8,	25,	4,	17,	2,	18,	27,	16,	5,	12,	22,	3,	29,	20,	19,	0,	1,	7,	6,	9,	15,	26,	10,	},
-			{15,	18,	12,	23,	1,	25,	10,	20,	29,	2,	24,	17,	21,	4,	22,	27,	13,	26,	7,	9,	14,	16,	5,	8,	28,	11,	19,	3,	0,	6,	},
-			{12,	19,	20,	5,	0,	8,	11,	26,	18,	28,	14,	24,	21,	23,	6,	3,	1,	9,	13,	27,	4,	10,	16,	22,	29,	7,	17,	2,	25,	15,	},
-			{13,	29,	1,	16,	0,	28,	4,	23,	9,	25,	27,	26,	5,	10,	24,	22,	20,	15,	2,	6,	21,	8,	17,	18,	3,	19,	7,	12,	11,	14,	},
-			{15,	26,	22,	2,	23,	25,	0,	28,	5,	27,	17,	9,	19,	18,	12,	16,	4,	8,	24,	7,	29,	21,	1,	13,	14,	6,	10,	3,	11,	20,	},
-			{27,	18,	2,	13,	26,	29,	10,	6,	12,	11,	19,	25,	16,	24,	17,	3,	21,	0,	7,	9,	15,	8,	22,	23,	20,	5,	14,	1,	28,	4,	},
-			{13,	25,	11,	17,	23,	22,	7,	1,	5,	19,	2,	9,	12,	24,	8,	3,	4,	16,	21,	14,	18,	0,	6,	28,	29,	26,	15,	20,	10,	27,	},
-			{25,	6,	11,	21,	8,	14,	4,	28,	5,	0,	18,	17,	22,	7,	2,	16,	19,	24,	26,	10,	29,	20,	12,	1,	15,	9,	3,	27,	13,	23,	},
-			{21,	4,	13,	29,	23,	28,	14,	27,	0,	1,	24,	15,	20,	11,	6,	10,	12,	19,	9,	25,	2,	3,	18,	17,	22,	8,	5,	26,	7,	16,	},
-			{12,	5,	20,	19,	29,	22,	13,	9,	2,	7,	23,	0,	25,	1,	4,	18,	21,	3,	14,	17,	15,	24,	16,	27,	26,	28,	6,	10,	11,	8,	},
-			{29,	28,	21,	16,	10,	18,	25,	19,	13,	4,	2,	0,	15,	22,	5,	12,	9,	8,	7,	1,	17,	24,	26,	6,	3,	23,	14,	20,	11,	27,	},
-			{13,	27,	12,	11,	24,	15,	29,	5,	21,	18,	16,	20,	10,	26,	0,	9,	1,	7,	23,	14,	2,	8,	6,	25,	3,	17,	22,	28,	4,	19,	},
-			{12,	23,	13,	9,	10,	11,	3,	20,	18,	15,	17,	27,	2,	24,	19,	6,	5,	14,	4,	29,	16,	26,	21,	25,	22,	28,	8,	1,	7,	0,	},
-			{7,	9,	18,	19,	13,	12,	3,	15,	21,	28,	1,	29,	16,	22,	17,	2,	8,	25,	27,	10,	5,	4,	23,	26,	20,	24,	6,	0,	11,	14,	},
-			{0,	6,	7,	5,	29,	17,	16,	2,	10,	11,	27,	15,	23,	28,	14,	1,	26,	19,	13,	18,	24,	8,	25,	4,	3,	22,	21,	9,	20,	12,	},
-			{23,	17,	8,	15,	26,	20,	1,	16,	13,	24,	12,	27,	25,	28,	7,	5,	10,	11,	14,	21,	9,	3,	6,	2,	29,	19,	4,	0,	18,	22,	},
-			{12,	29,	0,	15,	22,	19,	25,	20,	4,	16,	26,	14,	28,	27,	18,	6,	9,	5,	7,	3,	10,	24,	11,	21,	13,	17,	23,	2,	1,	8,	},
-			{15,	22,	28,	13,	21,	9,	20,	26,	23,	17,	5,	25,	0,	6,	7,	10,	29,	24,	12,	1,	4,	18,	19,	3,	16,	11,	27,	8,	14,	2,	},
-		},
-		{
-			{23,	6,	27,	3,	16,	1,	21,	2,	8,	15,	20,	13,	11,	25,	29,	5,	28,	18,	9,	0,	7,	19,	12,	24,	14,	22,	4,	10,	26,	17,	},
-			{15,	21,	8,	16,	3,	0,	23,	27,	6,	9,	13,	25,	28,	12,	1,	22,	17,	14,	11,	7,	20,	2,	10,	4,	18,	24,	29,	5,	26,	19,	},
-			{29,	26,	3,	19,	24,	13,	27,	10,	9,	18,	4,	0,	20,	12,	7,	22,	17,	11,	2,	23,	5,	6,	21,	16,	25,	1,	15,	8,	28,	14,	},
-			{23,	27,	6,	0,	1,	25,	2,	29,	18,	9,	5,	4,	22,	28,	24,	15,	13,	20,	8,	10,	3,	19,	16,	14,	11,	21,	7,	12,	26,	17,	},
-			{9,	20,	22,	5,	29,	2,	19,	3,	11,	13,	8,	4,	26,	10,	14,	24,	1,	25,	15,	0,	16,	17,	6,	23,	21,	28,	7,	12,	18,	27,	},
-			{9,	20,	22,	4,	26,	29,	11,	3,	19,	0,	5,	28,	23,	14,	2,	27,	7,	6,	18,	12,	10,	13,	24,	21,	16,	1,	17,	15,	25,	8,	},
-			{23,	27,	0,	3,	15,	21,	8,	29,	1,	18,	25,	26,	11,	22,	9,	12,	6,	20,	2,	10,	13,	14,	5,	16,	7,	19,	28,	4,	24,	17,	},
-			{12,	17,	28,	25,	26,	13,	16,	29,	21,	2,	15,	11,	7,	0,	24,	8,	10,	27,	23,	5,	1,	3,	18,	6,	20,	9,	22,	19,	4,	14,	},
-			{15,	21,	16,	1,	24,	6,	27,	0,	4,	25,	23,	17,	9,	28,	3,	8,	20,	7,	12,	10,	19,	18,	22,	2,	29,	5,	26,	13,	14,	11,	},
-			{20,	22,	4,	5,	29,	2,	13,	3,	1,	26,	11,	18,	16,	23,	19,	8,	6,	0,	9,	15,	21,	27,	7,	24,	10,	28,	17,	12,	25,	14,	},
-			{26,	14,	2,	19,	21,	15,	13,	18,	23,	3,	16,	10,	4,	11,	12,	28,	29,	7,	22,	8,	24,	6,	20,	27,	1,	25,	5,	17,	0,	9,	},
-			{22,	14,	17,	5,	26,	4,	24,	0,	9,	7,	29,	27,	28,	12,	2,	6,	21,	11,	23,	13,	19,	3,	10,	1,	20,	25,	15,	18,	16,	8,	},
-			{7,	17,	28,	25,	16,	26,	18,	2,	27,	29,	13,	21,	15,	11,	23,	6,	1,	12,	0,	10,	8,	24,	19,	5,	3,	22,	20,	4,	14,	9,	},
-			{25,	26,	2,	7,	17,	24,	9,	0,	4,	20,	1,	10,	28,	23,	12,	3,	19,	18,	13,	11,	22,	29,	6,	27,	5,	14,	16,	15,	8,	21,	},
-			{24,	10,	16,	11,	26,	19,	18,	14,	3,	4,	5,	29,	17,	6,	1,	23,	0,	28,	13,	15,	27,	12,	25,	20,	7,	8,	22,	21,	2,	9,	},
-			{21,	8,	16,	1,	6,	17,	27,	23,	0,	10,	22,	7,	26,	3,	24,	12,	18,	15,	19,	9,	29,	25,	28,	20,	2,	4,	14,	11,	5,	13,	},
-			{15,	21,	8,	1,	0,	14,	12,	7,	17,	28,	18,	19,	9,	26,	20,	29,	10,	16,	3,	2,	6,	27,	24,	13,	23,	4,	5,	25,	11,	22,	},
-			{12,	7,	28,	25,	26,	15,	21,	13,	11,	16,	24,	29,	2,	8,	17,	18,	1,	14,	19,	22,	10,	4,	3,	23,	5,	0,	9,	27,	6,	20,	},
-			{29,	26,	27,	2,	3,	19,	12,	20,	6,	16,	9,	23,	28,	25,	0,	14,	10,	15,	13,	18,	17,	24,	22,	8,	21,	5,	7,	1,	11,	4,	},
-			{29,	26,	2,	27,	4,	18,	10,	5,	16,	21,	14,	9,	13,	25,	19,	3,	15,	0,	11,	23,	28,	17,	20,	8,	12,	6,	22,	7,	1,	24,	},
-			{9,	22,	4,	5,	29,	26,	18,	2,	0,	13,	3,	23,	16,	20,	24,	6,	8,	10,	19,	27,	11,	1,	15,	7,	21,	12,	25,	14,	17,	28,	},
-			{15,	8,	16,	1,	22,	0,	27,	6,	17,	23,	10,	7,	19,	12,	24,	11,	21,	28,	9,	25,	2,	18,	3,	20,	29,	26,	5,	4,	14,	13,	},
-			{9,	20,	4,	5,	21,	11,	29,	2,	15,	3,	24,	26,	6,	22,	13,	1,	10,	23,	18,	8,	27,	17,	0,	7,	19,	12,	16,	14,	28,	25,	},
-			{6,	27,	0,	3,	15,	1,	21,	8,	18,	9,	13,	29,	25,	20,	12,	10,	23,	11,	19,	5,	2,	26,	22,	7,	14,	28,	24,	16,	17,	4,	},
-			{14,	2,	8,	13,	25,	11,	17,	22,	3,	21,	15,	24,	20,	29,	7,	18,	28,	26,	0,	10,	12,	16,	4,	23,	5,	9,	1,	6,	27,	19,	},
-			{12,	7,	17,	28,	13,	3,	24,	27,	8,	6,	0,	1,	23,	18,	19,	25,	26,	21,	15,	2,	29,	4,	10,	11,	16,	20,	5,	14,	9,	22,	},
-			{29,	2,	19,	18,	10,	7,	5,	17,	13,	12,	28,	20,	11,	9,	14,	15,	16,	22,	6,	26,	4,	25,	23,	24,	27,	3,	21,	1,	0,	8,	},
-			{23,	6,	0,	3,	18,	2,	15,	21,	1,	19,	8,	29,	25,	12,	11,	27,	5,	7,	26,	13,	10,	20,	9,	22,	16,	28,	14,	17,	24,	4,	},
-			{12,	7,	17,	25,	26,	16,	3,	13,	0,	18,	11,	8,	1,	28,	21,	5,	29,	10,	24,	19,	15,	23,	14,	6,	2,	27,	9,	4,	20,	22,	},
-			{26,	2,	19,	18,	20,	4,	9,	22,	3,	7,	6,	5,	27,	17,	0,	11,	12,	23,	16,	29,	13,	24,	15,	28,	10,	14,	25,	21,	8,	1,	},
-		},
-		{
-			{20,	10,	14,	12,	6,	26,	11,	4,	22,	17,	1,	2,	21,	8,	7,	28,	29,	19,	3,	27,	18,	5,	15,	9,	23,	24,	16,	0,	25,	13,	},
-			{6,	4,	11,	26,	10,	12,	22,	17,	14,	2,	20,	18,	8,	28,	7,	27,	21,	15,	19,	3,	9,	0,	29,	23,	16,	5,	24,	1,	25,	13,	},
-			{11,	6,	4,	17,	1,	22,	14,	26,	12,	10,	18,	20,	8,	7,	28,	27,	19,	23,	3,	0,	21,	15,	9,	29,	16,	5,	24,	2,	25,	13,	},
-			{17,	11,	6,	10,	14,	1,	8,	4,	26,	22,	2,	18,	7,	12,	0,	20,	28,	19,	9,	21,	27,	29,	24,	23,	16,	15,	5,	3,	25,	13,	},
-			{26,	6,	10,	11,	22,	1,	17,	20,	14,	12,	28,	2,	8,	18,	15,	21,	7,	27,	19,	9,	29,	0,	3,	23,	16,	24,	5,	4,	25,	13,	},
-			{6,	11,	4,	12,	1,	10,	22,	20,	26,	17,	19,	16,	0,	2,	24,	9,	14,	15,	27,	21,	28,	8,	18,	3,	29,	23,	7,	5,	25,	13,	},
-			{4,	11,	10,	26,	22,	1,	17,	14,	20,	12,	2,	28,	8,	7,	18,	27,	21,	19,	9,	15,	0,	29,	3,	23,	5,	16,	24,	6,	25,	13,	},
-			{6,	11,	26,	4,	14,	10,	1,	17,	2,	8,	20,	22,	12,	28,	18,	27,	3,	15,	21,	0,	9,	29,	16,	19,	23,	24,	5,	7,	25,	13,	},
-			{4,	17,	6,	11,	1,	22,	14,	26,	10,	2,	7,	12,	20,	18,	19,	3,	21,	27,	0,	28,	9,	16,	15,	29,	24,	5,	23,	8,	25,	13,	},
-			{6,	10,	26,	4,	28,	20,	17,	14,	22,	11,	1,	18,	12,	2,	8,	27,	7,	21,	19,	3,	15,	5,	0,	23,	29,	24,	16,	9,	25,	13,	},
-			{6,	4,	11,	26,	22,	1,	14,	12,	20,	17,	28,	21,	2,	27,	18,	7,	0,	8,	9,	19,	15,	3,	29,	23,	16,	5,	24,	10,	25,	13,	},
-			{6,	4,	10,	17,	1,	26,	22,	14,	20,	2,	12,	18,	28,	21,	8,	27,	7,	3,	19,	0,	15,	9,	29,	23,	5,	24,	16,	11,	25,	13,	},
-			{14,	4,	22,	6,	10,	1,	11,	17,	26,	20,	2,	28,	18,	21,	29,	19,	0,	8,	27,	7,	15,	9,	23,	3,	5,	16,	24,	12,	25,	13,	},
-			{25,	13,	24,	16,	29,	5,	23,	27,	15,	0,	26,	9,	21,	19,	7,	28,	10,	3,	18,	20,	12,	22,	4,	14,	1,	8,	2,	11,	6,	17,	},
-			{12,	6,	20,	4,	10,	17,	22,	11,	26,	1,	2,	18,	28,	8,	19,	7,	29,	21,	0,	15,	27,	9,	3,	23,	24,	16,	5,	14,	25,	13,	},
-			{4,	6,	17,	10,	14,	20,	11,	1,	26,	12,	22,	28,	21,	2,	7,	27,	8,	0,	9,	19,	5,	23,	29,	3,	18,	16,	15,	24,	25,	13,	},
-			{23,	22,	6,	4,	10,	14,	1,	26,	17,	18,	11,	12,	8,	5,	28,	2,	7,	3,	20,	19,	29,	15,	9,	21,	0,	24,	27,	16,	25,	13,	},
-			{11,	6,	4,	20,	26,	14,	1,	22,	10,	2,	12,	8,	18,	21,	28,	19,	3,	7,	15,	27,	9,	0,	29,	23,	16,	5,	24,	17,	25,	13,	},
-			{11,	4,	17,	22,	6,	14,	1,	20,	10,	12,	2,	26,	8,	28,	7,	9,	19,	3,	21,	27,	23,	29,	16,	0,	24,	5,	15,	18,	25,	13,	},
-			{17,	6,	14,	22,	26,	11,	4,	10,	12,	20,	8,	1,	2,	18,	28,	21,	29,	0,	3,	9,	27,	5,	7,	15,	16,	19,	24,	23,	25,	13,	},
-			{4,	17,	26,	14,	6,	10,	22,	11,	12,	1,	28,	0,	18,	2,	21,	7,	19,	15,	8,	9,	27,	29,	23,	3,	5,	24,	16,	20,	25,	13,	},
-			{17,	22,	11,	6,	10,	4,	26,	12,	20,	14,	1,	8,	0,	18,	15,	2,	19,	7,	27,	28,	9,	29,	3,	5,	24,	16,	21,	23,	25,	13,	},
-			{6,	4,	10,	11,	26,	12,	14,	1,	17,	20,	28,	2,	18,	21,	27,	8,	19,	7,	0,	9,	23,	15,	29,	3,	16,	5,	24,	22,	25,	13,	},
-			{22,	6,	11,	1,	2,	10,	12,	16,	17,	4,	20,	26,	14,	18,	28,	7,	3,	0,	9,	15,	29,	8,	27,	24,	5,	23,	21,	25,	19,	13,	},
-			{14,	11,	26,	4,	1,	18,	12,	17,	8,	5,	10,	22,	20,	3,	2,	28,	7,	6,	0,	23,	27,	21,	9,	29,	25,	16,	24,	15,	19,	13,	},
-			{13,	26,	24,	25,	29,	10,	23,	4,	27,	22,	7,	16,	15,	6,	12,	0,	5,	20,	14,	1,	21,	28,	19,	3,	11,	9,	18,	17,	2,	8,	},
-			{4,	6,	10,	11,	20,	1,	22,	17,	14,	28,	12,	2,	7,	21,	18,	8,	19,	27,	9,	0,	15,	3,	29,	23,	24,	16,	5,	25,	26,	13,	},
-			{6,	22,	11,	10,	4,	26,	17,	12,	1,	20,	14,	28,	2,	7,	18,	8,	21,	9,	15,	29,	0,	19,	3,	5,	23,	24,	16,	27,	25,	13,	},
-			{4,	26,	11,	22,	6,	10,	20,	17,	14,	12,	1,	9,	18,	2,	27,	7,	15,	19,	8,	0,	29,	21,	23,	3,	16,	5,	24,	28,	25,	13,	},
-			{14,	12,	6,	4,	10,	11,	1,	17,	22,	26,	20,	2,	0,	28,	19,	18,	27,	21,	7,	3,	8,	15,	9,	23,	16,	5,	24,	29,	25,	13,	},
-		}
-	};
+	//TRACE values
+	private static final int TRACE_NONE = 0, TRACE_TEXT = 1, TRACE_BINARY = 2;
+	/**
+	 * First int of a binary trace, followed by the number of assets.
+	 */
+	private static final int TRACE_MAGIC = 0x49445854;
+	private static final int TRACE_BUFFER_BYTES = 1 << 16;
+	//substitutes are re-ranked every tick until there are this many returns to go on
+	private static final int MIN_CORRELATION_SAMPLES = 100;
+	//returns between refactoring the tracking solver on fresh covariances
+	private static final int TRACKING_SNAPSHOT_AGE = 500;
+
+	/**
+	 * Appends doubles rounded half-even to two decimals, the way
+	 * <tt>new DecimalFormat("0.00")</tt> would, without allocating and without
+	 * DecimalFormat's shared, thread-unsafe state.
+	 */
+	public static class FixedPoint {
+		//past this, value * 100 is too coarse to round exactly in a double
+		private static final double MAX_FAST = 1e13;
+		private static final double SPLIT = 134217729; //2^27 + 1
+
+		public static StringBuilder append(StringBuilder out, double value) {
+			double magnitude = Math.abs(value);
+			if (!(magnitude < MAX_FAST))
+				//NaN, infinities, and huge values. rare enough to allocate a formatter
+				return out.append(new DecimalFormat("0.00").format(value));
+
+			long hundredths = (long) Math.floor(magnitude * 100);
+			//round up if magnitude * 100 is past hundredths + 0.5, which we compare exactly as magnitude * 200 vs. 2 * hundredths + 1
+			int vsHalf = compareTimes200(magnitude, 2 * hundredths + 1);
+			if (vsHalf > 0 || vsHalf == 0 && (hundredths & 1) != 0)
+				hundredths++;
+
+			//DecimalFormat keeps the sign of negative numbers that round to zero, including -0.0
+			if (value < 0 || value == 0 && 1 / value < 0)
+				out.append('-');
+			out.append(hundredths / 100).append('.');
+			int cents = (int) (hundredths % 100);
+			if (cents < 10)
+				out.append('0');
+			return out.append(cents);
+		}
+
+		//sign of x * 200 - m, computed exactly with Dekker's product
+		private static int compareTimes200(double x, double m) {
+			double product = x * 200;
+			double split = SPLIT * x;
+			double high = split - (split - x), low = x - high;
+			//200 fits in a few bits, so these products are exact and sum to the rounding error of product
+			double error = (high * 200 - product) + low * 200;
+			double difference = (product - m) + error;
+			return difference > 0 ? 1 : difference < 0 ? -1 : 0;
+		}
+	}
+
+	/**
+	 * Pending regulation changes as a binary min-heap ordered by the time they
+	 * take effect, then by the order they were announced in.
+	 */
+	public static class RegulationQueue {
+		private long[] keys = new long[8];
+		private boolean[][] tradables = new boolean[8][];
+		private int size;
+		private int announced;
+
+		/**
+		 * A later announcement for the same time replaces an earlier one.
+		 */
+		public synchronized void add(int timeTakeEffect, boolean[] newTradables) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				tradables = Arrays.copyOf(tradables, size * 2);
+			}
+			//announcement order breaks ties, so keys are unique and polling is deterministic
+			long key = (long) timeTakeEffect << 32 | announced++ & 0xFFFFFFFFL;
+			int i = size++;
+			while (i > 0 && keys[(i - 1) >>> 1] > key) {
+				keys[i] = keys[(i - 1) >>> 1];
+				tradables[i] = tradables[(i - 1) >>> 1];
+				i = (i - 1) >>> 1;
+			}
+			keys[i] = key;
+			tradables[i] = newTradables;
+		}
+
+		/**
+		 * Time of the earliest pending change, or Integer.MAX_VALUE if there
+		 * is none.
+		 */
+		public synchronized int peekTime() {
+			return size == 0 ? Integer.MAX_VALUE : (int) (keys[0] >> 32);
+		}
+
+		/**
+		 * Removes every change that takes effect at or before currentTime,
+		 * including late ones, and returns the one that's in force now, or
+		 * null if none were due.
+		 */
+		public synchronized boolean[] pollDue(int currentTime) {
+			boolean[] current = null;
+			while (size != 0 && (int) (keys[0] >> 32) <= currentTime) {
+				current = tradables[0];
+				removeFirst();
+			}
+			return current;
+		}
+
+		public synchronized int size() {
+			return size;
+		}
+
+		public synchronized void clear() {
+			Arrays.fill(tradables, 0, size, null);
+			size = 0;
+			announced = 0;
+		}
+
+		private void removeFirst() {
+			long key = keys[--size];
+			boolean[] last = tradables[size];
+			tradables[size] = null;
+			int i = 0;
+			for (int child; (child = 2 * i + 1) < size; i = child) {
+				if (child + 1 < size && keys[child + 1] < keys[child])
+					child++;
+				if (keys[child] >= key)
+					break;
+				keys[i] = keys[child];
+				tradables[i] = tradables[child];
+			}
+			if (size != 0) {
+				keys[i] = key;
+				tradables[i] = last;
+			}
+		}
+	}
+
+	/**
+	 * Correlations between assets' tick to tick returns, kept up to date one
+	 * tick at a time so that substitutes can be ranked on data seen so far.
+	 * With a half-life, older returns count for exponentially less.
+	 * <p>
+	 * Means are updated every tick, but covariances, which cost O(n^2), wait
+	 * until a block of ticks has built up or until they're asked for, and then
+	 * go through the whole block a cache-sized tile of the matrix at a time.
+	 * That gives exactly the same numbers as updating every tick.
+	 */
+	public static class ReturnCorrelations {
+		private static final int BLOCK_TICKS = 32;
+		private static final int TILE = 512;
+
+		private final int assets;
+		private final double halfLifeAlpha;
+		private final double[] lastPrices;
+		private final double[] means;
+		//row-major, only j >= i is kept
+		private final double[] covariances;
+		//ticks not yet in covariances, row-major by tick
+		private final double[] pendingDeviations;
+		private final double[] pendingScaled;
+		private final double[] pendingRetained;
+		private int pending;
+		//-1 until the first prices
+		private int samples = -1;
+
+		/**
+		 * @param halfLife
+		 *            ticks after which a return has half the weight of the
+		 *            latest one, or 0 to weigh every tick equally
+		 */
+		public ReturnCorrelations(int assets, int halfLife) {
+			this.assets = assets;
+			halfLifeAlpha = halfLife > 0 ? 1 - Math.pow(0.5, 1d / halfLife) : 0;
+			lastPrices = new double[assets];
+			means = new double[assets];
+			covariances = new double[assets * assets];
+			pendingDeviations = new double[BLOCK_TICKS * assets];
+			pendingScaled = new double[BLOCK_TICKS * assets];
+			pendingRetained = new double[BLOCK_TICKS];
+		}
+
+		public int assets() {
+			return assets;
+		}
+
+		public void clear() {
+			Arrays.fill(means, 0);
+			Arrays.fill(covariances, 0);
+			pending = 0;
+			samples = -1;
+		}
+
+		/**
+		 * Number of returns seen so far.
+		 */
+		public int samples() {
+			return Math.max(samples, 0);
+		}
+
+		public void update(double[] prices) {
+			if (samples++ < 0) {
+				System.arraycopy(prices, 0, lastPrices, 0, assets);
+				return;
+			}
+			//1 / samples gives the plain mean and covariance, anything larger decays old returns
+			double alpha = Math.max(1d / samples, halfLifeAlpha);
+			int at = pending * assets;
+			for (int i = 0; i < assets; i++) {
+				double deviation = (prices[i] - lastPrices[i]) / lastPrices[i] - means[i];
+				pendingDeviations[at + i] = deviation;
+				pendingScaled[at + i] = alpha * deviation;
+				means[i] += alpha * deviation;
+				lastPrices[i] = prices[i];
+			}
+			pendingRetained[pending] = 1 - alpha;
+			if (++pending == BLOCK_TICKS)
+				flush();
+		}
+
+		private void flush() {
+			for (int i = 0, row = 0; i < assets; i++, row += assets) {
+				for (int from = i; from < assets; from += TILE) {
+					int to = Math.min(from + TILE, assets);
+					int t = 0, at = 0;
+					//four ticks per pass over the tile, in the same order as one at a time
+					for (; t + 4 <= pending; t += 4, at += 4 * assets) {
+						double retained0 = pendingRetained[t], scaled0 = pendingScaled[at + i];
+						double retained1 = pendingRetained[t + 1], scaled1 = pendingScaled[at + assets + i];
+						double retained2 = pendingRetained[t + 2], scaled2 = pendingScaled[at + 2 * assets + i];
+						double retained3 = pendingRetained[t + 3], scaled3 = pendingScaled[at + 3 * assets + i];
+						for (int j = from; j < to; j++) {
+							double covariance = retained0 * (covariances[row + j] + scaled0 * pendingDeviations[at + j]);
+							covariance = retained1 * (covariance + scaled1 * pendingDeviations[at + assets + j]);
+							covariance = retained2 * (covariance + scaled2 * pendingDeviations[at + 2 * assets + j]);
+							covariances[row + j] = retained3 * (covariance + scaled3 * pendingDeviations[at + 3 * assets + j]);
+						}
+					}
+					for (; t < pending; t++, at += assets) {
+						double retained = pendingRetained[t], scaled = pendingScaled[at + i];
+						for (int j = from; j < to; j++)
+							covariances[row + j] = retained * (covariances[row + j] + scaled * pendingDeviations[at + j]);
+					}
+				}
+			}
+			pending = 0;
+		}
+
+		public double covariance(int i, int j) {
+			if (pending != 0)
+				flush();
+			return covariances[Math.min(i, j) * assets + Math.max(i, j)];
+		}
+
+		public double correlation(int i, int j) {
+			if (pending != 0)
+				flush();
+			double variances = covariances[i * assets + i] * covariances[j * assets + j];
+			if (!(variances > 0))
+				return 0;
+			return covariances[Math.min(i, j) * assets + Math.max(i, j)] / Math.sqrt(variances);
+		}
+
+		/**
+		 * The asset besides i and those in excluded that's most correlated
+		 * with i, lowest index first on ties, or -1 if every other asset is
+		 * excluded.
+		 */
+		public int mostCorrelated(int i, long[] excluded) {
+			int best = -1;
+			double bestCorrelation = Double.NEGATIVE_INFINITY;
+			for (int j = 0; j < assets; j++) {
+				if (j == i || isSet(excluded, j))
+					continue;
+				double correlation = correlation(i, j);
+				if (correlation > bestCorrelation) {
+					best = j;
+					bestCorrelation = correlation;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Minimum tracking error replacement for assets we don't hold: the long
+	 * only holdings of the rest that, on a snapshot of the return
+	 * covariances, best replicate the unheld assets' value and add up to it.
+	 * The Cholesky factor of the held assets' covariances is updated in place
+	 * as single assets come and go, so a regulation change costs O(n^2)
+	 * instead of a fresh O(n^3) factorization.
+	 */
+	public static class TrackingSolver {
+		//pulls covariances towards zero, which keeps the matrix positive definite even with fewer returns than assets
+		static final double SHRINKAGE = 0.05;
+		static final double MIN_VARIANCE = 1e-14;
+
+		private final int assets;
+		private final double[] covariances;
+		//held assets in the order of the factor's rows
+		private final int[] held;
+		private int size;
+		//lower triangular, row-major
+		private final double[] factor;
+		private final double[] ones;
+		private final double[] column;
+		//share of each unheld asset's value that each held asset takes on, row-major by held asset
+		private final double[] shares;
+		private final long[] unheld;
+		private int samples = -1;
+
+		public TrackingSolver(int assets) {
+			this.assets = assets;
+			covariances = new double[assets * assets];
+			held = new int[assets];
+			factor = new double[assets * assets];
+			ones = new double[assets];
+			column = new double[assets];
+			shares = new double[assets * assets];
+			unheld = new long[bitWords(assets)];
+			for (int i = 0; i < assets; i++)
+				setBit(unheld, i);
+		}
+
+		public int assets() {
+			return assets;
+		}
+
+		/**
+		 * Number of returns in the covariances we're solving on, or -1 before
+		 * the first snapshot.
+		 */
+		public int samples() {
+			return samples;
+		}
+
+		/**
+		 * Solves on the latest covariances from now on, refactoring whatever
+		 * is currently held.
+		 */
+		public void snapshot(ReturnCorrelations correlations) {
+			for (int i = 0; i < assets; i++)
+				for (int j = 0; j < assets; j++)
+					covariances[i * assets + j] = i == j ? Math.max(correlations.covariance(i, i), MIN_VARIANCE) : (1 - SHRINKAGE) * correlations.covariance(i, j);
+			samples = correlations.samples();
+
+			int wasHeld = size;
+			size = 0;
+			for (int p = 0; p < wasHeld; p++)
+				include(held[p]);
+		}
+
+		/**
+		 * Plans holdings for everything that isn't excluded, dropping any
+		 * asset that would need a short position.
+		 * 
+		 * @param values
+		 *            each asset's value in the index
+		 * @return the assets not held, a superset of excluded. Only good until
+		 *         the next call
+		 */
+		public long[] plan(long[] excluded, double[] values) {
+			for (int p = size - 1; p >= 0; p--)
+				if (isSet(excluded, held[p]))
+					exclude(held[p]);
+			for (int i = 0; i < assets; i++)
+				if (!isSet(excluded, i) && isSet(unheld, i))
+					include(i);
+
+			Arrays.fill(shares, 0);
+			while (size != 0) {
+				//minimize the variance of held minus unheld value, subject to the two adding up
+				Arrays.fill(ones, 0, size, 1);
+				solve(ones);
+				double onesSum = 0;
+				for (int p = 0; p < size; p++)
+					onesSum += ones[p];
+				for (int r = 0; r < assets; r++) {
+					if (!isSet(unheld, r))
+						continue;
+					double columnSum = 0;
+					for (int p = 0; p < size; p++)
+						column[p] = covariances[held[p] * assets + r];
+					solve(column);
+					for (int p = 0; p < size; p++)
+						columnSum += column[p];
+					double multiplier = (columnSum - 1) / onesSum;
+					for (int p = 0; p < size; p++)
+						shares[held[p] * assets + r] = column[p] - multiplier * ones[p];
+				}
+
+				int worst = -1;
+				double worstHolding = 0;
+				for (int p = 0; p < size; p++) {
+					double holding = values[held[p]];
+					for (int r = 0; r < assets; r++)
+						if (isSet(unheld, r))
+							holding += shares[held[p] * assets + r] * values[r];
+					if (holding < worstHolding) {
+						worst = held[p];
+						worstHolding = holding;
+					}
+				}
+				if (worst == -1)
+					break;
+				exclude(worst);
+				Arrays.fill(shares, 0);
+			}
+			return unheld;
+		}
+
+		/**
+		 * Share of unheld asset r's value that held asset j takes on in the
+		 * last plan.
+		 */
+		public double share(int j, int r) {
+			return shares[j * assets + r];
+		}
+
+		//appends a row to the factor
+		private void include(int asset) {
+			int row = size * assets;
+			double pivot = covariances[asset * assets + asset];
+			for (int q = 0; q < size; q++) {
+				double sum = covariances[asset * assets + held[q]];
+				for (int k = 0; k < q; k++)
+					sum -= factor[row + k] * factor[q * assets + k];
+				factor[row + q] = sum / factor[q * assets + q];
+				pivot -= factor[row + q] * factor[row + q];
+			}
+			factor[row + size] = Math.sqrt(Math.max(pivot, MIN_VARIANCE));
+			held[size++] = asset;
+			clearBit(unheld, asset);
+		}
+
+		//removes a row and column from the factor
+		private void exclude(int asset) {
+			int p;
+			for (p = 0; held[p] != asset; p++);
+			//rows after p lose their entries in column p, which is a rank one update to the rest of the factor
+			for (int q = p + 1; q < size; q++)
+				column[q] = factor[q * assets + p];
+			for (int q = p + 1; q < size; q++) {
+				int diagonal = q * assets + q;
+				double r = Math.hypot(factor[diagonal], column[q]);
+				double c = r / factor[diagonal], s = column[q] / factor[diagonal];
+				factor[diagonal] = r;
+				for (int k = q + 1; k < size; k++) {
+					int at = k * assets + q;
+					factor[at] = (factor[at] + s * column[k]) / c;
+					column[k] = c * column[k] - s * factor[at];
+				}
+			}
+			for (int q = p + 1; q < size; q++) {
+				System.arraycopy(factor, q * assets, factor, (q - 1) * assets, p);
+				System.arraycopy(factor, q * assets + p + 1, factor, (q - 1) * assets + p, q - p);
+				held[q - 1] = held[q];
+			}
+			size--;
+			setBit(unheld, asset);
+		}
+
+		//solves (L L^T) x = b in place, indexed like held
+		private void solve(double[] b) {
+			for (int p = 0; p < size; p++) {
+				double sum = b[p];
+				for (int k = 0; k < p; k++)
+					sum -= factor[p * assets + k] * b[k];
+				b[p] = sum / factor[p * assets + p];
+			}
+			for (int p = size - 1; p >= 0; p--) {
+				double sum = b[p];
+				for (int k = p + 1; k < size; k++)
+					sum -= factor[k * assets + p] * b[k];
+				b[p] = sum / factor[p * assets + p];
+			}
+		}
+	}
 
 	/* Personal latest copy of information */
-	private double[] my_portfolioWeights = new double[30];
-	Map<Integer, boolean[]> timeMap = new ConcurrentHashMap<Integer, boolean[]>();
-	Set<Integer> forbidden = new HashSet<Integer>();
-	int[][] correlationOrder;
+	//number of assets in the index, which we learn from initalizePosition
+	private int assets;
+	private double[] my_portfolioWeights;
+	private final RegulationQueue pendingRegulations = new RegulationQueue();
+	//bit i is set while asset i can't be traded
+	long[] forbidden;
+	private int forbiddenCount;
+	//bit i is set while we hold none of asset i, because it's forbidden or the plan left it out
+	private long[] unheld;
+	private int halfLife;
+	private ReturnCorrelations correlations;
+	//otherwise substitute one most correlated asset
+	private boolean useTrackingSolver;
+	//allocated the first time there's something to replace
+	private TrackingSolver trackingSolver;
+	/**
+	 * Which unheld assets' value each held asset takes on, and what share of
+	 * it: for asset j, substituteOf[k] and substituteShare[k] for k from
+	 * substitutesStart[j] up to substitutesStart[j + 1]. Only changes with
+	 * forbidden, so it's planned once per regulation change instead of on
+	 * every tick.
+	 */
+	private int[] substitutesStart;
+	private int[] substituteOf = new int[0];
+	private double[] substituteShare = new double[0];
+	private int[] substituteFor;
 
 	private double[] weights;
-	private double[] lastPrices;
+	//price times weight, as of this tick and the last
+	private double[] values;
+	private double[] lastValues;
+	private double[] nominalValues;
+
+	private int traceMode;
+	//what updatePosition reports for each asset on the current tick
+	private double[] tickValues;
+	private final StringBuilder line = new StringBuilder();
+	private ByteBuffer traceBuffer;
+	private FileChannel traceChannel;
+	private Thread traceCloser;
 
 	@Override
 	public double[] initalizePosition(double[] underlyingPrices, double indexValue, double[] trueWeights, boolean[] tradables) {
-		// We just distribute portfolio weights evenly across every tradable asset
-		forbidden.clear();
-		for (int i = 0; i < 30; i++)
-			if (!tradables[i])
-				forbidden.add(Integer.valueOf(i));
+		if (assets != trueWeights.length) {
+			assets = trueWeights.length;
+			my_portfolioWeights = new double[assets];
+			forbidden = new long[bitWords(assets)];
+			unheld = new long[bitWords(assets)];
+			substitutesStart = new int[assets + 1];
+			substituteFor = new int[assets];
+			values = new double[assets];
+			lastValues = new double[assets];
+			nominalValues = new double[assets];
+			tickValues = new double[assets];
+		}
+		if (correlations == null || correlations.assets() != assets)
+			correlations = new ReturnCorrelations(assets, halfLife);
+		correlations.clear();
+		if (trackingSolver != null && trackingSolver.assets() != assets)
+			trackingSolver = null;
+		startTrace();
 
+		// We just distribute portfolio weights evenly across every tradable asset
 		weights = trueWeights;
-		lastPrices = Arrays.copyOf(underlyingPrices, 30);
-		return Arrays.copyOf(trueWeights, 30);
+		for (int j = 0; j < assets; j++)
+			lastValues[j] = underlyingPrices[j] * weights[j];
+		correlations.update(underlyingPrices);
+		planSubstitutions(tradables);
+		return Arrays.copyOf(trueWeights, assets);
 	}
 
 	@Override
 	public double[] updatePosition(int currentTime, double[] underlyingPrices, double indexValue) {
-		// This strategy ignores all price changes
-		if (timeMap.containsKey(currentTime)) {
+		correlations.update(underlyingPrices);
+		if (pendingRegulations.peekTime() <= currentTime) {
 			// Time is up...need to redistribute or I'll get penalties!!!
-			boolean[] newTradables = timeMap.get(currentTime);
-			forbidden.clear();
-			for (int i = 0; i < 30; i++)
-				if (!newTradables[i])
-					forbidden.add(Integer.valueOf(i));
+			planSubstitutions(pendingRegulations.pollDue(currentTime));
+		} else if (forbiddenCount != 0 && correlations.samples() <= MIN_CORRELATION_SAMPLES && (!useTrackingSolver || trackingSnapshotDue())) {
+			//too few returns to trust the last ranking
+			planSubstitutions();
 		}
 		double commission = 0.031399675;
-		double[] add = new double[30];
 		double synthetic = 0;
 		double actual = 0;
-		String str = "";
-		double[] nominalValues = new double[30];
-		for (int j = 0; j < 30; j++) {
-			if (forbidden.contains(Integer.valueOf(j))) {
-				int sub;
-				for (sub = 0; sub < 30 && forbidden.contains(Integer.valueOf(correlationOrder[j][sub])); sub++);
-				double ratio;
-				ratio = (lastPrices[j] * weights[j]) / (lastPrices[correlationOrder[j][sub]] * weights[correlationOrder[j][sub]]);
-				add[correlationOrder[j][sub]] = ratio;
-				nominalValues[j] = 0;
-			} else {
-				nominalValues[j] = (1 + add[j]);
-			}
-			synthetic += nominalValues[j] * underlyingPrices[j] * weights[j];
-			str += (FMT.format(nominalValues[j] * underlyingPrices[j] * weights[j]) + " ");
-			actual += underlyingPrices[j] * weights[j];
-		}
-		for (int j = 0; j < 30; j++)
-			my_portfolioWeights[j] = nominalValues[j] * underlyingPrices[j] * weights[j] / synthetic;
-		str += FMT.format(synthetic * (1 - commission)) + " " + FMT.format(actual * (1 - commission)) + " " + FMT.format((synthetic / actual - 1) * 100) + "%";
-		log("Tick " + currentTime + " " + str);
-		lastPrices = Arrays.copyOf(underlyingPrices, 30);
+		for (int j = 0; j < assets; j++) {
+			double nominal = 0;
+			if (!isSet(unheld, j)) {
+				//hold enough extra to make up for our share of unheld assets' value as of last tick
+				double extra = 0;
+				for (int k = substitutesStart[j]; k < substitutesStart[j + 1]; k++)
+					extra += substituteShare[k] * lastValues[substituteOf[k]];
+				nominal = 1 + extra / lastValues[j];
+			}
+			nominalValues[j] = nominal;
+			tickValues[j] = nominal * underlyingPrices[j] * weights[j];
+			synthetic += tickValues[j];
+			values[j] = underlyingPrices[j] * weights[j];
+			actual += values[j];
+		}
+		for (int j = 0; j < assets; j++)
+			my_portfolioWeights[j] = tickValues[j] / synthetic;
+		trace(currentTime, synthetic * (1 - commission), actual * (1 - commission), (synthetic / actual - 1) * 100);
+		double[] swap = lastValues;
+		lastValues = values;
+		values = swap;
 		return my_portfolioWeights;
 	}
 
+	/**
+	 * Each forbidden asset's weight goes to the asset most correlated with it
+	 * that's still tradable, or with the tracking solver, to the tradable
+	 * portfolio that tracks it best.
+	 */
+	private void planSubstitutions(boolean[] tradables) {
+		Arrays.fill(forbidden, 0);
+		forbiddenCount = 0;
+		for (int i = 0; i < assets; i++) {
+			if (!tradables[i]) {
+				setBit(forbidden, i);
+				forbiddenCount++;
+			}
+		}
+		planSubstitutions();
+	}
+
+	private void planSubstitutions() {
+		if (forbiddenCount == 0) {
+			//hold the index as is
+			Arrays.fill(unheld, 0);
+			Arrays.fill(substitutesStart, 0);
+			return;
+		}
+		if (useTrackingSolver) {
+			planTracking();
+			return;
+		}
+
+		Arrays.fill(substituteFor, -1);
+		for (int j = 0; j < assets; j++) {
+			if (!isSet(forbidden, j))
+				continue;
+			int sub = correlations.mostCorrelated(j, forbidden);
+			//updatePosition has always handed out weight in asset order, so a substitute only picks up a
+			//forbidden asset that comes before it, and the last one of those to pick it wins.
+			//-1 means nothing is left to trade
+			if (sub > j)
+				substituteFor[sub] = j;
+		}
+		System.arraycopy(forbidden, 0, unheld, 0, forbidden.length);
+		ensureSubstitutes(forbiddenCount);
+		int k = 0;
+		for (int j = 0; j < assets; j++) {
+			substitutesStart[j] = k;
+			if (substituteFor[j] != -1) {
+				substituteOf[k] = substituteFor[j];
+				substituteShare[k++] = 1;
+			}
+		}
+		substitutesStart[assets] = k;
+	}
+
+	//covariances drift, but not so fast that a regulation change needs a fresh factorization. they change
+	//fastest early on, so until they're old enough, refresh whenever the number of returns has doubled
+	private boolean trackingSnapshotDue() {
+		if (trackingSolver == null || trackingSolver.samples() == -1)
+			return true;
+		int age = correlations.samples() - trackingSolver.samples();
+		return age >= Math.min(TRACKING_SNAPSHOT_AGE, Math.max(trackingSolver.samples(), 1));
+	}
+
+	private void planTracking() {
+		if (trackingSolver == null)
+			trackingSolver = new TrackingSolver(assets);
+		if (trackingSnapshotDue())
+			trackingSolver.snapshot(correlations);
+
+		long[] plannedUnheld = trackingSolver.plan(forbidden, lastValues);
+		System.arraycopy(plannedUnheld, 0, unheld, 0, unheld.length);
+		int unheldCount = 0;
+		for (long word : unheld)
+			unheldCount += Long.bitCount(word);
+		ensureSubstitutes((assets - unheldCount) * unheldCount);
+		int k = 0;
+		for (int j = 0; j < assets; j++) {
+			substitutesStart[j] = k;
+			if (isSet(unheld, j))
+				continue;
+			for (int r = 0; r < assets; r++) {
+				if (isSet(unheld, r)) {
+					substituteOf[k] = r;
+					substituteShare[k++] = trackingSolver.share(j, r);
+				}
+			}
+		}
+		substitutesStart[assets] = k;
+	}
+
+	private void ensureSubstitutes(int count) {
+		if (substituteOf.length < count) {
+			substituteOf = new int[count];
+			substituteShare = new double[count];
+		}
+	}
+
+	static int bitWords(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	static boolean isSet(long[] bits, int i) {
+		return (bits[i >>> 6] & 1L << i) != 0;
+	}
+
+	static void setBit(long[] bits, int i) {
+		bits[i >>> 6] |= 1L << i;
+	}
+
+	static void clearBit(long[] bits, int i) {
+		bits[i >>> 6] &= ~(1L << i);
+	}
+
+	//a binary trace starts with the number of assets, so it has to wait for initalizePosition
+	private void startTrace() {
+		if (traceChannel == null)
+			return;
+		int bytes = Math.max(TRACE_BUFFER_BYTES, 4 + 8 * (assets + 3));
+		if (traceBuffer == null || traceBuffer.capacity() < bytes)
+			traceBuffer = ByteBuffer.allocateDirect(bytes);
+		traceBuffer.clear();
+		traceBuffer.putInt(TRACE_MAGIC).putInt(assets);
+	}
+
+	private void trace(int tick, double synthetic, double actual, double trackingPercent) {
+		switch (traceMode) {
+			case TRACE_TEXT:
+				line.setLength(0);
+				appendTraceLine(line, tick, tickValues, synthetic, actual, trackingPercent);
+				log(line.toString());
+				break;
+			case TRACE_BINARY:
+				if (traceBuffer.remaining() < 4 + 8 * (tickValues.length + 3))
+					flushTrace();
+				if (traceChannel == null)
+					return;
+				traceBuffer.putInt(tick);
+				for (int j = 0; j < tickValues.length; j++)
+					traceBuffer.putDouble(tickValues[j]);
+				traceBuffer.putDouble(synthetic).putDouble(actual).putDouble(trackingPercent);
+				break;
+		}
+	}
+
+	private static void appendTraceLine(StringBuilder out, int tick, double[] values, double synthetic, double actual, double trackingPercent) {
+		out.append("Tick ").append(tick).append(' ');
+		for (int j = 0; j < values.length; j++)
+			FixedPoint.append(out, values[j]).append(' ');
+		FixedPoint.append(out, synthetic).append(' ');
+		FixedPoint.append(out, actual).append(' ');
+		FixedPoint.append(out, trackingPercent).append('%');
+	}
+
+	private void flushTrace() {
+		if (traceChannel == null)
+			return;
+		traceBuffer.flip();
+		try {
+			while (traceBuffer.hasRemaining())
+				traceChannel.write(traceBuffer);
+		} catch (IOException e) {
+			log("TRACE_FILE: " + e.toString() + ", no longer tracing");
+			closeTrace();
+		}
+		traceBuffer.clear();
+	}
+
+	/**
+	 * Writes out and closes the binary trace, if there is one. Also done on JVM exit.
+	 */
+	public void closeTrace() {
+		if (traceChannel == null)
+			return;
+		FileChannel channel = traceChannel;
+		flushTrace();
+		traceChannel = null;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log("TRACE_FILE: " + e.toString());
+		}
+		if (traceCloser != null && Thread.currentThread() != traceCloser)
+			Runtime.getRuntime().removeShutdownHook(traceCloser);
+		traceCloser = null;
+	}
+
+	/**
+	 * Turns a binary trace back into the lines TRACE 1 would have logged.
+	 */
+	public static void readBinaryTrace(InputStream trace, List<String> lines) throws IOException {
+		DataInputStream in = new DataInputStream(trace);
+		if (in.readInt() != TRACE_MAGIC)
+			throw new IOException("Not an index trace");
+		double[] values = new double[in.readInt()];
+		StringBuilder out = new StringBuilder();
+		while (true) {
+			int tick;
+			try {
+				tick = in.readInt();
+			} catch (EOFException e) {
+				break;
+			}
+			for (int j = 0; j < values.length; j++)
+				values[j] = in.readDouble();
+			double synthetic = in.readDouble(), actual = in.readDouble(), trackingPercent = in.readDouble();
+			out.setLength(0);
+			appendTraceLine(out, tick, values, synthetic, actual, trackingPercent);
+			lines.add(out.toString());
+		}
+	}
+
+	public static void readBinaryTrace(String file, List<String> lines) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			readBinaryTrace(new BufferedInputStream(in), lines);
+		}
+	}
+
 	@Override
 	public void regulationAnnouncement(int currentTime, int timeTakeEffect, boolean[] tradables) {
 		// Set timer for new announcement
-		timeMap.put(timeTakeEffect, tradables);
+		pendingRegulations.add(timeTakeEffect, tradables);
 	}
 
 	@Override
@@ -199,11 +846,39 @@ public class IndexCaseNYU1 extends AbstractIndexCase implements IndexCase {
 
 	@Override
 	public void addVariables(IJobSetup setup) {
-		setup.addVariable("round", "defines the correlation matrix to use (1 for round 1, 2 for round 2, 3 for round 3)", "int", "1");
+		setup.addVariable("TRACKING_SOLVER", "replace untradable assets with the minimum tracking error portfolio (1) or the one most correlated asset (0)", "int", "1");
+		setup.addVariable("CORRELATION_HALF_LIFE", "ticks after which a return counts half as much when ranking substitutes (0 to weigh every tick equally)", "int", "0");
+		setup.addVariable("TRACE", "report every tick as a log line (1), as a binary record in TRACE_FILE (2), or not at all (0)", "int", "1");
+		setup.addVariable("TRACE_FILE", "where TRACE 2 writes to", "string", "indexTrace.bin");
 	}
 
 	@Override
 	public void initializeAlgo(IDB database) {
-		correlationOrder = CORRELATION_ORDER[getIntVar("round") - 1];
+		halfLife = getIntVar("CORRELATION_HALF_LIFE");
+		correlations = null;
+		useTrackingSolver = getIntVar("TRACKING_SOLVER") != 0;
+		trackingSolver = null;
+		pendingRegulations.clear();
+		closeTrace();
+		traceMode = getIntVar("TRACE");
+		if (traceMode != TRACE_NONE && traceMode != TRACE_BINARY)
+			traceMode = TRACE_TEXT;
+		if (traceMode == TRACE_BINARY) {
+			String file = getStringVar("TRACE_FILE");
+			try {
+				traceChannel = new FileOutputStream(file).getChannel();
+			} catch (IOException e) {
+				log("TRACE_FILE: " + e.toString() + ", tracing as text instead");
+				traceMode = TRACE_TEXT;
+				return;
+			}
+			traceCloser = new Thread() {
+				@Override
+				public void run() {
+					closeTrace();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(traceCloser);
+		}
 	}
 }
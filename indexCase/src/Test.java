@@ -1,14 +1,25 @@
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.NavigableMap;
-import java.util.Scanner;
+import java.util.Random;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.uchicago.index.core.IndexCase;
+
 public class Test {
 	public static class LinearRegression {
 		private final int N;
@@ -144,45 +155,56 @@ public class Test {
 		}
 	}
 
-	private static double[] getWeights(int round) throws FileNotFoundException {
-		double[] weights = new double[30];
-		try (Scanner scan = new Scanner(new File("market-data/round" + round + "/capWeights.csv"))) {
-			for (int i = 0; i < 30; i++)
-				weights[i] = scan.nextDouble();
-		}
+	private static double[] getWeights(int round) throws IOException {
+		TickFile ticks = TickFile.load("market-data/round" + round + "/capWeights.csv");
+		double[] weights = new double[ticks.rows()];
+		ticks.column(0).get(weights);
 		return weights;
 	}
 
-	//these are hardcoded based on historical data
-	@SuppressWarnings("unused")
-	private static int[][] findHighestCorrelating(int round) throws FileNotFoundException {
+	//one row per tick, with as many assets as the header has columns before the index's
+	private static double[][] getPrices(int round) throws IOException {
+		TickFile ticks = TickFile.load("market-data/round" + round + "/prices.csv");
+		double[][] prices = new double[ticks.rows()][ticks.columns() - 1];
+		for (int i = 0; i < prices.length; i++)
+			ticks.row(i, prices[i]);
+		return prices;
+	}
+
+	private static boolean[] getInitialTradables(int round, int assets) throws IOException {
+		TickFile ticks = TickFile.load("market-data/round" + round + "/tradable_init.csv");
+		boolean[] tradables = new boolean[assets];
+		for (int i = 0; i < assets; i++)
+			tradables[i] = ticks.get(i, 0) == 1;
+		return tradables;
+	}
+
+	private static NavigableMap<Integer, int[]> getTradableChanges(int round) throws IOException {
+		TickFile ticks = TickFile.load("market-data/round" + round + "/tradable_changes.csv");
+		NavigableMap<Integer, int[]> tradableChanges = new TreeMap<>();
+		for (int i = 0; i < ticks.rows(); i++)
+			tradableChanges.put(Integer.valueOf((int) ticks.get(i, 0) - 1), new int[] { (int) ticks.get(i, 1), (int) ticks.get(i, 2) });
+		return tradableChanges;
+	}
+
+	//how substitutes used to be ranked, offline and on the whole round's data
+	private static int[][] findHighestCorrelating(int round) throws IOException {
+		double[][] prices = getPrices(round);
+		final int assets = prices[0].length;
 		List<List<Double>> percentChanges = new ArrayList<>();
-		for (int i = 0; i < 30; i++)
+		for (int i = 0; i < assets; i++)
 			percentChanges.add(new ArrayList<Double>());
-		try (Scanner scan = new Scanner(new File("market-data/round" + round + "/prices.csv"))) {
-			scan.nextLine(); //skip headers line
-
-			double[] prev = new double[30];
-			String[] line0 = scan.nextLine().split(",");
-			for (int j = 0; j < 30; j++)
-				prev[j] = Double.parseDouble(line0[j]);
-			for (int i = 0; i < 9999; i++) {
-				String[] line1 = scan.nextLine().split(",");
-				for (int j = 0; j < 30; j++) {
-					double now = Double.parseDouble(line1[j]);
-					percentChanges.get(j).add(Double.valueOf((now - prev[j]) / prev[j]));
-					prev[j] = now;
-				}
-			}
-		}
+		for (int i = 1; i < prices.length; i++)
+			for (int j = 0; j < assets; j++)
+				percentChanges.get(j).add(Double.valueOf((prices[i][j] - prices[i - 1][j]) / prices[i - 1][j]));
 
-		final double[][] correlations = new double[30][30];
-		for (int i = 0; i < 29; i++)
-			for (int j = i + 1; j < 30; j++)
+		final double[][] correlations = new double[assets][assets];
+		for (int i = 0; i < assets - 1; i++)
+			for (int j = i + 1; j < assets; j++)
 				correlations[i][j] = correlations[j][i] = new LinearRegression(percentChanges.get(i), percentChanges.get(j)).correlation();
 
-		int[][] orders = new int[30][30];
-		for (int i = 0; i < 30; i++) {
+		int[][] orders = new int[assets][assets];
+		for (int i = 0; i < assets; i++) {
 			final int iAt = i;
 			SortedSet<Integer> sorter = new TreeSet<Integer>(new Comparator<Integer>() {
 				@Override
@@ -195,7 +217,7 @@ public class Test {
 						return 0;
 				}
 			});
-			for (int j = 0; j < 30; j++)
+			for (int j = 0; j < assets; j++)
 				sorter.add(Integer.valueOf(j));
 			int j = 0;
 			for (Integer counterPart : sorter)
@@ -204,74 +226,419 @@ public class Test {
 		return orders;
 	}
 
-	public static void main(String[] args) throws FileNotFoundException {
-		/*int[][] correlationOrder = findHighestCorrelating(1);
-		System.out.println("BEGIN CORRELATION ORDER");
-		for (int i = 0; i < 30; i++) {
-			System.out.print("{");
-			for (int j = 0; j < 30; j++)
-				System.out.print(correlationOrder[i][j] + ",\t");
-			System.out.println("}");
+	//one round's market data, loaded once so that it can be replayed many times
+	private static class Replay {
+		private static final double COMMISSION = 0.031399675;
+
+		private final int assets;
+		private final double[] weights;
+		private final double[][] oldNominals;
+		private final boolean[] initialTradables;
+		private final NavigableMap<Integer, int[]> tradableChanges;
+
+		public Replay(int round) throws IOException {
+			this(getWeights(round), getPrices(round), round);
 		}
-		System.out.println("END CORRELATION ORDER");*/
 
-		final int ROUND = 3;
-		double[] weights = getWeights(ROUND);
-		IndexCaseNYU1 c = new IndexCaseNYU1() {
+		private Replay(double[] weights, double[][] oldNominals, int round) throws IOException {
+			this(weights, oldNominals, getInitialTradables(round, weights.length), getTradableChanges(round));
+		}
+
+		private Replay(double[] weights, double[][] oldNominals, boolean[] initialTradables, NavigableMap<Integer, int[]> tradableChanges) {
+			assets = weights.length;
+			this.weights = weights;
+			this.oldNominals = oldNominals;
+			this.initialTradables = initialTradables;
+			this.tradableChanges = tradableChanges;
+		}
+
+		/**
+		 * Made up prices for an index of any size: one market factor plus noise,
+		 * with a tenth of the assets untradable at the start and one asset
+		 * changing every 75 ticks, about as often as in the real rounds.
+		 */
+		public static Replay synthetic(int assets, int ticks, long seed) {
+			Random random = new Random(seed);
+			double[] weights = new double[assets];
+			double[] betas = new double[assets];
+			double[][] prices = new double[ticks][assets];
+			boolean[] tradables = new boolean[assets];
+			double total = 0;
+			for (int j = 0; j < assets; j++) {
+				weights[j] = 0.5 + random.nextDouble();
+				total += weights[j];
+				betas[j] = 0.5 + random.nextDouble();
+				prices[0][j] = 10 + 40 * random.nextDouble();
+				tradables[j] = random.nextInt(10) != 0;
+			}
+			for (int j = 0; j < assets; j++)
+				weights[j] /= total;
+			for (int i = 1; i < ticks; i++) {
+				double market = 0.005 * random.nextGaussian();
+				for (int j = 0; j < assets; j++)
+					prices[i][j] = prices[i - 1][j] * (1 + betas[j] * market + 0.01 * random.nextGaussian());
+			}
+			NavigableMap<Integer, int[]> changes = new TreeMap<>();
+			boolean[] current = tradables.clone();
+			for (int i = 75; i < ticks; i += 75) {
+				int asset = random.nextInt(assets);
+				current[asset] = !current[asset];
+				changes.put(Integer.valueOf(i), new int[] { asset, current[asset] ? 1 : 0 });
+			}
+			return new Replay(weights, prices, tradables, changes);
+		}
+
+		public void run(IndexCase c) {
+			boolean[] tradables = initialTradables.clone();
+			double index = 0;
+			for (int j = 0; j < assets; j++)
+				index += oldNominals[0][j];
+			index *= (1 - COMMISSION);
+			c.initializeAlgo(null);
+			c.initalizePosition(oldNominals[0], index, weights, tradables);
+			for (int i = 1; i < oldNominals.length; i++) {
+				int[] change = tradableChanges.get(i);
+				if (change != null) {
+					tradables[change[0]] = change[1] == 1;
+					c.regulationAnnouncement(i, i + 20, tradables);
+				}
+				index = 0;
+				for (int j = 0; j < assets; j++)
+					index += oldNominals[i][j];
+				index *= (1 - COMMISSION);
+				c.updatePosition(i, oldNominals[i], index);
+			}
+		}
+	}
+
+	private static IndexCaseNYU1 tracingCase(final int trace, final String traceFile, final List<String> logged) {
+		return new IndexCaseNYU1() {
 			@Override
 			public int getIntVar(String str) {
-				if (str.equals("round"))
-					return ROUND;
+				if (str.equals("TRACE"))
+					return trace;
 				return -1;
 			}
 
+			@Override
+			public String getStringVar(String str) {
+				if (str.equals("TRACE_FILE"))
+					return traceFile;
+				return null;
+			}
+
 			@Override
 			public void log(String s) {
-				System.out.println(s);
+				logged.add(s);
 			}
 		};
-		double[][] oldNominals = new double[10000][30];
-		try (Scanner scan = new Scanner(new File("market-data/round" + ROUND + "/prices.csv"))) {
-			scan.nextLine(); //skip headers line
+	}
 
-			for (int i = 0; i < oldNominals.length; i++) {
-				String[] line = scan.nextLine().split(",");
-				for (int j = 0; j < 30; j++)
-					oldNominals[i][j] = Double.parseDouble(line[j]);
+	//FixedPoint should agree with DecimalFormat everywhere, especially on values at or next to a rounding tie
+	private static void verifyFixedPoint() {
+		DecimalFormat fmt = new DecimalFormat("0.00");
+		Random random = new Random(0);
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < 2000000; i++) {
+			double value;
+			switch (i % 4) {
+				case 0:
+					value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12));
+					break;
+				case 1:
+					//ties like x.xx5 and their neighbors
+					value = (random.nextInt(2000001) - 1000000 + 0.5) / 100;
+					break;
+				case 2:
+					value = Math.nextUp((random.nextInt(2000001) - 1000000 + 0.5) / 100);
+					break;
+				default:
+					value = Math.nextAfter((random.nextInt(2000001) - 1000000 + 0.5) / 100, Double.NEGATIVE_INFINITY);
+					break;
+			}
+			out.setLength(0);
+			if (!IndexCaseNYU1.FixedPoint.append(out, value).toString().equals(fmt.format(value)))
+				throw new AssertionError(value + ": expected " + fmt.format(value) + ", got " + out);
+		}
+		for (double value : new double[] { 0, -0.0, -0.001, 0.125, 0.375, 2.675, 1e13, -1e20, Double.NaN, Double.POSITIVE_INFINITY }) {
+			out.setLength(0);
+			if (!IndexCaseNYU1.FixedPoint.append(out, value).toString().equals(fmt.format(value)))
+				throw new AssertionError(value + ": expected " + fmt.format(value) + ", got " + out);
+		}
+	}
+
+	//regulation changes should come out in effective time order no matter how they were announced
+	private static void verifyRegulationQueue() {
+		IndexCaseNYU1.RegulationQueue queue = new IndexCaseNYU1.RegulationQueue();
+		Random random = new Random(0);
+		TreeMap<Integer, boolean[]> expected = new TreeMap<Integer, boolean[]>();
+		for (int i = 0; i < 1000; i++) {
+			int time = random.nextInt(300);
+			boolean[] tradables = new boolean[30];
+			//the later announcement for a time should win
+			expected.put(Integer.valueOf(time), tradables);
+			queue.add(time, tradables);
+		}
+		for (int time = 0; time < 300; time += 1 + random.nextInt(5)) {
+			boolean[] due = queue.pollDue(time);
+			NavigableMap<Integer, boolean[]> elapsed = expected.headMap(Integer.valueOf(time), true);
+			boolean[] current = elapsed.isEmpty() ? null : elapsed.lastEntry().getValue();
+			elapsed.clear();
+			if (due != current)
+				throw new AssertionError("wrong tradables in force at " + time);
+			if (queue.peekTime() != (expected.isEmpty() ? Integer.MAX_VALUE : expected.firstKey().intValue()))
+				throw new AssertionError("next change after " + time + " is at " + queue.peekTime());
+		}
+		//announced late, so it takes effect on the next tick
+		queue.clear();
+		boolean[] late = new boolean[30];
+		queue.add(5, late);
+		if (queue.pollDue(9) != late || queue.size() != 0)
+			throw new AssertionError("late regulation change was not applied");
+	}
+
+	//after a whole round, the online correlations should pick the same substitutes as the offline regressions
+	private static void verifyReturnCorrelations() throws IOException {
+		Random random = new Random(0);
+		for (int round = 1; round <= 3; round++) {
+			int[][] orders = findHighestCorrelating(round);
+			IndexCaseNYU1.ReturnCorrelations correlations = new IndexCaseNYU1.ReturnCorrelations(30, 0);
+			for (double[] prices : new Replay(round).oldNominals)
+				correlations.update(prices);
+			for (int k = 0; k < 1000; k++) {
+				int i = k % 30;
+				//a few assets at a time, like regulation leaves
+				long[] excluded = { k < 30 ? 0 : random.nextLong() & random.nextLong() & random.nextLong() };
+				int expected = -1;
+				for (int j : orders[i]) {
+					if (j != i && !IndexCaseNYU1.isSet(excluded, j)) {
+						expected = j;
+						break;
+					}
+				}
+				int actual = correlations.mostCorrelated(i, excluded);
+				if (actual != expected)
+					throw new AssertionError("round " + round + ": " + actual + " instead of " + expected + " substitutes for " + i);
 			}
 		}
-		double commission = 0.031399675;
-		boolean[] tradables = new boolean[30];
-		try (Scanner scan = new Scanner(new File("market-data/round" + ROUND + "/tradable_init.csv"))) {
-			for (int i = 0; i < 30; i++) {
-				int line = scan.nextInt();
-				tradables[i] = line == 1;
+	}
+
+	//the incrementally updated solver should agree with a from scratch solve of the same problem's optimality conditions
+	private static void verifyTrackingSolver() throws IOException {
+		Replay replay = new Replay(3);
+		Random random = new Random(0);
+		IndexCaseNYU1.ReturnCorrelations correlations = new IndexCaseNYU1.ReturnCorrelations(30, 0);
+		IndexCaseNYU1.TrackingSolver solver = new IndexCaseNYU1.TrackingSolver(30);
+		double[] values = new double[30];
+		//what the solver last took a snapshot of
+		double[][] covariances = new double[30][30];
+		long[] excluded = new long[1];
+		for (int i = 0; i < replay.oldNominals.length; i++) {
+			correlations.update(replay.oldNominals[i]);
+			if (i % 50 != 49)
+				continue;
+			//flip one asset, keeping at most a third excluded
+			int flip = random.nextInt(30);
+			if (IndexCaseNYU1.isSet(excluded, flip) || Long.bitCount(excluded[0]) < 10)
+				excluded[0] ^= 1L << flip;
+			if (i % 1000 == 49) {
+				solver.snapshot(correlations);
+				for (int j = 0; j < 30; j++)
+					for (int k = 0; k < 30; k++)
+						covariances[j][k] = j == k ? Math.max(correlations.covariance(j, j), IndexCaseNYU1.TrackingSolver.MIN_VARIANCE) : (1 - IndexCaseNYU1.TrackingSolver.SHRINKAGE) * correlations.covariance(j, k);
+			}
+			for (int j = 0; j < 30; j++)
+				values[j] = replay.oldNominals[i][j] * replay.weights[j];
+			long unheld = solver.plan(excluded, values)[0];
+			if ((unheld & excluded[0]) != excluded[0])
+				throw new AssertionError("tick " + i + ": holding excluded assets");
+
+			//minimize e' S e - 2 e' C v subject to sum(e) = sum(v), where e is the extra value held and v the unheld value
+			int[] held = new int[30 - Long.bitCount(unheld)];
+			for (int j = 0, p = 0; j < 30; j++)
+				if ((unheld & (1L << j)) == 0)
+					held[p++] = j;
+			RealMatrix kkt = new Array2DRowRealMatrix(held.length + 1, held.length + 1);
+			RealVector rhs = new ArrayRealVector(held.length + 1);
+			double unheldValue = 0;
+			for (int r = 0; r < 30; r++)
+				if ((unheld & (1L << r)) != 0)
+					unheldValue += values[r];
+			for (int p = 0; p < held.length; p++) {
+				for (int q = 0; q < held.length; q++)
+					kkt.setEntry(p, q, covariances[held[p]][held[q]]);
+				kkt.setEntry(p, held.length, 1);
+				kkt.setEntry(held.length, p, 1);
+				for (int r = 0; r < 30; r++)
+					if ((unheld & (1L << r)) != 0)
+						rhs.addToEntry(p, covariances[held[p]][r] * values[r]);
+			}
+			rhs.setEntry(held.length, unheldValue);
+			RealVector expected = new LUDecomposition(kkt).getSolver().solve(rhs);
+			for (int p = 0; p < held.length; p++) {
+				double extra = 0;
+				for (int r = 0; r < 30; r++)
+					if ((unheld & (1L << r)) != 0)
+						extra += solver.share(held[p], r) * values[r];
+				if (Math.abs(extra - expected.getEntry(p)) > 1e-9 * unheldValue)
+					throw new AssertionError("tick " + i + ": " + extra + " extra in asset " + held[p] + " instead of " + expected.getEntry(p));
+				if (values[held[p]] + extra < 0)
+					throw new AssertionError("tick " + i + ": short asset " + held[p]);
 			}
 		}
-		NavigableMap<Integer, int[]> tradableChanges = new TreeMap<>();
-		try (Scanner scan = new Scanner(new File("market-data/round" + ROUND + "/tradable_changes.csv"))) {
-			while (scan.hasNext()) {
-				String[] line = scan.nextLine().split(",");
-				tradableChanges.put(Integer.valueOf(line[0]) - 1, new int[] { Integer.parseInt(line[1]), Integer.parseInt(line[2]) });
+	}
+
+	//the binary trace should read back as exactly the lines the text trace logs
+	private static void verifyBinaryTrace() throws IOException {
+		File file = File.createTempFile("indexTrace", ".bin");
+		try {
+			Replay replay = new Replay(3);
+			List<String> text = new ArrayList<String>(), binary = new ArrayList<String>();
+			replay.run(tracingCase(1, null, text));
+			IndexCaseNYU1 c = tracingCase(2, file.getPath(), binary);
+			replay.run(c);
+			c.closeTrace();
+			if (!binary.isEmpty())
+				throw new AssertionError("TRACE 2 logged " + binary.get(0));
+			IndexCaseNYU1.readBinaryTrace(file.getPath(), binary);
+			if (!binary.equals(text))
+				throw new AssertionError("binary trace read back " + binary.size() + " lines differently from the " + text.size() + " logged");
+		} finally {
+			file.delete();
+		}
+	}
+
+	//TRACE 1 logs to a file here, like the platform's log does
+	private static void benchmarkTrace() throws IOException {
+		File textFile = File.createTempFile("indexTrace", ".txt");
+		final File binaryFile = File.createTempFile("indexTrace", ".bin");
+		try {
+			Replay replay = new Replay(3);
+			for (int round = 0; round < 5; round++) {
+				for (int t = 0; t <= 2; t++) {
+					final int trace = t;
+					final PrintWriter text = new PrintWriter(new BufferedWriter(new FileWriter(textFile)));
+					IndexCaseNYU1 c = new IndexCaseNYU1() {
+						@Override
+						public int getIntVar(String str) {
+							return str.equals("TRACE") ? trace : -1;
+						}
+
+						@Override
+						public String getStringVar(String str) {
+							return binaryFile.getPath();
+						}
+
+						@Override
+						public void log(String s) {
+							text.println(s);
+						}
+					};
+					long start = System.nanoTime();
+					replay.run(c);
+					c.closeTrace();
+					text.close();
+					long elapsed = System.nanoTime() - start;
+					if (round == 4)
+						System.out.println("replay with TRACE " + trace + ": " + elapsed / 1000000 + " ms (" + (trace == 2 ? binaryFile : textFile).length() + " bytes traced)");
+				}
 			}
+		} finally {
+			textFile.delete();
+			binaryFile.delete();
 		}
-		double index = 0;
+	}
+
+	//one asset becoming untradable or tradable at a time, as regulation announces them
+	private static void benchmarkTrackingSolver() throws IOException {
+		Replay replay = new Replay(3);
+		IndexCaseNYU1.ReturnCorrelations correlations = new IndexCaseNYU1.ReturnCorrelations(30, 0);
+		for (double[] prices : replay.oldNominals)
+			correlations.update(prices);
+		double[] values = new double[30];
 		for (int j = 0; j < 30; j++)
-			index += oldNominals[0][j];
-		index *= (1 - commission);
-		c.initializeAlgo(null);
-		c.initalizePosition(oldNominals[0], index, weights, tradables);
-		for (int i = 1; i < oldNominals.length; i++) {
-			int[] change = tradableChanges.get(i);
-			if (change != null) {
-				tradables[change[0]] = change[1] == 1;
-				c.regulationAnnouncement(i, i + 20, tradables);
+			values[j] = replay.oldNominals[replay.oldNominals.length - 1][j] * replay.weights[j];
+		IndexCaseNYU1.TrackingSolver solver = new IndexCaseNYU1.TrackingSolver(30);
+		Random random = new Random(0);
+		long[] excluded = new long[1];
+		for (int round = 0; round < 5; round++) {
+			int plans = 20000;
+			long snapshotStart = System.nanoTime();
+			for (int i = 0; i < 1000; i++)
+				solver.snapshot(correlations);
+			long start = System.nanoTime();
+			for (int i = 0; i < plans; i++) {
+				int flip = random.nextInt(30);
+				if (IndexCaseNYU1.isSet(excluded, flip) || Long.bitCount(excluded[0]) < 10)
+					excluded[0] ^= 1L << flip;
+				solver.plan(excluded, values);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (round == 4)
+				System.out.println("tracking solver: " + (start - snapshotStart) / 1000 / 1000 + " us per snapshot, " + elapsed / plans / 1000d + " us per regulation change");
+		}
+	}
+
+	//per tick cost as the index grows. the tracking solver's O(n^3) refactoring is left out at 3000
+	private static void benchmarkUniverse() {
+		for (int assets : new int[] { 30, 500, 3000 }) {
+			Replay replay = Replay.synthetic(assets, assets < 3000 ? 5000 : 1000, 0);
+			for (int solver = 0; solver <= (assets < 3000 ? 1 : 0); solver++) {
+				final int trackingSolver = solver;
+				IndexCaseNYU1 c = new IndexCaseNYU1() {
+					@Override
+					public int getIntVar(String str) {
+						return str.equals("TRACE") ? 0 : str.equals("TRACKING_SOLVER") ? trackingSolver : -1;
+					}
+				};
+				long elapsed = 0;
+				for (int round = 0; round < 3; round++) {
+					long start = System.nanoTime();
+					replay.run(c);
+					elapsed = System.nanoTime() - start;
+				}
+				System.out.println(assets + " assets, " + (solver == 0 ? "most correlated" : "tracking solver") + ": " + elapsed / replay.oldNominals.length / 1000d + " us per tick");
 			}
-			index = 0;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		/*int[][] correlationOrder = findHighestCorrelating(1);
+		System.out.println("BEGIN CORRELATION ORDER");
+		for (int i = 0; i < 30; i++) {
+			System.out.print("{");
 			for (int j = 0; j < 30; j++)
-				index += oldNominals[i][j];
-			index *= (1 - commission);
-			c.updatePosition(i, oldNominals[i], index);
+				System.out.print(correlationOrder[i][j] + ",\t");
+			System.out.println("}");
+		}
+		System.out.println("END CORRELATION ORDER");*/
+
+		if (args.length > 0 && args[0].equals("benchmark")) {
+			benchmarkTrace();
+			benchmarkTrackingSolver();
+			benchmarkUniverse();
+			return;
 		}
+		verifyFixedPoint();
+		verifyBinaryTrace();
+		verifyRegulationQueue();
+		verifyReturnCorrelations();
+		verifyTrackingSolver();
+
+		final int ROUND = 3;
+		IndexCaseNYU1 c = new IndexCaseNYU1() {
+			@Override
+			public int getIntVar(String str) {
+				return -1;
+			}
+
+			@Override
+			public void log(String s) {
+				System.out.println(s);
+			}
+		};
+		Latency.InstrumentedIndexCase timed = new Latency.InstrumentedIndexCase("index round" + ROUND, c);
+		new Replay(ROUND).run(timed);
+		System.err.println(timed.report());
 	}
 }
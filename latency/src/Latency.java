@@ -0,0 +1,444 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.uchicago.index.core.IndexCase;
+import org.uchicago.options.OptionsHelpers.QuoteList;
+import org.uchicago.options.core.OptionsInterface;
+import org.uchicago.pairs.PairsHelper.Order;
+import org.uchicago.pairs.PairsHelper.Quote;
+import org.uchicago.pairs.PairsHelper.Ticker;
+import org.uchicago.pairs.core.PairsInterface;
+
+import com.optionscity.freeway.api.IDB;
+import com.optionscity.freeway.api.IJobSetup;
+
+/**
+ * How long a strategy takes to answer each callback the platform makes on
+ * every tick.
+ * <p>
+ * Wrap a strategy in the Instrumented class for its case and call it through
+ * the wrapper instead. Each timed callback gets a Histogram, registered with
+ * the platform MBean server as
+ * <tt>UChicagoTradingCompetition:type=Latency,strategy=...,callback=...</tt>
+ * so that it can be watched from JConsole while a replay or a live strategy
+ * runs, and {@link Instrumented#report()} sums them all up at the end.
+ * <p>
+ * Setup callbacks, which the platform only makes once, are passed through
+ * untimed.
+ */
+public class Latency {
+	private static final String DOMAIN = "UChicagoTradingCompetition";
+
+	/**
+	 * What JMX sees of a Histogram. Everything is in nanoseconds.
+	 */
+	public interface HistogramMXBean {
+		long getCount();
+
+		double getMeanNanos();
+
+		long getP50Nanos();
+
+		long getP99Nanos();
+
+		long getP999Nanos();
+
+		long getMaxNanos();
+
+		/**
+		 * Calls that took longer than this count as over budget. 0 for no
+		 * budget.
+		 */
+		long getBudgetNanos();
+
+		void setBudgetNanos(long budget);
+
+		long getOverBudget();
+
+		void reset();
+	}
+
+	/**
+	 * Counts of latencies in buckets that are linear within each power of two
+	 * and double in width from one power of two to the next, like
+	 * HdrHistogram with two significant digits: any latency is reported to
+	 * within 1/64 of itself. Every bucket up to 2^63 nanoseconds is allocated
+	 * up front, so recording never allocates, and it's a handful of stores.
+	 * <p>
+	 * Made to be recorded by the one thread the platform calls a strategy on
+	 * and read by any other. A reader can miss the last few records, and a
+	 * reset() during a call may keep or lose that call.
+	 */
+	public static class Histogram implements HistogramMXBean {
+		//each power of two is split into 2^(SUB_BUCKET_BITS - 1) buckets
+		private static final int SUB_BUCKET_BITS = 7;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+		private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+		private final String name;
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong total = new AtomicLong(), max = new AtomicLong();
+		private volatile long budget;
+
+		public Histogram(String name) {
+			this.name = name;
+		}
+
+		//the first SUB_BUCKETS latencies get a bucket each. past that, the top SUB_BUCKET_BITS - 1 bits below the highest one pick the bucket
+		private static int index(long nanos) {
+			if (nanos < SUB_BUCKETS)
+				return (int) nanos;
+			int shift = 63 - Long.numberOfLeadingZeros(nanos) - (SUB_BUCKET_BITS - 1);
+			return shift * HALF_SUB_BUCKETS + (int) (nanos >>> shift);
+		}
+
+		private static long lowest(int index) {
+			if (index < SUB_BUCKETS)
+				return index;
+			int shift = index / HALF_SUB_BUCKETS - 1;
+			return (long) (index % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+		}
+
+		private static long highest(int index) {
+			return index == BUCKETS - 1 ? Long.MAX_VALUE : lowest(index + 1) - 1;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public void record(long nanos) {
+			if (nanos < 0)
+				nanos = 0;
+			int i = index(nanos);
+			//only the one thread writes, so there's nothing to lose between the get and the set
+			counts.lazySet(i, counts.get(i) + 1);
+			total.lazySet(total.get() + nanos);
+			if (nanos > max.get())
+				max.lazySet(nanos);
+		}
+
+		@Override
+		public long getCount() {
+			long count = 0;
+			for (int i = 0; i < BUCKETS; i++)
+				count += counts.get(i);
+			return count;
+		}
+
+		@Override
+		public double getMeanNanos() {
+			long count = getCount();
+			return count == 0 ? 0 : (double) total.get() / count;
+		}
+
+		/**
+		 * The latency that fraction of calls took no longer than, rounded up to
+		 * the top of its bucket but never past the longest call.
+		 */
+		public long percentile(double fraction) {
+			long count = getCount();
+			if (count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(fraction * count)), seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen >= rank)
+					return Math.min(highest(i), max.get());
+			}
+			return max.get();
+		}
+
+		@Override
+		public long getP50Nanos() {
+			return percentile(0.5);
+		}
+
+		@Override
+		public long getP99Nanos() {
+			return percentile(0.99);
+		}
+
+		@Override
+		public long getP999Nanos() {
+			return percentile(0.999);
+		}
+
+		@Override
+		public long getMaxNanos() {
+			return max.get();
+		}
+
+		@Override
+		public long getBudgetNanos() {
+			return budget;
+		}
+
+		@Override
+		public void setBudgetNanos(long budget) {
+			this.budget = budget;
+		}
+
+		/**
+		 * How many calls took longer than nanos. Buckets that straddle it count
+		 * as over, so this never misses a slow call but can include calls a
+		 * little under it.
+		 */
+		public long countAbove(long nanos) {
+			long over = 0;
+			for (int i = index(Math.max(nanos, 0)); i < BUCKETS; i++)
+				over += counts.get(i);
+			return over;
+		}
+
+		@Override
+		public long getOverBudget() {
+			long budget = this.budget;
+			return budget == 0 ? 0 : countAbove(budget);
+		}
+
+		@Override
+		public void reset() {
+			for (int i = 0; i < BUCKETS; i++)
+				counts.set(i, 0);
+			total.set(0);
+			max.set(0);
+		}
+
+		private static String micros(long nanos) {
+			return String.format(Locale.US, "%.2f us", nanos / 1000d);
+		}
+
+		@Override
+		public String toString() {
+			String s = name + ": " + getCount() + " calls, p50 " + micros(getP50Nanos()) + ", p99 " + micros(getP99Nanos()) + ", p99.9 " + micros(getP999Nanos()) + ", max " + micros(getMaxNanos());
+			if (budget != 0)
+				s += ", " + getOverBudget() + " over the " + micros(budget) + " budget";
+			return s;
+		}
+	}
+
+	/**
+	 * The histograms of one strategy, one per timed callback.
+	 */
+	public static abstract class Instrumented {
+		private final String name;
+		private final List<Histogram> histograms = new ArrayList<Histogram>();
+		private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+		protected Instrumented(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Makes the histogram for a callback and registers it, replacing
+		 * whatever an earlier strategy of the same name registered.
+		 */
+		protected Histogram histogram(String callback) {
+			Histogram histogram = new Histogram(callback);
+			histograms.add(histogram);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				ObjectName objectName = new ObjectName(DOMAIN + ":type=Latency,strategy=" + ObjectName.quote(name) + ",callback=" + callback);
+				if (server.isRegistered(objectName))
+					server.unregisterMBean(objectName);
+				server.registerMBean(histogram, objectName);
+				registered.add(objectName);
+			} catch (JMException e) {
+				throw new IllegalStateException("could not register the " + callback + " histogram of " + name, e);
+			}
+			return histogram;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public List<Histogram> histograms() {
+			return Collections.unmodifiableList(histograms);
+		}
+
+		public void setBudgetNanos(long budget) {
+			for (Histogram histogram : histograms)
+				histogram.setBudgetNanos(budget);
+		}
+
+		/**
+		 * Takes the histograms back out of JMX.
+		 */
+		public void unregister() {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (ObjectName objectName : registered) {
+				try {
+					server.unregisterMBean(objectName);
+				} catch (JMException e) {
+					//a later strategy of the same name already replaced it
+				}
+			}
+			registered.clear();
+		}
+
+		/**
+		 * A line for every callback that was made at least once.
+		 */
+		public String report() {
+			StringBuilder report = new StringBuilder(name).append(" latency:");
+			for (Histogram histogram : histograms)
+				if (histogram.getCount() != 0)
+					report.append("\n  ").append(histogram);
+			return report.toString();
+		}
+	}
+
+	public static class InstrumentedIndexCase extends Instrumented implements IndexCase {
+		private final IndexCase strategy;
+		private final Histogram updatePosition = histogram("updatePosition");
+		private final Histogram regulationAnnouncement = histogram("regulationAnnouncement");
+		private final Histogram penaltyNotification = histogram("penaltyNotification");
+
+		public InstrumentedIndexCase(String name, IndexCase strategy) {
+			super(name);
+			this.strategy = strategy;
+		}
+
+		@Override
+		public double[] initalizePosition(double[] underlyingPrices, double indexValue, double[] trueWeights, boolean[] tradables) {
+			return strategy.initalizePosition(underlyingPrices, indexValue, trueWeights, tradables);
+		}
+
+		@Override
+		public double[] updatePosition(int currentTime, double[] underlyingPrices, double indexValue) {
+			long start = System.nanoTime();
+			double[] weights = strategy.updatePosition(currentTime, underlyingPrices, indexValue);
+			updatePosition.record(System.nanoTime() - start);
+			return weights;
+		}
+
+		@Override
+		public void regulationAnnouncement(int currentTime, int timeTakeEffect, boolean[] tradables) {
+			long start = System.nanoTime();
+			strategy.regulationAnnouncement(currentTime, timeTakeEffect, tradables);
+			regulationAnnouncement.record(System.nanoTime() - start);
+		}
+
+		@Override
+		public void penaltyNotification(int currentTime, boolean[] tradables) {
+			long start = System.nanoTime();
+			strategy.penaltyNotification(currentTime, tradables);
+			penaltyNotification.record(System.nanoTime() - start);
+		}
+
+		@Override
+		public void addVariables(IJobSetup setup) {
+			strategy.addVariables(setup);
+		}
+
+		@Override
+		public void initializeAlgo(IDB database) {
+			strategy.initializeAlgo(database);
+		}
+	}
+
+	public static class InstrumentedPairs extends Instrumented implements PairsInterface {
+		private final PairsInterface strategy;
+		private final Histogram getNewQuotes = histogram("getNewQuotes");
+		private final Histogram ordersConfirmation = histogram("ordersConfirmation");
+
+		public InstrumentedPairs(String name, PairsInterface strategy) {
+			super(name);
+			this.strategy = strategy;
+		}
+
+		@Override
+		public void addVariables(IJobSetup setup) {
+			strategy.addVariables(setup);
+		}
+
+		@Override
+		public void initializeAlgo(IDB dataBase) {
+			strategy.initializeAlgo(dataBase);
+		}
+
+		@Override
+		public void currentSymbols(Ticker[] symbols) {
+			strategy.currentSymbols(symbols);
+		}
+
+		@Override
+		public Order[] getNewQuotes(Quote[] quotes) {
+			long start = System.nanoTime();
+			Order[] orders = strategy.getNewQuotes(quotes);
+			getNewQuotes.record(System.nanoTime() - start);
+			return orders;
+		}
+
+		@Override
+		public void ordersConfirmation(Order[] orders) {
+			long start = System.nanoTime();
+			strategy.ordersConfirmation(orders);
+			ordersConfirmation.record(System.nanoTime() - start);
+		}
+	}
+
+	public static class InstrumentedOptions extends Instrumented implements OptionsInterface {
+		private final OptionsInterface strategy;
+		private final Histogram getCurrentQuotes = histogram("getCurrentQuotes");
+		private final Histogram newFill = histogram("newFill");
+		private final Histogram noBrokerFills = histogram("noBrokerFills");
+		private final Histogram penaltyNotice = histogram("penaltyNotice");
+
+		public InstrumentedOptions(String name, OptionsInterface strategy) {
+			super(name);
+			this.strategy = strategy;
+		}
+
+		@Override
+		public void addVariables(IJobSetup setup) {
+			strategy.addVariables(setup);
+		}
+
+		@Override
+		public void initializeAlgo(IDB dataBase, List<String> instruments) {
+			strategy.initializeAlgo(dataBase, instruments);
+		}
+
+		@Override
+		public QuoteList getCurrentQuotes() {
+			long start = System.nanoTime();
+			QuoteList quotes = strategy.getCurrentQuotes();
+			getCurrentQuotes.record(System.nanoTime() - start);
+			return quotes;
+		}
+
+		@Override
+		public void newFill(int strike, int direction, double price) {
+			long start = System.nanoTime();
+			strategy.newFill(strike, direction, price);
+			newFill.record(System.nanoTime() - start);
+		}
+
+		@Override
+		public void noBrokerFills() {
+			long start = System.nanoTime();
+			strategy.noBrokerFills();
+			noBrokerFills.record(System.nanoTime() - start);
+		}
+
+		@Override
+		public void penaltyNotice(double amount) {
+			long start = System.nanoTime();
+			strategy.penaltyNotice(amount);
+			penaltyNotice.record(System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+import java.util.Arrays;
+import java.util.Random;
+
+public class LatencyTest {
+	//every percentile should be the true one rounded up by less than 1/64, on latencies from nanoseconds to hours
+	private static void verifyLatencyHistogram() {
+		Random random = new Random(0);
+		long[] latencies = new long[100000];
+		Latency.Histogram histogram = new Latency.Histogram("test");
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = (long) Math.exp(random.nextDouble() * 30);
+			histogram.record(latencies[i]);
+		}
+		Arrays.sort(latencies);
+		if (histogram.getCount() != latencies.length || histogram.getMaxNanos() != latencies[latencies.length - 1])
+			throw new AssertionError("expected " + latencies.length + " calls up to " + latencies[latencies.length - 1] + " ns, got " + histogram.getCount() + " up to " + histogram.getMaxNanos());
+		for (double fraction : new double[] { 0.001, 0.1, 0.5, 0.9, 0.99, 0.999, 0.9999, 1 }) {
+			long expected = latencies[(int) Math.ceil(fraction * latencies.length) - 1], actual = histogram.percentile(fraction);
+			if (actual < expected || actual > expected + expected / 64)
+				throw new AssertionError("p" + fraction * 100 + ": expected " + expected + " ns, got " + actual);
+		}
+		for (long budget : new long[] { 0, 100, 12345, 1000000000L }) {
+			int over = 0;
+			for (long latency : latencies)
+				if (latency > budget)
+					over++;
+			histogram.setBudgetNanos(budget);
+			if (histogram.countAbove(budget) < over || budget != 0 && histogram.getOverBudget() != histogram.countAbove(budget))
+				throw new AssertionError(over + " calls over " + budget + " ns, histogram counted " + histogram.countAbove(budget));
+		}
+		histogram.record(Long.MAX_VALUE);
+		if (histogram.percentile(1) != Long.MAX_VALUE)
+			throw new AssertionError("the longest latency should be recorded exactly");
+		histogram.reset();
+		if (histogram.getCount() != 0 || histogram.getMaxNanos() != 0 || histogram.percentile(0.5) != 0)
+			throw new AssertionError("reset() left calls behind");
+	}
+
+	public static void main(String[] args) {
+		verifyLatencyHistogram();
+	}
+}
@@ -1,7 +1,6 @@
 import java.text.DecimalFormat;
+import java.text.FieldPosition;
 import java.text.NumberFormat;
-import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.uchicago.options.OptionsHelpers.Quote;
@@ -22,125 +21,596 @@ import com.optionscity.freeway.api.IJobSetup;
  * @author Shrey Patel
  */
 public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInterface {
-	private static final NumberFormat FMT = new DecimalFormat("0.00");
+	//LOG_LEVEL values. each level logs everything the ones below it do
+	private static final int LOG_NOTHING = 0, LOG_EVENTS = 1, LOG_SUMMARIES = 2;
+	/**
+	 * Tick summaries kept around for when LOG_LEVEL is too low to have logged them.
+	 */
+	private static final int SUMMARY_HISTORY = 16;
 
 	//some constants, defined by the case
 	private static final int ROUND_TICKS = 100;
-	private static final int NUMBER_STRIKES = 5;
+	//the case only trades these, all expiring in TIME_TO_EXPIRY
+	private static final int[] CASE_STRIKES = { 80, 90, 100, 110, 120 };
 	private static final double VEGA_LIMIT = 5 * OptionsMathUtils.calculateVega(100, 0.3);
+	//the market OptionsMathUtils prices in
+	private static final double UNDERLYING_PRICE = 100, TIME_TO_EXPIRY = 1, RISK_FREE_RATE = 0.01;
 	//some parameters
 	/**
 	 * Used to determine our short run hit/lift rate that affects our spread.
 	 */
 	private static final int NUMBER_TICKS_TO_TRACK = 3;
 	/**
-	 * Maximum error we'll take in our bisection estimation for sigma.
+	 * Maximum error we'll take in our estimation for sigma.
 	 */
 	private static final double EPSILON_FOR_SIGMA = 1e-15;
 	/**
-	 * The first quotes will use this volatility.
-	 * THIS MAKES A HUGE DIFFERENCE.
-	 */
-	private static final double INITIAL_VOLATILITY = 0.3;
-	/**
-	 * The first quotes will use this bid:ask spread.
-	 * THIS MAKES A HUGE DIFFERENCE.
-	 */
-	private static final double INITIAL_SPREAD = 3;
-	/**
-	 * Higher excess short or long inventory -> higher velocity on bid-weight to incentivize brokers to trade with us in the opposite direction.
+	 * Newton steps taken before we give up on calculateSigma converging. Only
+	 * reachable when most of the steps had to fall back to bisection.
 	 */
-	private static final double MARGINAL_WEIGHT_VELOCITY_FOR_INVENTORY = .001;
+	private static final int MAX_SIGMA_ITERATIONS = 100;
 	/**
-	 * Bid-weight can decrease or increase by a maximum of this amount every tick.
-	 * THIS MAKES A HUGE DIFFERENCE.
+	 * Default for how far ImpliedVolatilityTable's interpolated sigma may be from the solved one.
 	 */
-	private static final double MAX_WEIGHT_VELOCITY_MAGNITUDE = 0.000073;
+	private static final double DEFAULT_SIGMA_TABLE_TOLERANCE = 1e-8;
 	/**
-	 * > 1 means ask can fall below FV and bid can rise above FV.
-	 * = 0 means bid must be FV - 0.5 * spread and ask must be FV + 0.5 * spread.
+	 * Where Newton starts when Corrado-Miller has nothing to offer.
 	 */
-	private static final double MAX_WEIGHT_DEVIATION = 2;
+	private static final double FALLBACK_SIGMA_GUESS = 0.3;
 	/**
-	 * Lower -> profit may decrease but more trades should clear.
-	 * THIS MAKES A HUGE DIFFERENCE.
+	 * We never quote outside of what these volatilities would price an option at.
 	 */
-	private static final double MIN_SPREAD = 5;
-	/**
-	 * Higher -> profit may increase but fewer trades should clear.
-	 */
-	private static final double MAX_SPREAD = 10;
+	private static final double MIN_QUOTE_VOLATILITY = 0.201, MAX_QUOTE_VOLATILITY = 0.501;
+
 	/**
-	 * Magnify or reduce the effect of unfilled ticks and options risk on our bid:ask spread.
+	 * The knobs that make the difference. Each strategy has its own, given to
+	 * the constructor, so differently tuned strategies can run side by side.
 	 */
-	private static final double SPREAD_FACTOR = 0.1;
+	public static class Parameters {
+		/**
+		 * The first quotes will use this volatility.
+		 * THIS MAKES A HUGE DIFFERENCE.
+		 */
+		public double initialVolatility = 0.3;
+		/**
+		 * The first quotes will use this bid:ask spread.
+		 * THIS MAKES A HUGE DIFFERENCE.
+		 */
+		public double initialSpread = 3;
+		/**
+		 * Higher excess short or long inventory -> higher velocity on bid-weight to incentivize brokers to trade with us in the opposite direction.
+		 */
+		public double marginalWeightVelocityForInventory = .001;
+		/**
+		 * Bid-weight can decrease or increase by a maximum of this amount every tick.
+		 * THIS MAKES A HUGE DIFFERENCE.
+		 */
+		public double maxWeightVelocityMagnitude = 0.000073;
+		/**
+		 * > 1 means ask can fall below FV and bid can rise above FV.
+		 * = 0 means bid must be FV - 0.5 * spread and ask must be FV + 0.5 * spread.
+		 */
+		public double maxWeightDeviation = 2;
+		/**
+		 * Lower -> profit may decrease but more trades should clear.
+		 * THIS MAKES A HUGE DIFFERENCE.
+		 */
+		public double minSpread = 5;
+		/**
+		 * Higher -> profit may increase but fewer trades should clear.
+		 */
+		public double maxSpread = 10;
+		/**
+		 * Magnify or reduce the effect of unfilled ticks and options risk on our bid:ask spread.
+		 */
+		public double spreadFactor = 0.1;
+		/**
+		 * Higher -> spread decreases faster on higher inventory.
+		 */
+		public double vegaPower = 1;
+		/**
+		 * We don't bother with vega in our spread calculation unless vega is greater
+		 * than 1. Otherwise, spread goes to infinity when we have no inventory.
+		 * Increase this value to start selling off faster as inventory grows.
+		 * THIS MAKES A HUGE DIFFERENCE.
+		 */
+		public double vegaClamp = 1;
+		/**
+		 * THIS MAKES A HUGE DIFFERENCE.
+		 */
+		public int maxNetInventoryMagnitude = 2;
+		/**
+		 * THIS MAKES A HUGE DIFFERENCE.
+		 */
+		public int maxAssetInventoryMagnitude = 5;
+	}
+
 	/**
-	 * Higher -> spread decreases faster on higher inventory.
+	 * The options we make markets in, indexed by asset. Everything we track per
+	 * option lives in parallel arrays indexed the same way, so that requoting
+	 * the whole chain is a handful of flat loops over primitives.
+	 *
+	 * Configured by the CHAIN variable as comma separated
+	 * <tt>strike[/expiry[/risk factor]]</tt>, e.g. <tt>80, 90/0.5, 100/2/3</tt>.
+	 * Expiry defaults to the case's one year. Risk factor scales the spread and
+	 * defaults to the case's factor for the strike, interpolated between the
+	 * case's strikes.
 	 */
-	private static final double VEGA_POWER = 1;
+	public static class OptionChain {
+		//OptionsMathUtils' truncated pi. we price with the same constants so that one year options match it bit for bit
+		private static final double PI = 3.1415926535;
+		//how risky we consider the case's strikes
+		private static final double[] CASE_RISK_FACTORS = { 10, 6, 3, 2, 1 };
+
+		private final int size;
+		private final double[] strike, expiry, riskFactor;
+		private final double[] minPrice, maxPrice;
+		private final String[] label;
+		//parts of the Black-Scholes formula that don't depend on sigma
+		private final double[] logMoneyness, sqrtExpiry, discountedStrike;
+
+		public OptionChain(double[] strike, double[] expiry, double[] riskFactor) {
+			if (strike.length == 0 || strike.length != expiry.length || strike.length != riskFactor.length)
+				throw new IllegalArgumentException("Chain needs the same, nonzero number of strikes, expiries, and risk factors");
+			size = strike.length;
+			this.strike = strike.clone();
+			this.expiry = expiry.clone();
+			this.riskFactor = riskFactor.clone();
+			minPrice = new double[size];
+			maxPrice = new double[size];
+			label = new String[size];
+			logMoneyness = new double[size];
+			sqrtExpiry = new double[size];
+			discountedStrike = new double[size];
+			for (int i = 0; i < size; i++) {
+				if (!(strike[i] > 0 && expiry[i] > 0))
+					throw new IllegalArgumentException("Bad option " + strike[i] + "/" + expiry[i]);
+				for (int j = 0; j < i; j++)
+					if (strike[j] == strike[i] && expiry[j] == expiry[i])
+						throw new IllegalArgumentException("Option " + strike[i] + "/" + expiry[i] + " is in the chain twice");
+				logMoneyness[i] = Math.log(UNDERLYING_PRICE / strike[i]);
+				sqrtExpiry[i] = Math.sqrt(expiry[i]);
+				discountedStrike[i] = strike[i] * Math.exp(-RISK_FREE_RATE * expiry[i]);
+				minPrice[i] = price(i, MIN_QUOTE_VOLATILITY);
+				maxPrice[i] = price(i, MAX_QUOTE_VOLATILITY);
+				String name = strike[i] == (int) strike[i] ? Integer.toString((int) strike[i]) : Double.toString(strike[i]);
+				label[i] = expiry[i] == TIME_TO_EXPIRY ? name : name + "/" + expiry[i];
+			}
+		}
+
+		/**
+		 * The case's five one year strikes.
+		 */
+		public static OptionChain standard() {
+			double[] strike = new double[CASE_STRIKES.length], expiry = new double[CASE_STRIKES.length];
+			for (int i = 0; i < CASE_STRIKES.length; i++) {
+				strike[i] = CASE_STRIKES[i];
+				expiry[i] = TIME_TO_EXPIRY;
+			}
+			return new OptionChain(strike, expiry, CASE_RISK_FACTORS);
+		}
+
+		/**
+		 * Parses the CHAIN variable. Blank means {@link #standard()}.
+		 */
+		public static OptionChain parse(String spec) {
+			if (spec == null || spec.trim().isEmpty())
+				return standard();
+			String[] options = spec.split(",");
+			double[] strike = new double[options.length], expiry = new double[options.length], riskFactor = new double[options.length];
+			for (int i = 0; i < options.length; i++) {
+				String[] fields = options[i].trim().split("/");
+				if (fields.length > 3)
+					throw new IllegalArgumentException("Expected strike[/expiry[/risk factor]], got " + options[i]);
+				strike[i] = Double.parseDouble(fields[0].trim());
+				expiry[i] = fields.length > 1 ? Double.parseDouble(fields[1].trim()) : TIME_TO_EXPIRY;
+				riskFactor[i] = fields.length > 2 ? Double.parseDouble(fields[2].trim()) : caseRiskFactor(strike[i]);
+			}
+			return new OptionChain(strike, expiry, riskFactor);
+		}
+
+		//the case's risk factor for strike, interpolated between and clamped to the case's strikes
+		private static double caseRiskFactor(double strike) {
+			int last = CASE_STRIKES.length - 1;
+			if (strike <= CASE_STRIKES[0])
+				return CASE_RISK_FACTORS[0];
+			if (strike >= CASE_STRIKES[last])
+				return CASE_RISK_FACTORS[last];
+			int i = 1;
+			while (CASE_STRIKES[i] < strike)
+				i++;
+			double u = (strike - CASE_STRIKES[i - 1]) / (CASE_STRIKES[i] - CASE_STRIKES[i - 1]);
+			return CASE_RISK_FACTORS[i - 1] + u * (CASE_RISK_FACTORS[i] - CASE_RISK_FACTORS[i - 1]);
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public double strike(int asset) {
+			return strike[asset];
+		}
+
+		public double expiry(int asset) {
+			return expiry[asset];
+		}
+
+		public String label(int asset) {
+			return label[asset];
+		}
+
+		/**
+		 * Returns the asset with this strike and expiry, or -1 if it's not in the chain.
+		 */
+		public int indexOf(double strike, double expiry) {
+			for (int i = 0; i < size; i++)
+				if (this.strike[i] == strike && this.expiry[i] == expiry)
+					return i;
+			return -1;
+		}
+
+		public double price(int asset, double sigma) {
+			double d1 = (logMoneyness[asset] + (RISK_FREE_RATE + sigma * sigma / 2) * expiry[asset]) / (sigma * sqrtExpiry[asset]);
+			double d2 = d1 - sigma * sqrtExpiry[asset];
+			return UNDERLYING_PRICE * cumulativeNormal(d1) - discountedStrike[asset] * cumulativeNormal(d2);
+		}
+
+		/**
+		 * Prices every option in the chain at <tt>sigma</tt>, and their vegas
+		 * (per vol point, like calculateVega) when <tt>vega</tt> isn't null.
+		 */
+		public void price(double sigma, double[] price, double[] vega) {
+			for (int i = 0; i < size; i++) {
+				double d1 = (logMoneyness[i] + (RISK_FREE_RATE + sigma * sigma / 2) * expiry[i]) / (sigma * sqrtExpiry[i]);
+				double d2 = d1 - sigma * sqrtExpiry[i];
+				price[i] = UNDERLYING_PRICE * cumulativeNormal(d1) - discountedStrike[i] * cumulativeNormal(d2);
+				if (vega != null)
+					vega[i] = 1 / Math.sqrt(2 * PI) * Math.exp(-d1 * d1 / 2) * UNDERLYING_PRICE * sqrtExpiry[i] / 100;
+			}
+		}
+
+		/**
+		 * OptionsMathUtils.theoValue for any expiry.
+		 */
+		public static double theoValue(double strike, double expiry, double sigma) {
+			double d1 = (Math.log(UNDERLYING_PRICE / strike) + (RISK_FREE_RATE + sigma * sigma / 2) * expiry) / (sigma * Math.sqrt(expiry));
+			double d2 = d1 - sigma * Math.sqrt(expiry);
+			return UNDERLYING_PRICE * cumulativeNormal(d1) - strike * Math.exp(-RISK_FREE_RATE * expiry) * cumulativeNormal(d2);
+		}
+
+		/**
+		 * OptionsMathUtils.calculateVega for any expiry.
+		 */
+		public static double calculateVega(double strike, double expiry, double sigma) {
+			double d1 = (Math.log(UNDERLYING_PRICE / strike) + (RISK_FREE_RATE + sigma * sigma / 2) * expiry) / (sigma * Math.sqrt(expiry));
+			return 1 / Math.sqrt(2 * PI) * Math.exp(-d1 * d1 / 2) * UNDERLYING_PRICE * Math.sqrt(expiry) / 100;
+		}
+
+		//the same Abramowitz-Stegun approximation OptionsMathUtils uses, down to the order of operations
+		private static double cumulativeNormal(double x) {
+			double z = Math.abs(x);
+			double k = 1 / (1 + 0.2316419 * z);
+			double n = 1 - 1 / Math.sqrt(2 * PI) * Math.exp(-z * z / 2)
+					* (0.31938153 * k + -0.356563782 * k * k + 1.781477937 * Math.pow(k, 3) + -1.821255978 * Math.pow(k, 4) + 1.330274429 * Math.pow(k, 5));
+			return x < 0 ? 1 - n : n;
+		}
+	}
+
 	/**
-	 * We don't bother with vega in our spread calculation unless vega is greater
-	 * than 1. Otherwise, spread goes to infinity when we have no inventory.
-	 * Increase this value to start selling off faster as inventory grows.
-	 * THIS MAKES A HUGE DIFFERENCE.
+	 * Inverse of theoValue for one strike, tabulated at startup. Prices in
+	 * <tt>[minPrice, maxPrice]</tt> are split into equal cells, so finding a
+	 * price's cell is one division. Sigma is then interpolated between the cell's
+	 * end points with a cubic Hermite spline that uses the exact slope
+	 * d(sigma)/d(price) = 1 / vega at both ends.
+	 *
+	 * The number of cells is doubled until the interpolation error at the
+	 * quarter points of every cell is within half the requested tolerance. The
+	 * error usually peaks mid-cell, but theoValue's piecewise approximation of
+	 * the normal CDF bends it near d1 = 0 and d2 = 0.
 	 */
-	private static final double VEGA_CLAMP = 1;
+	public static class ImpliedVolatilityTable {
+		private static final int INITIAL_CELLS = 16;
+		private static final int MAX_CELLS = 1 << 20;
+		private static final int STALLED_DOUBLINGS = 3;
+
+		private final double strike, expiry;
+		private final double minPrice, maxPrice, priceStep;
+		private final int cells;
+		private final double[] sigma, slope;
+
+		public ImpliedVolatilityTable(double strike, double minPrice, double maxPrice, double tolerance) {
+			this(strike, TIME_TO_EXPIRY, minPrice, maxPrice, tolerance);
+		}
+
+		public ImpliedVolatilityTable(double strike, double expiry, double minPrice, double maxPrice, double tolerance) {
+			if (!(minPrice < maxPrice))
+				throw new IllegalArgumentException("Empty price range");
+			this.strike = strike;
+			this.expiry = expiry;
+			this.minPrice = minPrice;
+			this.maxPrice = maxPrice;
+
+			int n = INITIAL_CELLS;
+			double[] sigma, slope;
+			double prevMaxError = Double.POSITIVE_INFINITY;
+			int stalled = 0;
+			while (true) {
+				double step = (maxPrice - minPrice) / n;
+				sigma = new double[n + 1];
+				slope = new double[n + 1];
+				for (int k = 0; k <= n; k++) {
+					sigma[k] = solveSigma(strike, expiry, minPrice + k * step);
+					slope[k] = 1 / (OptionChain.calculateVega(strike, expiry, sigma[k]) * 100);
+				}
+
+				double maxError = 0;
+				for (int k = 0; k < n; k++) {
+					for (double u = 0.25; u < 1; u += 0.25) {
+						double price = minPrice + (k + u) * step;
+						maxError = Math.max(maxError, Math.abs(interpolate(sigma, slope, step, k, u) - solveSigma(strike, expiry, price)));
+					}
+				}
+				//probing only three points per cell can miss the worst error, so leave a margin
+				if (maxError <= tolerance / 2)
+					break;
+				//near the kinks the error can stall for a doubling or two, but it never shrinks past theoValue's own
+				//jumps at d1 = 0 and d2 = 0 (its normal CDF is discontinuous at 0 by about 1e-9)
+				stalled = maxError > prevMaxError / 2 ? stalled + 1 : 0;
+				if (n >= MAX_CELLS || stalled == STALLED_DOUBLINGS)
+					throw new IllegalArgumentException("Can't tabulate sigma for strike " + strike + " to within " + tolerance + " (" + maxError + " with " + n + " cells)");
+				prevMaxError = maxError;
+				n *= 2;
+			}
+			this.cells = n;
+			this.priceStep = (maxPrice - minPrice) / n;
+			this.sigma = sigma;
+			this.slope = slope;
+		}
+
+		private static double interpolate(double[] sigma, double[] slope, double step, int k, double u) {
+			double v = 1 - u;
+			return (1 + 2 * u) * v * v * sigma[k] + u * v * v * step * slope[k]
+					+ u * u * (3 - 2 * u) * sigma[k + 1] - u * u * v * step * slope[k + 1];
+		}
+
+		public int cells() {
+			return cells;
+		}
+
+		/**
+		 * Returns the tabulated sigma for <tt>price</tt>, or NaN if the price is outside the table.
+		 */
+		public double lookup(double price) {
+			if (!(price >= minPrice && price <= maxPrice))
+				return Double.NaN;
+			double t = (price - minPrice) / priceStep;
+			int k = Math.min((int) t, cells - 1);
+			return interpolate(sigma, slope, priceStep, k, t - k);
+		}
+
+		/**
+		 * {@link #lookup(double)} followed by one Newton step, which squares the
+		 * interpolation error at the cost of one pricing call.
+		 */
+		public double lookupPolished(double price) {
+			double vol = lookup(price);
+			if (vol != vol)
+				return vol;
+			return vol - (OptionChain.theoValue(strike, expiry, vol) - price) / (OptionChain.calculateVega(strike, expiry, vol) * 100);
+		}
+	}
+
 	/**
-	 * THIS MAKES A HUGE DIFFERENCE.
+	 * The last SUMMARY_HISTORY tick summaries, kept as primitives in
+	 * preallocated rings so recording one is a few array copies. They're only
+	 * formatted when logged: every tick with LOG_LEVEL 2, otherwise only when a
+	 * penalty makes the lead-up worth reading. Penalties only log the summaries
+	 * that haven't been logged yet, so a streak of them formats each one once.
 	 */
-	private static final int MAX_NET_INVENTORY_MAGNITUDE = 2;
+	private class SummaryLog {
+		private final int n;
+		private final int[] tick = new int[SUMMARY_HISTORY], penalties = new int[SUMMARY_HISTORY];
+		private final double[] pnl = new double[SUMMARY_HISTORY], positionVega = new double[SUMMARY_HISTORY], penaltyDollars = new double[SUMMARY_HISTORY];
+		//SUMMARY_HISTORY rows of n assets each
+		private final int[] position, cleared;
+		private final double[] bid, ask, bidWeight, bidWeightVelocity, fairValue;
+		private final StringBuffer line = new StringBuffer();
+		private final FieldPosition field = new FieldPosition(0);
+		private int recorded;
+		//summaries before this one have been logged
+		private int logged;
+
+		public SummaryLog(int n) {
+			this.n = n;
+			position = new int[SUMMARY_HISTORY * n];
+			cleared = new int[SUMMARY_HISTORY * n];
+			bid = new double[SUMMARY_HISTORY * n];
+			ask = new double[SUMMARY_HISTORY * n];
+			bidWeight = new double[SUMMARY_HISTORY * n];
+			bidWeightVelocity = new double[SUMMARY_HISTORY * n];
+			fairValue = new double[SUMMARY_HISTORY * n];
+		}
+
+		public void record() {
+			int row = recorded % SUMMARY_HISTORY, offset = row * n;
+			tick[row] = tickNum;
+			penalties[row] = OptionsCaseNYU1.this.penalties;
+			pnl[row] = OptionsCaseNYU1.this.pnl;
+			positionVega[row] = OptionsCaseNYU1.this.positionVega;
+			penaltyDollars[row] = OptionsCaseNYU1.this.penaltyDollars;
+			for (int i = 0; i < n; i++) {
+				position[offset + i] = inventory[i].position();
+				cleared[offset + i] = clearedMeasure(i);
+			}
+			System.arraycopy(OptionsCaseNYU1.this.bid, 0, bid, offset, n);
+			System.arraycopy(OptionsCaseNYU1.this.ask, 0, ask, offset, n);
+			System.arraycopy(bidWeightForSpread, 0, bidWeight, offset, n);
+			System.arraycopy(bidWeightForSpreadVelocity, 0, bidWeightVelocity, offset, n);
+			System.arraycopy(mostRecentPrice, 0, fairValue, offset, n);
+			recorded++;
+		}
+
+		/**
+		 * Logs the last <tt>count</tt> summaries that are still kept, oldest first.
+		 */
+		public void log(int count) {
+			for (int k = Math.max(0, Math.max(recorded - SUMMARY_HISTORY, recorded - count)); k < recorded; k++)
+				logRow(k % SUMMARY_HISTORY);
+			logged = recorded;
+		}
+
+		/**
+		 * Logs the summaries that are still kept and haven't been logged yet, oldest first.
+		 */
+		public void logNew() {
+			log(recorded - logged);
+		}
+
+		private void logRow(int row) {
+			int offset = row * n;
+			line.setLength(0);
+			line.append("PNL : ");
+			format(pnl[row]);
+			flush();
+
+			line.append("Inventory : ");
+			for (int i = 0; i < n; i++)
+				line.append(chain.label(i)).append(": ").append(position[offset + i]).append(", ");
+			flush();
+
+			line.append("Quotes : ");
+			for (int i = 0; i < n; i++) {
+				line.append(chain.label(i)).append(": [bid: ");
+				format(bid[offset + i]);
+				line.append(", ask: ");
+				format(ask[offset + i]);
+				line.append("], ");
+			}
+			flush();
+
+			line.append("Bid weights: ");
+			for (int i = 0; i < n; i++) {
+				line.append(chain.label(i)).append(": [now: ");
+				format(bidWeight[offset + i]);
+				line.append(", vel: ");
+				format(bidWeightVelocity[offset + i]);
+				line.append("], ");
+			}
+			flush();
+
+			line.append("Fills in past 10 ticks: ");
+			for (int i = 0; i < n; i++)
+				line.append(chain.label(i)).append(": ").append(cleared[offset + i]).append(", ");
+			flush();
+
+			line.append("FVs: ");
+			for (int i = 0; i < n; i++) {
+				line.append(chain.label(i)).append(": ");
+				format(fairValue[offset + i]);
+				line.append(", ");
+			}
+			flush();
+
+			line.append("Vega : ");
+			format(positionVega[row]);
+			line.append(" < ");
+			format(VEGA_LIMIT);
+			line.append("? (").append(penalties[row]).append(" penalties so far totaling ");
+			format(penaltyDollars[row]);
+			line.append(")");
+			flush();
+		}
+
+		//appends value the way fmt.format(value) would, without the intermediate String
+		private void format(double value) {
+			fmt.format(value, line, field);
+		}
+
+		//logs the line and starts a new one
+		private void flush() {
+			OptionsCaseNYU1.this.log(line.toString());
+			line.setLength(0);
+		}
+	}
+
 	/**
-	 * THIS MAKES A HUGE DIFFERENCE.
+	 * FIFO of the prices of the open lots in one strike. We're never long and
+	 * short the same strike at once, so a fill either closes the oldest lot on
+	 * the other side or opens a new lot on its own side. Prices are kept in a
+	 * circular <tt>double[]</tt> that doubles when full, so fills don't
+	 * allocate once the queue has grown to the largest position held.
 	 */
-	private static final int MAX_ASSET_INVENTORY_MAGNITUDE = 5;
-	private static final double[] MAX_PRICES = {
-		OptionsMathUtils.theoValue(getStrike(0), 0.501),
-		OptionsMathUtils.theoValue(getStrike(1), 0.501),
-		OptionsMathUtils.theoValue(getStrike(2), 0.501),
-		OptionsMathUtils.theoValue(getStrike(3), 0.501),
-		OptionsMathUtils.theoValue(getStrike(4), 0.501)
-	};
-	private static final double[] MIN_PRICES = {
-		OptionsMathUtils.theoValue(getStrike(0), 0.201),
-		OptionsMathUtils.theoValue(getStrike(1), 0.201),
-		OptionsMathUtils.theoValue(getStrike(2), 0.201),
-		OptionsMathUtils.theoValue(getStrike(3), 0.201),
-		OptionsMathUtils.theoValue(getStrike(4), 0.201)
-	};
-
-	private static class ClearingMeasure {
-		public int value;
-		private boolean[] distribution = new boolean[NUMBER_TICKS_TO_TRACK];
-		private int clearedIndex;
-
-		public ClearingMeasure() {
-			clear();
+	public static class InventoryQueue {
+		private double[] prices = new double[16];
+		private int head;
+		//positive when the lots are long, negative when short
+		private int position;
+
+		/**
+		 * Returns the number of lots held, negative if they're short.
+		 */
+		public int position() {
+			return position;
+		}
+
+		/**
+		 * Buys one lot. Returns the price the oldest short lot was sold at if
+		 * this covers it, otherwise NaN and the lot is held long.
+		 */
+		public double buy(double price) {
+			if (position < 0) {
+				position++;
+				return poll();
+			}
+			offer(price);
+			position++;
+			return Double.NaN;
+		}
+
+		/**
+		 * Sells one lot. Returns the price the oldest long lot was bought at if
+		 * this closes it, otherwise NaN and the lot is held short.
+		 */
+		public double sell(double price) {
+			if (position > 0) {
+				position--;
+				return poll();
+			}
+			offer(price);
+			position--;
+			return Double.NaN;
 		}
 
 		public void clear() {
-			value = 0;
-			for (int i = 0; i < NUMBER_TICKS_TO_TRACK; i++)
-				distribution[i] = false;
-			clearedIndex = 0;
-		}
-
-		private void updateClearedMeasure(boolean isCleared) {
-			boolean existing = distribution[clearedIndex];
-			if (existing != isCleared) {
-				value += (isCleared ? 1 : -1);
-				distribution[clearedIndex] = isCleared;
-				if (value < 0 || value > NUMBER_TICKS_TO_TRACK)
-					throw new RuntimeException("Clearing measure wrong");
+			head = position = 0;
+		}
+
+		private void offer(double price) {
+			int size = Math.abs(position);
+			if (size == prices.length) {
+				double[] grown = new double[size * 2];
+				for (int i = 0; i < size; i++)
+					grown[i] = prices[(head + i) % size];
+				prices = grown;
+				head = 0;
 			}
-			clearedIndex = (clearedIndex + 1) % distribution.length;
+			prices[(head + size) % prices.length] = price;
+		}
+
+		private double poll() {
+			double price = prices[head];
+			head = (head + 1) % prices.length;
+			return price;
 		}
 	}
 
 	// private IDB myDatabase;
 
+	private final Parameters parameters;
+
 	public double pnl;
-	private int penalties;
-	private double penaltyDollars;
+	public int penalties;
+	public double penaltyDollars;
 	private double positionVega;
 	private int tickNum;
 	private double recentSigma;
@@ -148,29 +618,59 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 	public int highestVegaTick;
 	public int cleared;
 
-	private ClearingMeasure[] clearingMeasure = new ClearingMeasure[NUMBER_STRIKES];
-	private final double[] bidWeightForSpreadVelocity = new double[NUMBER_STRIKES];
-	private final double[] bidWeightForSpread = new double[NUMBER_STRIKES];
-	private final double[] bid = new double[NUMBER_STRIKES];
-	private final double[] ask = new double[NUMBER_STRIKES];
-	private final double[] mostRecentPrice = new double[NUMBER_STRIKES];
-	private final double[] mostRecentSpread = new double[NUMBER_STRIKES];
+	private int logLevel;
+	private SummaryLog summaries;
+	//DecimalFormat isn't thread-safe, so strategies running side by side each format with their own
+	private final NumberFormat fmt = new DecimalFormat("0.00");
+
+	//null unless sigma is looked up in tables instead of solved for on every fill
+	private ImpliedVolatilityTable[] sigmaTables;
+	private boolean polishSigma;
+
+	private OptionChain chain;
+	//asset of each of CASE_STRIKES, or -1 if the chain doesn't have it
+	private final int[] caseAssets = new int[CASE_STRIKES.length];
 
-	//negativeInventory.get(i).size() > positiveInventory.get(i).size() --> we're short on asset i, i.e. negative inventory
-	private final List<List<Double>> positiveInventory = new ArrayList<List<Double>>();
-	private final List<List<Double>> negativeInventory = new ArrayList<List<Double>>();
+	//per asset state, sized to the chain
+	//bit i of clearedTicks is set when the asset cleared on its i-th tracked tick. clearedIndex is the next bit to overwrite
+	private int[] clearedTicks;
+	private int[] clearedIndex;
+	private double[] bidWeightForSpreadVelocity;
+	private double[] bidWeightForSpread;
+	private double[] bid;
+	private double[] ask;
+	private double[] mostRecentPrice;
+	private double[] mostRecentSpread;
+
+	//inventory[i].position() < 0 --> we're short on asset i, i.e. negative inventory
+	private InventoryQueue[] inventory;
+	//sum of inventory[i].position(), kept up to date on every fill
+	private int netInventory;
+	//fair value and vega of each asset at greeksSigma, and the signed vega of the whole position at that sigma
+	private double[] fairValue;
+	private double[] vega;
+	private double greeksSigma;
+	private double signedPositionVega;
+
+	public OptionsCaseNYU1() {
+		this(new Parameters());
+	}
 
-	private static int getStrike(int asset) {
-		return asset * 10 + 80;
+	public OptionsCaseNYU1(Parameters parameters) {
+		this.parameters = parameters;
 	}
 
-	private static int getAsset(int strike) {
-		return (strike - 80) / 10;
+	public Parameters parameters() {
+		return parameters;
 	}
 
 	@Override
 	public void addVariables(IJobSetup setup) {
 		setup.addVariable("Strategy", "Strategy to use", "string", "one");
+		setup.addVariable("LOG_LEVEL", "0 logs nothing per tick, 1 logs fills, 2 also logs a summary of every tick", "string", "2");
+		setup.addVariable("CHAIN", "options to quote, as comma separated strike[/expiry[/risk factor]]. blank for the case's five strikes", "string", "");
+		setup.addVariable("SIGMA_SOLVER", "how fills are turned into sigma: newton, table, or polished-table (table plus one newton step)", "string", "newton");
+		setup.addVariable("SIGMA_TABLE_TOLERANCE", "largest sigma error the table solvers may make", "string", "");
 	}
 
 	@Override
@@ -179,29 +679,165 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 		if (strategy.contains("one")) {
 			// do strategy one
 		}
-		positiveInventory.clear();
-		negativeInventory.clear();
-		for (int i = 0; i < NUMBER_STRIKES; i++) {
-			positiveInventory.add(new LinkedList<Double>());
-			negativeInventory.add(new LinkedList<Double>());
-			mostRecentPrice[i] = OptionsMathUtils.theoValue(getStrike(i), INITIAL_VOLATILITY);
-			mostRecentSpread[i] = INITIAL_SPREAD;
+		chain = OptionChain.parse(getStringVar("CHAIN"));
+		int n = chain.size();
+		for (int i = 0; i < CASE_STRIKES.length; i++)
+			caseAssets[i] = chain.indexOf(CASE_STRIKES[i], TIME_TO_EXPIRY);
+		clearedTicks = new int[n];
+		clearedIndex = new int[n];
+		bidWeightForSpreadVelocity = new double[n];
+		bidWeightForSpread = new double[n];
+		bid = new double[n];
+		ask = new double[n];
+		mostRecentPrice = new double[n];
+		mostRecentSpread = new double[n];
+		inventory = new InventoryQueue[n];
+		fairValue = new double[n];
+		vega = new double[n];
+
+		summaries = new SummaryLog(n);
+		logLevel = LOG_SUMMARIES;
+		String level = getStringVar("LOG_LEVEL");
+		if (level != null && !level.trim().isEmpty()) {
+			try {
+				logLevel = Integer.parseInt(level.trim());
+			} catch (NumberFormatException e) {
+				log("LOG_LEVEL: " + e.toString());
+			}
+		}
+
+		String solver = getStringVar("SIGMA_SOLVER");
+		sigmaTables = null;
+		polishSigma = false;
+		if ("table".equals(solver) || "polished-table".equals(solver)) {
+			double tolerance = DEFAULT_SIGMA_TABLE_TOLERANCE;
+			String val = getStringVar("SIGMA_TABLE_TOLERANCE");
+			if (val != null && !val.trim().isEmpty()) {
+				try {
+					tolerance = Double.parseDouble(val);
+				} catch (NumberFormatException e) {
+					log("SIGMA_TABLE_TOLERANCE: " + e.toString());
+				}
+			}
+			sigmaTables = new ImpliedVolatilityTable[n];
+			for (int i = 0; i < n; i++)
+				sigmaTables[i] = new ImpliedVolatilityTable(chain.strike(i), chain.expiry(i), chain.minPrice[i], chain.maxPrice[i], tolerance);
+			polishSigma = "polished-table".equals(solver);
+		} else if (solver != null && !solver.isEmpty() && !"newton".equals(solver)) {
+			log("SIGMA_SOLVER: unknown solver " + solver + ", using newton");
+		}
+		for (int i = 0; i < n; i++) {
+			inventory[i] = new InventoryQueue();
+			mostRecentPrice[i] = chain.price(i, parameters.initialVolatility);
+			mostRecentSpread[i] = parameters.initialSpread;
 			bidWeightForSpreadVelocity[i] = 0;
 			bidWeightForSpread[i] = 0.5;
 			bid[i] = mostRecentPrice[i] - mostRecentSpread[i] * bidWeightForSpread[i];
 			ask[i] = mostRecentPrice[i] + mostRecentSpread[i] * (1 - bidWeightForSpread[i]);
-			clearingMeasure[i] = new ClearingMeasure();
 		}
-		highestVega = recentSigma = penaltyDollars = pnl = positionVega = penalties = tickNum = 0;
+		highestVega = recentSigma = penaltyDollars = pnl = positionVega = signedPositionVega = penalties = tickNum = netInventory = 0;
+		greeksSigma = Double.NaN;
 		highestVegaTick = -1;
 	}
 
-	private static double sigmaEstimationError(double strike, double vol, double actual) {
-		return Math.abs(OptionsMathUtils.theoValue(strike, vol) - actual);
+	private static double sigmaEstimationError(double strike, double expiry, double vol, double actual) {
+		return Math.abs(OptionChain.theoValue(strike, expiry, vol) - actual);
+	}
+
+	/**
+	 * Corrado-Miller approximation of implied volatility, good to a couple of
+	 * vol points near the money, which is all Newton needs to start from.
+	 */
+	private static double estimateSigma(double strike, double expiry, double price) {
+		double discountedStrike = strike * Math.exp(-RISK_FREE_RATE * expiry);
+		double moneyness = (UNDERLYING_PRICE - discountedStrike) / 2;
+		double discriminant = (price - moneyness) * (price - moneyness) - 4 * moneyness * moneyness / Math.PI;
+		double sigma = Math.sqrt(2 * Math.PI / expiry) / (UNDERLYING_PRICE + discountedStrike)
+				* (price - moneyness + Math.sqrt(Math.max(0, discriminant)));
+		return sigma > 0 ? sigma : FALLBACK_SIGMA_GUESS;
+	}
+
+	/**
+	 * Turns a fill into sigma with whichever solver SIGMA_SOLVER picked. Prices
+	 * outside a table's range still go to Newton.
+	 */
+	private double calculateSigma(int asset, double price) {
+		if (sigmaTables != null) {
+			ImpliedVolatilityTable table = sigmaTables[asset];
+			double sigma = polishSigma ? table.lookupPolished(price) : table.lookup(price);
+			if (sigma == sigma)
+				return sigma;
+		}
+		return calculateSigmaByNewton(chain.strike(asset), chain.expiry(asset), price);
+	}
+
+	public double calculateSigmaByNewton(double strike, double price) {
+		return calculateSigmaByNewton(strike, TIME_TO_EXPIRY, price);
+	}
+
+	public double calculateSigmaByNewton(double strike, double expiry, double price) {
+		double sigma = solveSigma(strike, expiry, price);
+		if (sigma != sigma) {
+			log("calculateSigma did not converge for strike " + strike + " at price " + price + ". Falling back to bisection.");
+			return calculateSigmaByBisection(strike, expiry, price);
+		}
+		return sigma;
+	}
+
+	/**
+	 * Halley's method on the price error, starting from {@link #estimateSigma(double, double, double)}.
+	 * Every priced sigma narrows a bracket around the root, and any step that
+	 * would leave the bracket bisects it instead, so this can't do worse than
+	 * {@link #calculateSigmaByBisection(double, double, double)}. Converges in 3-5
+	 * pricings instead of about 60.
+	 *
+	 * @return sigma, or NaN if it didn't converge
+	 */
+	private static double solveSigma(double strike, double expiry, double price) {
+		//theoValue is increasing in sigma, so anything at or below the sigma = 0 price (discounted intrinsic value)
+		//has no better answer than 0
+		if (price <= Math.max(0, UNDERLYING_PRICE - strike * Math.exp(-RISK_FREE_RATE * expiry)))
+			return 0;
+
+		double lowerBound = 0, upperBound = Double.POSITIVE_INFINITY;
+		double sigma = estimateSigma(strike, expiry, price);
+		for (int i = 0; i < MAX_SIGMA_ITERATIONS; i++) {
+			double priceError = OptionChain.theoValue(strike, expiry, sigma) - price;
+			if (Math.abs(priceError) < EPSILON_FOR_SIGMA)
+				return sigma;
+			if (priceError > 0)
+				upperBound = sigma;
+			else
+				lowerBound = sigma;
+
+			//calculateVega is per vol point
+			double vega = OptionChain.calculateVega(strike, expiry, sigma) * 100;
+			double step = priceError / vega;
+			double d1 = (Math.log(UNDERLYING_PRICE / strike) + (RISK_FREE_RATE + sigma * sigma / 2) * expiry) / (sigma * Math.sqrt(expiry));
+			double d2 = d1 - sigma * Math.sqrt(expiry);
+			//Halley's correction, vomma / vega = d1 * d2 / sigma. skip it when it would distort the Newton step too much
+			double correction = 1 - step * d1 * d2 / (2 * sigma);
+			if (correction > 0.5 && correction < 2)
+				step /= correction;
+
+			double next = sigma - step;
+			if (!(next > lowerBound && next < upperBound)) {
+				//Newton overshot the bracket (or vega underflowed)
+				next = upperBound == Double.POSITIVE_INFINITY ? 2 * sigma : (lowerBound + upperBound) / 2;
+			}
+			if (Math.abs(next - sigma) < EPSILON_FOR_SIGMA || next == lowerBound || next == upperBound)
+				return next;
+			sigma = next;
+		}
+		return Double.NaN;
 	}
 
 	//bisection method. not dependent on vega, unlike newton-raphson
-	public double calculateSigma(double strike, double price) {
+	public double calculateSigmaByBisection(double strike, double price) {
+		return calculateSigmaByBisection(strike, TIME_TO_EXPIRY, price);
+	}
+
+	public double calculateSigmaByBisection(double strike, double expiry, double price) {
 		final int VOL_RANGE = 500; //lower -> marginally faster. too low -> more range misses
 
 		int rangeExpansion = 0;
@@ -218,7 +854,7 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 			initialVolUpperBound = impliedVolUpperBound = VOL_RANGE * rangeExpansion;
 			do {
 				impliedVolMid = (impliedVolLowerBound + impliedVolUpperBound) / 2;
-				priceError = OptionsMathUtils.theoValue(strike, impliedVolMid) - price;
+				priceError = OptionChain.theoValue(strike, expiry, impliedVolMid) - price;
 				if (impliedVolMid == impliedVolLowerBound || impliedVolMid == impliedVolUpperBound || Math.abs(priceError) < EPSILON_FOR_SIGMA) {
 					//not enough precision, stop
 					impliedVolUpperBound = impliedVolLowerBound = impliedVolMid;
@@ -232,11 +868,11 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 			} while (impliedVolUpperBound - impliedVolLowerBound >= EPSILON_FOR_SIGMA);
 			//implied volatility may just be initial lower bound on this iteration, e.g. 0 on first iteration
 			if (impliedVolLowerBound == initialVolLowerBound && (impliedVolMid - initialVolLowerBound) < EPSILON_FOR_SIGMA
-					&& sigmaEstimationError(strike, initialVolLowerBound, price) < sigmaEstimationError(strike, impliedVolMid, price))
+					&& sigmaEstimationError(strike, expiry, initialVolLowerBound, price) < sigmaEstimationError(strike, expiry, impliedVolMid, price))
 				impliedVolMid = initialVolLowerBound;
 			//implied volatility may just be higher than initial upper bound on this iteration, e.g. VOL_RANGE on first iteration
 			if (impliedVolUpperBound == initialVolUpperBound && (initialVolUpperBound - impliedVolMid) < EPSILON_FOR_SIGMA
-					&& sigmaEstimationError(strike, initialVolUpperBound, price) < sigmaEstimationError(strike, impliedVolMid, price))
+					&& sigmaEstimationError(strike, expiry, initialVolUpperBound, price) < sigmaEstimationError(strike, expiry, impliedVolMid, price))
 				log("Range miss. Sigma > " + VOL_RANGE + ". Increase calculateSigma(double, double)#VOL_RANGE.");
 			else
 				rangeExpansion = -1;
@@ -246,69 +882,66 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 	}
 
 	private void printSummary() {
-		String inventory = "";
-		String quotes = "";
-		String fills = "";
-		String bidWeights = "";
-		String fvs = "";
-		for (int i = 0; i < NUMBER_STRIKES; i++) {
-			inventory += getStrike(i) + ": " + (positiveInventory.get(i).size() - negativeInventory.get(i).size()) + ", ";
-			quotes += getStrike(i) + ": [bid: " + FMT.format(bid[i]) + ", ask: " + FMT.format(ask[i]) + "], ";
-			fills += getStrike(i) + ": " + clearingMeasure[i].value + ", ";
-			bidWeights += getStrike(i) + ": [now: " + FMT.format(bidWeightForSpread[i]) + ", vel: " + FMT.format(bidWeightForSpreadVelocity[i]) + "], ";
-			fvs += getStrike(i) + ": " + FMT.format(mostRecentPrice[i]) + ", ";
-		}
-		log("PNL : " + FMT.format(pnl));
-		log("Inventory : " + inventory);
-		log("Quotes : " + quotes);
-		log("Bid weights: " + bidWeights);
-		log("Fills in past 10 ticks: " + fills);
-		log("FVs: " + fvs);
-		log("Vega : " + FMT.format(positionVega) + " < " + FMT.format(VEGA_LIMIT) + "? (" + penalties + " penalties so far totaling " + FMT.format(penaltyDollars) + ")");
-	}
-
-	private double calculateOptionRisk(double vol, int strike) {
+		summaries.record();
+		if (logLevel >= LOG_SUMMARIES)
+			summaries.log(1);
+	}
+
+	/**
+	 * Logs the last <tt>count</tt> tick summaries (at most SUMMARY_HISTORY),
+	 * whether or not LOG_LEVEL logged them when they happened.
+	 */
+	public void logRecentSummaries(int count) {
+		summaries.log(count);
+	}
+
+	//how many of the asset's last NUMBER_TICKS_TO_TRACK ticks it cleared on
+	private int clearedMeasure(int asset) {
+		return Integer.bitCount(clearedTicks[asset]);
+	}
+
+	private void updateClearedMeasure(int asset, boolean isCleared) {
+		if (isCleared)
+			clearedTicks[asset] |= 1 << clearedIndex[asset];
+		else
+			clearedTicks[asset] &= ~(1 << clearedIndex[asset]);
+		clearedIndex[asset] = (clearedIndex[asset] + 1) % NUMBER_TICKS_TO_TRACK;
+	}
+
+	private double calculateOptionRisk(double vol, int asset) {
 		//option vega makes no sense since that implies higher spreads on at the money options,
 		//which are more liquid. so calculate using volatility of underlying times some factor
 		//to correct for the fact that otherwise, spread would be the same for all options
 		//with different strike prices i.e. less liquid/more liquid assets would have same spread
-		double factor;
-		switch (strike) {
-			case 80: factor = 10; break;
-			case 90: factor = 6; break;
-			case 100: factor = 3; break;
-			case 110: factor = 2; break;
-			case 120: factor = 1; break;
-			default: throw new IllegalArgumentException("Strike");
-		}
-		return vol * factor;
+		return vol * chain.riskFactor[asset];
 	}
 
-	private double calculateSpread(double vol, int strike) {
-		return Math.max(MIN_SPREAD, Math.min(MAX_SPREAD,
+	private double calculateSpread(double vol, int asset) {
+		return Math.max(parameters.minSpread, Math.min(parameters.maxSpread,
 			//normal spread
-			SPREAD_FACTOR
+			parameters.spreadFactor
 			//hitting too many bids and lifting too many asks means we could profit more and we need to make our options less attractive
-			* Math.max(1, clearingMeasure[getAsset(strike)].value)
+			* Math.max(1, clearedMeasure(asset))
 			//decrease our spread as we get closer to the end of the round
 			* (ROUND_TICKS - (tickNum / 10)) / ROUND_TICKS
 			//higher risk on individual options means we need to increase spread
-			* calculateOptionRisk(vol, strike)
+			* calculateOptionRisk(vol, asset)
 			//higher risk on position means we need to decrease spread and unload FAST (weight this more heavily)
-			/ (Math.pow(Math.max(VEGA_CLAMP, positionVega), VEGA_POWER))
+			/ (Math.pow(Math.max(parameters.vegaClamp, positionVega), parameters.vegaPower))
 		));
 	}
 
 	private double calculateSpreadBidWeightVelocity(int inventoryCount, double vega) {
-		return Math.max(-MAX_WEIGHT_VELOCITY_MAGNITUDE, Math.min(MAX_WEIGHT_VELOCITY_MAGNITUDE,
+		return Math.max(-parameters.maxWeightVelocityMagnitude, Math.min(parameters.maxWeightVelocityMagnitude,
 			//too many market sell orders clearing (positive inventory) --> we're buying too much too expensively --> decrease bid (buy less) and ask (sell more) --> increase bidWeightForSpread
 			//too many market buy orders clearing (negative inventory) --> we're selling too much too cheaply --> increase bid (buy more) and ask (sell less) --> decrease bidWeightForSpread
-			MARGINAL_WEIGHT_VELOCITY_FOR_INVENTORY * inventoryCount * vega
+			parameters.marginalWeightVelocityForInventory * inventoryCount * vega
 		));
 	}
 
-	private void updateSpreadBidWeight(int asset, double sigma) {
-		bidWeightForSpreadVelocity[asset] = calculateSpreadBidWeightVelocity(positiveInventory.get(asset).size() - negativeInventory.get(asset).size(), OptionsMathUtils.calculateVega(getStrike(asset), sigma));
+	//call after updateGreeks
+	private void updateSpreadBidWeight(int asset) {
+		bidWeightForSpreadVelocity[asset] = calculateSpreadBidWeightVelocity(inventory[asset].position(), vega[asset]);
 
 		//when velocity switches direction, we want to make sure bidWeight moves to same direction
 		//0.5 is our "normal" distribution of the spread to bid and ask
@@ -318,20 +951,36 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 			bidWeightForSpread[asset] = 0.5;
 
 		//add velocity to the current spread
-		bidWeightForSpread[asset] = Math.max(0.5 - MAX_WEIGHT_DEVIATION, Math.min(0.5 + MAX_WEIGHT_DEVIATION,
+		bidWeightForSpread[asset] = Math.max(0.5 - parameters.maxWeightDeviation, Math.min(0.5 + parameters.maxWeightDeviation,
 			bidWeightForSpread[asset] + bidWeightForSpreadVelocity[asset])
 		);
 	}
 
-	private void updatePositionVega(double sigma) {
-		positionVega = 0;
+	/**
+	 * Reprices every asset's fair value and vega, and the position's vega, but
+	 * only if sigma moved since the last time.
+	 */
+	private void updateGreeks(double sigma) {
+		if (sigma == greeksSigma)
+			return;
+		greeksSigma = sigma;
+		chain.price(sigma, fairValue, vega);
+		signedPositionVega = 0;
 		//sum the option vega of all inventory
-		for (int i = 0; i < NUMBER_STRIKES; i++) {
-			double vegaForStrike = OptionsMathUtils.calculateVega(getStrike(i), sigma);
-			positionVega += positiveInventory.get(i).size() * vegaForStrike;
-			positionVega -= negativeInventory.get(i).size() * vegaForStrike;
-		}
-		positionVega = Math.abs(positionVega);
+		for (int i = 0; i < chain.size(); i++)
+			signedPositionVega += inventory[i].position() * vega[i];
+	}
+
+	//call after inventory[asset] changes by lots
+	private void updateInventory(int asset, int lots) {
+		netInventory += lots;
+		//nothing to add to until updateGreeks has priced the chain
+		if (!Double.isNaN(greeksSigma))
+			signedPositionVega += lots * vega[asset];
+	}
+
+	private void updatePositionVega() {
+		positionVega = Math.abs(signedPositionVega);
 		if (positionVega > highestVega) {
 			highestVega = positionVega;
 			highestVegaTick = tickNum;
@@ -339,23 +988,21 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 	}
 
 	private void updateBidAndAsk(int asset) {
-		int netInventory = 0;
-		for (int i = 0; i < NUMBER_STRIKES; i++)
-			netInventory += positiveInventory.get(i).size() - negativeInventory.get(i).size();
-		boolean stopMarketBuys = (netInventory > MAX_NET_INVENTORY_MAGNITUDE);
-		boolean stopMarketSells = (netInventory < -MAX_NET_INVENTORY_MAGNITUDE);
-		if (!stopMarketBuys && !positiveInventory.get(asset).isEmpty())
+		int assetInventory = inventory[asset].position();
+		boolean stopMarketBuys = (netInventory > parameters.maxNetInventoryMagnitude);
+		boolean stopMarketSells = (netInventory < -parameters.maxNetInventoryMagnitude);
+		if (!stopMarketBuys && assetInventory > 0)
 			//stop buying when we have positive inventory and we're more than three quarters through round, or if we have inventory of 2
-			stopMarketBuys = (positiveInventory.get(asset).size() > MAX_ASSET_INVENTORY_MAGNITUDE);
-		if (!stopMarketSells && !negativeInventory.get(asset).isEmpty())
+			stopMarketBuys = (assetInventory > parameters.maxAssetInventoryMagnitude);
+		if (!stopMarketSells && assetInventory < 0)
 			//stop selling when we have negative inventory and we're more than three quarters through round, or if we have inventory of -2
-			stopMarketSells = (negativeInventory.get(asset).size() > MAX_ASSET_INVENTORY_MAGNITUDE);
+			stopMarketSells = (-assetInventory > parameters.maxAssetInventoryMagnitude);
 
 		if (stopMarketBuys) {
 			//don't take on any more market sells
 			bid[asset] = Double.NEGATIVE_INFINITY;
 		} else {
-			bid[asset] = Math.max(MIN_PRICES[asset], Math.min(MAX_PRICES[asset],
+			bid[asset] = Math.max(chain.minPrice[asset], Math.min(chain.maxPrice[asset],
 				mostRecentPrice[asset] - bidWeightForSpread[asset] * mostRecentSpread[asset]
 			));
 		}
@@ -363,7 +1010,7 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 			//don't take on any more market buys
 			ask[asset] = Double.POSITIVE_INFINITY;
 		} else {
-			ask[asset] = Math.max(MIN_PRICES[asset], Math.min(MAX_PRICES[asset],
+			ask[asset] = Math.max(chain.minPrice[asset], Math.min(chain.maxPrice[asset],
 				mostRecentPrice[asset] + (1 - bidWeightForSpread[asset]) * mostRecentSpread[asset]
 			));
 		}
@@ -378,13 +1025,24 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 
 	@Override
 	public void newFill(int strike, int side, double price) {
+		int asset = chain.indexOf(strike, TIME_TO_EXPIRY);
+		if (asset == -1)
+			throw new IllegalArgumentException("Filled on strike " + strike + ", which isn't in the chain");
+		fill(asset, side, price);
+		printSummary();
+	}
+
+	/**
+	 * Books a fill on any asset in the chain and requotes the chain.
+	 */
+	public void fill(int asset, int side, double price) {
 		//print header
-		int asset = getAsset(strike);
-		recentSigma = calculateSigma(strike, price);
+		recentSigma = calculateSigma(asset, price);
 		mostRecentPrice[asset] = price;
-		mostRecentSpread[asset] = calculateSpread(recentSigma, strike);
+		mostRecentSpread[asset] = calculateSpread(recentSigma, asset);
 		cleared++;
-		log("Tick " + tickNum + ": Order cleared, strike=" + strike + ", price=" + FMT.format(price) + ", direction=" + side + ". " + "SIGMA: " + FMT.format(recentSigma) + ", SIGMA ESTIMATION PRICE ERROR: " + FMT.format(sigmaEstimationError(strike, recentSigma, price)));
+		if (logLevel >= LOG_EVENTS)
+			log("Tick " + tickNum + ": Order cleared, strike=" + chain.label(asset) + ", price=" + fmt.format(price) + ", direction=" + side + ". " + "SIGMA: " + fmt.format(recentSigma) + ", SIGMA ESTIMATION PRICE ERROR: " + fmt.format(Math.abs(chain.price(asset, recentSigma) - price)));
 
 		//calculate a rolling PnL
 		//FIFO basis
@@ -392,22 +1050,22 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 		switch (side) {
 			case -1: // market sell -> we're buying
 				buyPrice = price;
-				if (!negativeInventory.get(asset).isEmpty()) {
-					sellPrice = negativeInventory.get(asset).remove(0).doubleValue();
+				sellPrice = inventory[asset].buy(buyPrice);
+				updateInventory(asset, 1);
+				if (!Double.isNaN(sellPrice)) {
 					pnl += sellPrice - buyPrice;
-					log("PROFIT : " + FMT.format(sellPrice - buyPrice));
-				} else {
-					positiveInventory.get(asset).add(Double.valueOf(buyPrice));
+					if (logLevel >= LOG_EVENTS)
+						log("PROFIT : " + fmt.format(sellPrice - buyPrice));
 				}
 				break;
 			case 1: // market buy -> we're selling
 				sellPrice = price;
-				if (!positiveInventory.get(asset).isEmpty()) {
-					buyPrice = positiveInventory.get(asset).remove(0).doubleValue();
+				buyPrice = inventory[asset].sell(sellPrice);
+				updateInventory(asset, -1);
+				if (!Double.isNaN(buyPrice)) {
 					pnl += sellPrice - buyPrice;
-					log("PROFIT : " + FMT.format(sellPrice - buyPrice));
-				} else {
-					negativeInventory.get(asset).add(Double.valueOf(sellPrice));
+					if (logLevel >= LOG_EVENTS)
+						log("PROFIT : " + fmt.format(sellPrice - buyPrice));
 				}
 				break;
 			default:
@@ -415,50 +1073,74 @@ public class OptionsCaseNYU1 extends AbstractOptionsCase implements OptionsInter
 		}
 
 		//make some adjustments
-		clearingMeasure[asset].updateClearedMeasure(true);
-		for (int i = 0; i < NUMBER_STRIKES; i++) {
-			updateSpreadBidWeight(i, recentSigma);
-			mostRecentPrice[i] = OptionsMathUtils.theoValue(getStrike(i), recentSigma);
+		updateClearedMeasure(asset, true);
+		updateGreeks(recentSigma);
+		int n = chain.size();
+		for (int i = 0; i < n; i++)
+			updateSpreadBidWeight(i);
+		System.arraycopy(fairValue, 0, mostRecentPrice, 0, n);
+		for (int i = 0; i < n; i++)
 			updateBidAndAsk(i);
-		}
-		updatePositionVega(recentSigma);
+		updatePositionVega();
 		updatePenalties();
-
-		printSummary();
 	}
 
 	@Override
 	public QuoteList getCurrentQuotes() {
 		tickNum++;
-		log("");
-		Quote quoteEighty = new Quote(80, bid[0], ask[0]);
-		Quote quoteNinety = new Quote(90, bid[1], ask[1]);
-		Quote quoteHundred = new Quote(100, bid[2], ask[2]);
-		Quote quoteHundredTen = new Quote(110, bid[3], ask[3]);
-		Quote quoteHundredTwenty = new Quote(120, bid[4], ask[4]);
+		if (logLevel >= LOG_EVENTS)
+			log("");
+		return new QuoteList(caseQuote(0), caseQuote(1), caseQuote(2), caseQuote(3), caseQuote(4));
+	}
+
+	//quote for CASE_STRIKES[i]. we stay out of strikes the chain doesn't have
+	private Quote caseQuote(int i) {
+		int asset = caseAssets[i];
+		if (asset == -1)
+			return new Quote(CASE_STRIKES[i], Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		return new Quote(CASE_STRIKES[i], bid[asset], ask[asset]);
+	}
 
-		return new QuoteList(quoteEighty, quoteNinety, quoteHundred, quoteHundredTen, quoteHundredTwenty);
+	public double getBid(int asset) {
+		return bid[asset];
+	}
+
+	public double getAsk(int asset) {
+		return ask[asset];
 	}
 
 	@Override
 	public void noBrokerFills() {
-		log("Tick " + tickNum + ": No orders cleared.");
+		noFill();
+		printSummary();
+	}
+
+	/**
+	 * Requotes the chain after a tick without fills.
+	 */
+	public void noFill() {
+		if (logLevel >= LOG_EVENTS)
+			log("Tick " + tickNum + ": No orders cleared.");
 
 		//make some adjustments
-		for (int i = 0; i < NUMBER_STRIKES; i++) {
-			clearingMeasure[i].updateClearedMeasure(false);
-			updateSpreadBidWeight(i, recentSigma);
-			updateBidAndAsk(i);
+		updateGreeks(recentSigma);
+		int n = chain.size();
+		for (int i = 0; i < n; i++) {
+			updateClearedMeasure(i, false);
+			updateSpreadBidWeight(i);
 		}
+		for (int i = 0; i < n; i++)
+			updateBidAndAsk(i);
 		//sigma and inventory don't change, no need to update position vega
 		updatePenalties();
-
-		printSummary();
 	}
 
 	@Override
 	public void penaltyNotice(double amount) {
-		log("Penalty received in the amount of " + FMT.format(amount));
+		log("Penalty received in the amount of " + fmt.format(amount));
+		//show what led up to it if we haven't been
+		if (logLevel < LOG_SUMMARIES)
+			summaries.logNew();
 	}
 
 	@Override
@@ -1,9 +1,13 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 
 import org.uchicago.options.OptionsHelpers.Quote;
 import org.uchicago.options.OptionsHelpers.QuoteList;
+import org.uchicago.options.OptionsMathUtils;
+import org.uchicago.options.core.OptionsInterface;
 
 public class Test {
 	private static Quote getQuote(QuoteList list, int strike) {
@@ -23,7 +27,284 @@ public class Test {
 		}
 	}
 
-	public static void main(String[] args) throws FileNotFoundException {
+	private static final int[] STRIKES = { 80, 90, 100, 110, 120 };
+
+	//every price in the case is clamped to what sigma between 0.201 and 0.501 would give
+	private static double[][] pricesInVolBand(int volSteps) {
+		double[][] prices = new double[STRIKES.length][volSteps + 1];
+		for (int i = 0; i < STRIKES.length; i++)
+			for (int j = 0; j <= volSteps; j++)
+				prices[i][j] = OptionsMathUtils.theoValue(STRIKES[i], 0.2 + 0.3 * j / volSteps);
+		return prices;
+	}
+
+	//the Newton solver should land on the same sigma as the bisection solver
+	private static void verifyCalculateSigma(OptionsCaseNYU1 c) {
+		double[][] prices = pricesInVolBand(3000);
+		for (int i = 0; i < STRIKES.length; i++) {
+			for (int j = 0; j < prices[i].length; j++) {
+				double expected = c.calculateSigmaByBisection(STRIKES[i], prices[i][j]);
+				double actual = c.calculateSigmaByNewton(STRIKES[i], prices[i][j]);
+				if (Math.abs(expected - actual) > 1e-13)
+					throw new AssertionError("strike " + STRIKES[i] + ", price " + prices[i][j] + ": expected sigma " + expected + ", got " + actual);
+			}
+		}
+	}
+
+	//interpolated sigma should stay within the tolerance the table was built for, and polishing should square the error
+	private static void verifySigmaTables(OptionsCaseNYU1 c) {
+		Random random = new Random(0);
+		for (double tolerance : new double[] { 1e-6, 1e-7, 1e-8 }) {
+			for (int i = 0; i < STRIKES.length; i++) {
+				double minPrice = OptionsMathUtils.theoValue(STRIKES[i], 0.201), maxPrice = OptionsMathUtils.theoValue(STRIKES[i], 0.501);
+				OptionsCaseNYU1.ImpliedVolatilityTable table = new OptionsCaseNYU1.ImpliedVolatilityTable(STRIKES[i], minPrice, maxPrice, tolerance);
+				for (int j = 0; j < 10000; j++) {
+					double price = minPrice + (maxPrice - minPrice) * random.nextDouble();
+					double expected = c.calculateSigmaByNewton(STRIKES[i], price);
+					if (Math.abs(table.lookup(price) - expected) > tolerance)
+						throw new AssertionError("strike " + STRIKES[i] + ", price " + price + ", tolerance " + tolerance + ": expected sigma " + expected + ", got " + table.lookup(price));
+					if (Math.abs(table.lookupPolished(price) - expected) > Math.max(1e-13, tolerance * tolerance * 100))
+						throw new AssertionError("strike " + STRIKES[i] + ", price " + price + ", tolerance " + tolerance + ": expected polished sigma " + expected + ", got " + table.lookupPolished(price));
+				}
+				if (table.lookup(minPrice - 1e-9) == table.lookup(minPrice - 1e-9) || table.lookup(maxPrice + 1e-9) == table.lookup(maxPrice + 1e-9))
+					throw new AssertionError("strike " + STRIKES[i] + ": prices outside the table should not be interpolated");
+			}
+		}
+
+		//theoValue jumps by about 2.5e-9 in sigma for strike 90 at d2 = 0, so no table can get this close
+		try {
+			new OptionsCaseNYU1.ImpliedVolatilityTable(90, OptionsMathUtils.theoValue(90, 0.201), OptionsMathUtils.theoValue(90, 0.501), 1e-11);
+			throw new AssertionError("a tolerance finer than theoValue's discontinuity should be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	//fills should match a boxed LinkedList FIFO, including while the queue grows to thousands of lots
+	private static void verifyInventoryQueue() {
+		Random random = new Random(0);
+		OptionsCaseNYU1.InventoryQueue queue = new OptionsCaseNYU1.InventoryQueue();
+		LinkedList<Double> longs = new LinkedList<Double>(), shorts = new LinkedList<Double>();
+		for (int i = 0; i < 200000; i++) {
+			//drift in long runs so the position swings between thousands of lots long and short
+			boolean buy = random.nextInt(100) < ((i / 20000) % 2 == 0 ? 60 : 40);
+			double price = random.nextInt(100000) / 100.0;
+			double closed = buy ? queue.buy(price) : queue.sell(price);
+			LinkedList<Double> same = buy ? longs : shorts, other = buy ? shorts : longs;
+			double expected = other.isEmpty() ? Double.NaN : other.remove(0).doubleValue();
+			if (Double.isNaN(expected))
+				same.add(Double.valueOf(price));
+			if (Double.compare(closed, expected) != 0)
+				throw new AssertionError("fill " + i + ": expected to close a lot at " + expected + ", got " + closed);
+			if (queue.position() != longs.size() - shorts.size())
+				throw new AssertionError("fill " + i + ": expected position " + (longs.size() - shorts.size()) + ", got " + queue.position());
+		}
+	}
+
+	//one year options must price exactly like OptionsMathUtils, and other expiries must invert back to their sigma
+	private static void verifyOptionChain(OptionsCaseNYU1 c) {
+		OptionsCaseNYU1.OptionChain chain = OptionsCaseNYU1.OptionChain.parse("80, 90, 100, 110, 120, 100/0.25, 95/2/4");
+		double[] prices = new double[chain.size()], vegas = new double[chain.size()];
+		for (int j = 1; j <= 1000; j++) {
+			double sigma = j / 1000.0;
+			chain.price(sigma, prices, vegas);
+			for (int i = 0; i < STRIKES.length; i++) {
+				if (Double.compare(prices[i], OptionsMathUtils.theoValue(STRIKES[i], sigma)) != 0 || Double.compare(chain.price(i, sigma), prices[i]) != 0)
+					throw new AssertionError("strike " + STRIKES[i] + ", sigma " + sigma + ": expected price " + OptionsMathUtils.theoValue(STRIKES[i], sigma) + ", got " + prices[i]);
+				if (Double.compare(vegas[i], OptionsMathUtils.calculateVega(STRIKES[i], sigma)) != 0)
+					throw new AssertionError("strike " + STRIKES[i] + ", sigma " + sigma + ": expected vega " + OptionsMathUtils.calculateVega(STRIKES[i], sigma) + ", got " + vegas[i]);
+			}
+			for (int i = STRIKES.length; i < chain.size(); i++) {
+				if (sigma < 0.05)
+					continue;
+				double solved = c.calculateSigmaByNewton(chain.strike(i), chain.expiry(i), prices[i]);
+				if (Math.abs(solved - sigma) > 1e-9)
+					throw new AssertionError("option " + chain.label(i) + ", sigma " + sigma + ": solved sigma " + solved);
+			}
+		}
+		if (chain.indexOf(95, 2) != 6 || chain.indexOf(95, 1) != -1 || !chain.label(5).equals("100/0.25"))
+			throw new AssertionError("chain indexed wrong");
+	}
+
+	//a chain of n options spread over strikes 50-150 and four expiries
+	private static String chainSpec(int n) {
+		double[] expiries = { 0.25, 0.5, 1, 2 };
+		StringBuilder spec = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			if (i != 0)
+				spec.append(',');
+			spec.append(50 + 100.0 * (i / expiries.length) / Math.max(1, (n - 1) / expiries.length)).append('/').append(expiries[i % expiries.length]);
+		}
+		return spec.toString();
+	}
+
+	//how long a fill or a quiet tick takes to requote the whole chain
+	private static void benchmarkQuotes() {
+		for (int n : new int[] { 5, 50, 200, 1000 }) {
+			final String spec = chainSpec(n);
+			OptionsCaseNYU1 c = new OptionsCaseNYU1() {
+				@Override
+				public String getStringVar(String str) {
+					if (str.equals("Strategy"))
+						return "one";
+					if (str.equals("CHAIN"))
+						return spec;
+					return null;
+				}
+
+				@Override
+				public void log(String s) {
+				}
+			};
+			c.initializeAlgo(null, null);
+			OptionsCaseNYU1.OptionChain chain = OptionsCaseNYU1.OptionChain.parse(spec);
+			Random random = new Random(0);
+			int ticks = 2000000 / n;
+			double sink = 0;
+			for (int round = 0; round < 5; round++) {
+				long start = System.nanoTime();
+				for (int t = 0; t < ticks; t++) {
+					if (t % 2 == 0) {
+						int asset = random.nextInt(n);
+						c.fill(asset, random.nextBoolean() ? 1 : -1, chain.price(asset, 0.25 + 0.2 * random.nextDouble()));
+					} else {
+						c.noFill();
+					}
+					sink += c.getBid(t % n);
+				}
+				long elapsed = System.nanoTime() - start;
+				if (round == 4)
+					System.out.println("requote " + n + " options: " + (elapsed / ticks) + " ns per tick, " + (elapsed / ticks / n) + " ns per option");
+			}
+			if (sink == 0)
+				System.out.println();
+		}
+	}
+
+	private static void replay(OptionsInterface c) throws IOException {
+		TickFile ticks = TickFile.load("case1SampleData.csv");
+		c.initializeAlgo(null, null);
+		for (int i = 0; i < ticks.rows(); i++) {
+			QuoteList list = c.getCurrentQuotes();
+			int direction = (int) ticks.get(i, 0);
+			int strike = (int) ticks.get(i, 1);
+			double price = ticks.get(i, 2);
+			switch (direction) {
+				case 1:
+					if (getQuote(list, strike).offer <= price)
+						c.newFill(strike, direction, getQuote(list, strike).offer);
+					else
+						c.noBrokerFills();
+					break;
+				case -1:
+					if (getQuote(list, strike).bid >= price)
+						c.newFill(strike, direction, getQuote(list, strike).bid);
+					else
+						c.noBrokerFills();
+					break;
+			}
+		}
+	}
+
+	private static OptionsCaseNYU1 capturingCase(final String logLevel, final List<String> logged) {
+		return new OptionsCaseNYU1() {
+			@Override
+			public String getStringVar(String str) {
+				if (str.equals("Strategy"))
+					return "one";
+				if (str.equals("LOG_LEVEL"))
+					return logLevel;
+				return null;
+			}
+
+			@Override
+			public void log(String s) {
+				logged.add(s);
+			}
+		};
+	}
+
+	//with LOG_LEVEL 0 nothing should be formatted, but the summaries should still be there to log on demand
+	private static void verifyLazySummaries() throws IOException {
+		List<String> eager = new ArrayList<String>(), lazy = new ArrayList<String>();
+		OptionsCaseNYU1 summarized = capturingCase("2", eager), quiet = capturingCase("0", lazy);
+		replay(summarized);
+		replay(quiet);
+		if (!lazy.isEmpty())
+			throw new AssertionError("LOG_LEVEL 0 logged " + lazy.get(0));
+		if (quiet.pnl != summarized.pnl || quiet.cleared != summarized.cleared)
+			throw new AssertionError("LOG_LEVEL changed the outcome");
+
+		//the first penalty shows the 16 summaries that led up to it, and later ones only what's been recorded since
+		quiet.penaltyNotice(1);
+		if (lazy.size() != 1 + 16 * 7)
+			throw new AssertionError("the first penalty logged " + lazy.size() + " lines, expected 1 and the last 16 summaries");
+		lazy.clear();
+		quiet.penaltyNotice(1);
+		if (lazy.size() != 1)
+			throw new AssertionError("a penalty with no ticks since logged " + lazy.size() + " lines, expected 1");
+
+		lazy.clear();
+		quiet.logRecentSummaries(1);
+		if (!lazy.equals(eager.subList(eager.size() - lazy.size(), eager.size())) || lazy.size() != 7)
+			throw new AssertionError("last summary should read " + eager.subList(eager.size() - 7, eager.size()) + ", got " + lazy);
+	}
+
+	//calling through the wrapper should change nothing, and time every call
+	private static void verifyInstrumentedReplay() throws IOException {
+		List<String> plainLog = new ArrayList<String>(), timedLog = new ArrayList<String>();
+		OptionsCaseNYU1 plain = capturingCase("2", plainLog), instrumented = capturingCase("2", timedLog);
+		Latency.InstrumentedOptions timed = new Latency.InstrumentedOptions("verifyInstrumentedReplay", instrumented);
+		replay(plain);
+		replay(timed);
+		timed.unregister();
+		if (!plainLog.equals(timedLog) || plain.pnl != instrumented.pnl)
+			throw new AssertionError("instrumenting changed the outcome");
+		long ticks = TickFile.load("case1SampleData.csv").rows(), calls = 0;
+		for (Latency.Histogram histogram : timed.histograms())
+			if (!histogram.name().equals("getCurrentQuotes"))
+				calls += histogram.getCount();
+		if (timed.histograms().get(0).getCount() != ticks || calls != ticks)
+			throw new AssertionError(ticks + " ticks, but " + timed.histograms().get(0).getCount() + " quotes and " + calls + " fills or misses were timed");
+	}
+
+	private static void benchmarkCalculateSigma(OptionsCaseNYU1 c) {
+		double[][] prices = pricesInVolBand(1000);
+		OptionsCaseNYU1.ImpliedVolatilityTable[] tables = new OptionsCaseNYU1.ImpliedVolatilityTable[STRIKES.length];
+		for (int i = 0; i < STRIKES.length; i++)
+			tables[i] = new OptionsCaseNYU1.ImpliedVolatilityTable(STRIKES[i], prices[i][0], prices[i][prices[i].length - 1], 1e-8);
+		double sink = 0;
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < STRIKES.length; i++)
+				for (int j = 0; j < prices[i].length; j++)
+					sink += c.calculateSigmaByBisection(STRIKES[i], prices[i][j]);
+			long bisection = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < STRIKES.length; i++)
+				for (int j = 0; j < prices[i].length; j++)
+					sink += c.calculateSigmaByNewton(STRIKES[i], prices[i][j]);
+			long newton = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < STRIKES.length; i++)
+				for (int j = 0; j < prices[i].length; j++)
+					sink += tables[i].lookup(prices[i][j]);
+			long table = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < STRIKES.length; i++)
+				for (int j = 0; j < prices[i].length; j++)
+					sink += tables[i].lookupPolished(prices[i][j]);
+			long polished = System.nanoTime() - start;
+
+			int solves = STRIKES.length * prices[0].length;
+			System.out.println("calculateSigma: bisection " + (bisection / solves) + " ns, newton " + (newton / solves) + " ns, table " + (table / solves) + " ns, polished table " + (polished / solves) + " ns per solve");
+		}
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	public static void main(String[] args) throws IOException {
 		OptionsCaseNYU1 c = new OptionsCaseNYU1() {
 			@Override
 			public String getStringVar(String str) {
@@ -37,30 +318,21 @@ public class Test {
 				System.out.println(s);
 			}
 		};
-		try (Scanner scan = new Scanner(new File("case1SampleData.csv"))) {
-			c.initializeAlgo(null, null);
-			for (int i = 0; i < 100; i++) {
-				QuoteList list = c.getCurrentQuotes();
-				String[] newest = scan.nextLine().split(",");
-				int direction = Integer.parseInt(newest[0]);
-				int strike = Integer.parseInt(newest[1]);
-				double price = Double.valueOf(newest[2]);
-				switch (direction) {
-					case 1:
-						if (getQuote(list, strike).offer <= price)
-							c.newFill(strike, direction, getQuote(list, strike).offer);
-						else
-							c.noBrokerFills();
-						break;
-					case -1:
-						if (getQuote(list, strike).bid >= price)
-							c.newFill(strike, direction, getQuote(list, strike).bid);
-						else
-							c.noBrokerFills();
-						break;
-				}
-			}
-			System.out.println("\n\nPnL: " + c.pnl + ", highest vega: " + c.highestVega + " (at tick " + c.highestVegaTick + "), cleared: " + c.cleared);
+		if (args.length > 0 && args[0].equals("benchmark")) {
+			benchmarkCalculateSigma(c);
+			benchmarkQuotes();
+			return;
 		}
+		verifyCalculateSigma(c);
+		verifySigmaTables(c);
+		verifyOptionChain(c);
+		verifyLazySummaries();
+		verifyInventoryQueue();
+		verifyInstrumentedReplay();
+
+		Latency.InstrumentedOptions timed = new Latency.InstrumentedOptions("options case1SampleData.csv", c);
+		replay(timed);
+		System.out.println("\n\nPnL: " + c.pnl + ", highest vega: " + c.highestVega + " (at tick " + c.highestVegaTick + "), cleared: " + c.cleared);
+		System.err.println(timed.report());
 	}
 }
@@ -1,11 +1,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
 import org.uchicago.pairs.PairsHelper.Order;
 import org.uchicago.pairs.PairsHelper.OrderState;
@@ -27,36 +23,92 @@ import com.optionscity.freeway.api.IJobSetup;
  * @author Shrey Patel
  */
 public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
-	private static int MINIMUM_CORRELATION_STAGE_TICKS = 30;
-	private static int MAXIMUM_CORRELATION_STAGE_TICKS = 40;
-
 	/**
-	 * 40 for the first round.
-	 * 60 for the second round.
-	 * 100 for the third round.
+	 * Everything about the strategy that can be tuned. Each instance has its
+	 * own, so strategies for different rounds can run side by side.
 	 */
-	private static int MAXIMUM_ABSOLUTE_CONTRACTS = 100;
+	public static class Parameters {
+		public int minimumCorrelationStageTicks = 30;
+		public int maximumCorrelationStageTicks = 40;
+
+		/**
+		 * 40 for the first round.
+		 * 60 for the second round.
+		 * 100 for the third round.
+		 */
+		public int maximumAbsoluteContracts = 100;
+
+		public double triggerSignal = 2.05;
+		public double closeSignal = 0.3;
+		/**
+		 * 10 for the first round.
+		 * 15 for the second round.
+		 * 5 for the third round
+		 */
+		public int positionChangeOnTrigger = 5;
+		/**
+		 * 5 for the first round.
+		 * 5 for the second round.
+		 * 10 for the third round.
+		 */
+		public int positionDoubleDownRate = 10;
+
+		/**
+		 * 12, 26 for the first round.
+		 * 30, 30 for the second round.
+		 */
+		public int emaShort = 12, emaLong = 26;
+
+		/**
+		 * What we trade each round with when nothing is overridden.
+		 */
+		public static Parameters forRound(int round) {
+			Parameters p = new Parameters();
+			switch (round) {
+				case 1:
+					p.maximumAbsoluteContracts = 40;
+					p.positionChangeOnTrigger = 10;
+					p.positionDoubleDownRate = 5;
+					p.emaShort = 12;
+					p.emaLong = 26;
+					p.triggerSignal = 2.05;
+					p.closeSignal = 0.3;
+					break;
+				case 2:
+					p.maximumAbsoluteContracts = 60;
+					p.positionChangeOnTrigger = 15;
+					p.positionDoubleDownRate = 5;
+					p.emaShort = 30;
+					p.emaLong = 30;
+					p.triggerSignal = 2.05;
+					p.closeSignal = 0.3;
+					break;
+				case 3:
+					p.maximumAbsoluteContracts = 100;
+					p.positionChangeOnTrigger = 10;
+					p.positionDoubleDownRate = 10;
+					p.emaShort = 12;
+					p.emaLong = 26;
+					p.triggerSignal = 2.5;
+					p.closeSignal = 0.3;
+					break;
+			}
+			return p;
+		}
+	}
 
-	private static double TRIGGER_SIGNAL = 2.05;
-	private static double CLOSE_SIGNAL = 0.3;
 	/**
-	 * 10 for the first round.
-	 * 15 for the second round.
-	 * 5 for the third round
+	 * Values of column H, what the z-score says to do with Y on this tick.
 	 */
-	private static int POSITION_CHANGE_ON_TRIGGER = 5;
+	private static final byte NO_DECISION = 0, SELL_Y = 1, BUY_Y = 2;
 	/**
-	 * 5 for the first round.
-	 * 5 for the second round.
-	 * 10 for the third round.
+	 * Values of column J, what to do with a position opened on an earlier tick.
 	 */
-	private static int POSITION_DOUBLE_DOWN_RATE = 10;
-
+	private static final byte NO_SIGNAL = 0, SELL_HOLD = 1, BUY_HOLD = 2, CLOSE = 3;
 	/**
-	 * 12, 26 for the first round.
-	 * 30, 30 for the second round.
+	 * Trades kept around for when LOG_TICKS is off and an order gets rejected.
 	 */
-	private static int EMA_SHORT = 12, EMA_LONG = 26;
+	private static final int TRADE_HISTORY = 64;
 
 	public static class LinearRegression {
 		private final int N;
@@ -192,30 +244,367 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 		}
 	}
 
+	/**
+	 * History of primitive doubles. A buffer with a fixed capacity only retains
+	 * the most recent <tt>capacity</tt> values and overwrites the oldest one when
+	 * it is full. A growable buffer retains everything.
+	 *
+	 * Values are addressed by the absolute index they were added at, i.e.
+	 * <tt>get(size() - 1)</tt> is the most recent value regardless of how many
+	 * values have been evicted.
+	 */
+	public static class DoubleRingBuffer {
+		private final boolean growable;
+		private double[] data;
+		private int size;
+
+		/**
+		 * Creates a buffer that grows to hold every value ever added.
+		 */
+		public DoubleRingBuffer() {
+			growable = true;
+			data = new double[16];
+		}
+
+		/**
+		 * Creates a buffer that retains at most <tt>capacity</tt> values.
+		 */
+		public DoubleRingBuffer(int capacity) {
+			if (capacity <= 0)
+				throw new IllegalArgumentException("capacity");
+			growable = false;
+			data = new double[capacity];
+		}
+
+		public void add(double value) {
+			if (growable && size == data.length)
+				data = Arrays.copyOf(data, size * 2);
+			data[size % data.length] = value;
+			size++;
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+		/**
+		 * Returns the number of values ever added, including ones that were evicted.
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the absolute index of the oldest value that is still retained.
+		 */
+		public int first() {
+			return Math.max(0, size - data.length);
+		}
+
+		public double get(int index) {
+			if (index < first() || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", retained: [" + first() + ", " + size + ")");
+			return data[index % data.length];
+		}
+
+		/**
+		 * Returns the mean of the values at indices <tt>[start, end)</tt>.
+		 */
+		public double mean(int start, int end) {
+			if (start < first() || end > size)
+				throw new IndexOutOfBoundsException("Range: [" + start + ", " + end + "), retained: [" + first() + ", " + size + ")");
+			double sum = 0.0;
+			for (int i = start; i < end; i++)
+				sum += data[i % data.length];
+			return sum / (end - start);
+		}
+
+		/**
+		 * Returns the sample variance of the values at indices <tt>[start, end)</tt>.
+		 */
+		public double variance(int start, int end) {
+			double mean = mean(start, end);
+			double temp = 0;
+			for (int i = start; i < end; i++) {
+				double a = data[i % data.length];
+				temp += (mean - a) * (mean - a);
+			}
+			return temp / (end - start - 1);
+		}
+	}
+
+	/**
+	 * Streaming counterpart of {@link LinearRegression}. Points are added one at
+	 * a time and the summary statistics are updated in O(1), so the regression
+	 * does not have to be rebuilt over the whole history every tick.
+	 *
+	 * The running sums are kept in mean-centered form (means plus the centered
+	 * sums of squares and cross products) rather than as raw sums of x, x^2 and xy,
+	 * which would lose most of their precision to cancellation on prices near 100.
+	 */
+	public static class RollingRegression {
+		private final int window;
+		private final DoubleRingBuffer xs, ys;
+
+		private int N;
+		private double xbar, ybar;
+		private double xxbar, yybar, xybar;
+
+		/**
+		 * Creates a regression over every point ever added.
+		 */
+		public RollingRegression() {
+			this(0);
+		}
+
+		/**
+		 * Creates a regression over at most the <tt>window</tt> most recent points.
+		 *
+		 * @param window
+		 *            the number of points to keep, or 0 to keep every point
+		 */
+		public RollingRegression(int window) {
+			if (window < 0)
+				throw new IllegalArgumentException("window");
+			this.window = window;
+			if (window != 0) {
+				xs = new DoubleRingBuffer(window);
+				ys = new DoubleRingBuffer(window);
+			} else {
+				//nothing will ever be evicted, so there's no need to remember the points
+				xs = ys = null;
+			}
+		}
+
+		/**
+		 * Adds the data point <tt>(y, x)</tt>, evicting the oldest point if the window is full.
+		 *
+		 * @param x
+		 *            the value of the predictor variable
+		 * @param y
+		 *            the corresponding value of the response variable
+		 */
+		public void add(double x, double y) {
+			if (window != 0) {
+				if (N == window)
+					remove(xs.get(xs.first()), ys.get(ys.first()));
+				xs.add(x);
+				ys.add(y);
+			}
+			N++;
+			double dx = x - xbar;
+			double dy = y - ybar;
+			xbar += dx / N;
+			ybar += dy / N;
+			xxbar += dx * (x - xbar);
+			yybar += dy * (y - ybar);
+			xybar += dx * (y - ybar);
+		}
+
+		private void remove(double x, double y) {
+			if (N == 1) {
+				N = 0;
+				xbar = ybar = xxbar = yybar = xybar = 0;
+				return;
+			}
+			double dx = x - xbar;
+			double dy = y - ybar;
+			N--;
+			xbar -= dx / N;
+			ybar -= dy / N;
+			xxbar -= dx * (x - xbar);
+			yybar -= dy * (y - ybar);
+			xybar -= dx * (y - ybar);
+		}
+
+		public void clear() {
+			N = 0;
+			if (xs != null) {
+				xs.clear();
+				ys.clear();
+			}
+			xbar = ybar = xxbar = yybar = xybar = 0;
+		}
+
+		public int size() {
+			return N;
+		}
+
+		public double intercept() {
+			return ybar - slope() * xbar;
+		}
+
+		public double slope() {
+			return xybar / xxbar;
+		}
+
+		public double correlation() {
+			return (xybar / (N - 1)) / (Math.sqrt(yybar / (N - 1)) * Math.sqrt(xxbar / (N - 1)));
+		}
+
+		/**
+		 * Returns the coefficient of determination <em>R</em><sup>2</sup>.
+		 * The regression sum of squares is just <em>&beta;</em><sup>2</sup> times the centered sum of squares of x.
+		 *
+		 * @return the coefficient of determination <em>R</em><sup>2</sup>, which is a real number between 0 and 1
+		 */
+		public double R2() {
+			return xybar * xybar / (xxbar * yybar);
+		}
+	}
+
+	/**
+	 * Sample mean and variance maintained with Welford's update. Values can be
+	 * removed again in any order, so a caller that remembers its own history can
+	 * slide a window over it in O(1) per step.
+	 */
+	public static class MovingVariance {
+		private int N;
+		private double mean, m2;
+
+		public void add(double x) {
+			N++;
+			double d = x - mean;
+			mean += d / N;
+			m2 += d * (x - mean);
+		}
+
+		public void remove(double x) {
+			if (N == 1) {
+				clear();
+				return;
+			}
+			double d = x - mean;
+			N--;
+			mean -= d / N;
+			m2 -= d * (x - mean);
+		}
+
+		public void clear() {
+			N = 0;
+			mean = m2 = 0;
+		}
+
+		public int size() {
+			return N;
+		}
+
+		public double mean() {
+			return mean;
+		}
+
+		public double variance() {
+			return m2 / (N - 1);
+		}
+	}
+
 	private static class StockPair {
 		public double prevExpMa;
-		public final List<Double> ratios = new ArrayList<>();
+		public final DoubleRingBuffer ratios;
+		public final RollingRegression regression = new RollingRegression();
+		/**
+		 * Moments of the <tt>varianceWindow</tt> ratios preceding the most recent one.
+		 */
+		public final MovingVariance ratioStats = new MovingVariance();
+		private final int varianceWindow;
+
+		public StockPair(int ratioRetention, int varianceWindow) {
+			if (ratioRetention <= varianceWindow)
+				throw new IllegalArgumentException("ratio history is too short to slide the variance window");
+			ratios = new DoubleRingBuffer(ratioRetention);
+			this.varianceWindow = varianceWindow;
+		}
+
+		public void addRatio(double r) {
+			int n = ratios.size();
+			if (n > 0) {
+				//the previous ratio slides into the window and the oldest one slides out
+				if (n > varianceWindow)
+					ratioStats.remove(ratios.get(n - 1 - varianceWindow));
+				ratioStats.add(ratios.get(n - 1));
+			}
+			ratios.add(r);
+		}
+
+		public double ratioVariance() {
+			if (ratioStats.size() < varianceWindow)
+				throw new IllegalStateException("Only " + ratioStats.size() + " of " + varianceWindow + " ratios for the variance window");
+			return ratioStats.variance();
+		}
 	}
 
-	private static class ComparablePair {
-		public final int[] pair;
+	/**
+	 * The last TRADE_HISTORY pair trades, kept as primitives in preallocated
+	 * rings so recording one doesn't allocate. They're only formatted when
+	 * logged: as they happen with LOG_TICKS on, otherwise only when a rejected
+	 * order makes them worth reading. Rejections only log the trades that
+	 * haven't been logged yet, so a streak of them formats each trade once.
+	 */
+	private class TradeLog {
+		private final int[] tick = new int[TRADE_HISTORY], x = new int[TRADE_HISTORY], y = new int[TRADE_HISTORY];
+		private final int[] holdingsX = new int[TRADE_HISTORY], holdingsY = new int[TRADE_HISTORY], fee = new int[TRADE_HISTORY];
+		private final double[] pnl = new double[TRADE_HISTORY];
+		private final StringBuilder line = new StringBuilder();
+		private int recorded;
+		//trades before this one have been logged
+		private int logged;
+
+		public void clear() {
+			recorded = 0;
+			logged = 0;
+		}
 
-		public ComparablePair(int a, int b) {
-			pair = new int[] { a, b };
+		public void record(int tick, int x, int y, int holdingsX, int holdingsY, double pnl, int fee) {
+			int row = recorded % TRADE_HISTORY;
+			this.tick[row] = tick;
+			this.x[row] = x;
+			this.y[row] = y;
+			this.holdingsX[row] = holdingsX;
+			this.holdingsY[row] = holdingsY;
+			this.pnl[row] = pnl;
+			this.fee[row] = fee;
+			recorded++;
 		}
 
-		@Override
-		public boolean equals(Object o) {
-			if (o instanceof ComparablePair) {
-				return Arrays.equals(((ComparablePair) o).pair, this.pair);
-			} else {
-				return false;
+		/**
+		 * Logs the trade just recorded the way it's logged every tick.
+		 */
+		public void logLast() {
+			int row = (recorded - 1) % TRADE_HISTORY;
+			line.setLength(0);
+			line.append("USING PAIR ").append(x[row]).append(", ").append(y[row]);
+			System.out.println(line);
+			line.setLength(0);
+			appendHoldings(row);
+			PairsCaseNYU1.this.log(line.toString());
+			logged = recorded;
+		}
+
+		/**
+		 * Logs the last <tt>count</tt> trades that are still kept, oldest first.
+		 */
+		public void log(int count) {
+			for (int k = Math.max(0, Math.max(recorded - TRADE_HISTORY, recorded - count)); k < recorded; k++) {
+				int row = k % TRADE_HISTORY;
+				line.setLength(0);
+				line.append("Tick ").append(tick[row]).append(": ");
+				appendHoldings(row);
+				PairsCaseNYU1.this.log(line.toString());
 			}
+			logged = recorded;
 		}
 
-		@Override
-		public int hashCode() {
-			return Arrays.hashCode(pair);
+		/**
+		 * Logs the trades that are still kept and haven't been logged yet, oldest first.
+		 */
+		public void logNew() {
+			log(recorded - logged);
+		}
+
+		private void appendHoldings(int row) {
+			line.append(x[row]).append(" holdings: ").append(holdingsX[row]).append(", ")
+					.append(y[row]).append(" holdings: ").append(holdingsY[row])
+					.append(", PnL: ").append(pnl[row]).append(", bid:ask fee: ").append(fee[row]);
 		}
 	}
 
@@ -223,25 +612,40 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 
 	// keeping track of the # of symbols for current round
 	private int numSymbols;
+	private Parameters parameters;
 	// declare Order[] orders
 	private Order[] orders;
-	// variables to store current price information
-	private double[] currentPrices = new double[5];
-	private int[] prevHoldings = new int[5];
-	private Set<ComparablePair> pairsHeld = new HashSet<>();
+	private PairMatcher matcher;
+	// variables to store current price information, sized by currentSymbols
+	private double[] currentPrices;
+	private int[] prevHoldings;
+	//bit i is set while ticker i is part of a held pair
+	private long[] symbolsHeld;
+	//bit pairIndex[i][j] is set while the pair (i, j) is held
+	private long[] pairsHeld;
+	private int[][] pairIndex;
+	private int[][] pairAt;
+
+	//per-tick scratch space, allocated once in currentSymbols so the tick path allocates nothing
+	private boolean logTicks;
+	private final TradeLog trades = new TradeLog();
+	private double[] pricesYest;
+	private double[][] zScore;
+	private List<int[]> validPairs;
+	private List<int[]> pairsToTrade;
 
 	private int orderNum;
-	private String prevDecision, prevSignal;
-	private StockPair[][] pairs = new StockPair[4][5];
+	//column H and J of the previous tick that traded each pair, indexed by pair index
+	private byte[] prevDecision, prevSignal;
+	private StockPair[][] pairs;
 	private boolean beganTrading;
 	public double cashAndPnl;
 	public int contractsSold;
 
-	private List<List<Double>> prices = new ArrayList<>();
-
 	@Override
 	public void addVariables(IJobSetup setup) {
 		setup.addVariable("round", "defines the parameters to use (1 for round 1, 2 for round 2, 3 for round 3)", "int", "1");
+		setup.addVariable("LOG_TICKS", "log every tick and pair traded (1), or only log trades when an order is rejected to keep the tick path allocation-free (0)", "int", "1");
 		setup.addVariable("POSITION_CHANGE_ON_TRIGGER_OVERRIDE", "", "string", "");
 		setup.addVariable("POSITION_DOUBLE_DOWN_RATE_OVERRIDE", "", "string", "");
 		setup.addVariable("EMA_SHORT_OVERRIDE", "", "string", "");
@@ -255,124 +659,48 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 	@Override
 	public void initializeAlgo(IDB dataBase) {
 		beganTrading = false;
-		for (int i = 0; i < 4; i++)
-			for (int j = i + 1; j < 5; j++)
-				pairs[i][j] = new StockPair();
-		prices = new ArrayList<>();
-		for (int i = 0; i < 5; i++)
-			prices.add(new ArrayList<Double>());
-		switch (getIntVar("round")) {
-			case 1:
-				MAXIMUM_ABSOLUTE_CONTRACTS = 40;
-				POSITION_CHANGE_ON_TRIGGER = 10;
-				POSITION_DOUBLE_DOWN_RATE = 5;
-				EMA_SHORT = 12;
-				EMA_LONG = 26;
-				TRIGGER_SIGNAL = 2.05;
-				CLOSE_SIGNAL = 0.3;
-				break;
-			case 2:
-				MAXIMUM_ABSOLUTE_CONTRACTS = 60;
-				POSITION_CHANGE_ON_TRIGGER = 15;
-				POSITION_DOUBLE_DOWN_RATE = 5;
-				EMA_SHORT = 30;
-				EMA_LONG = 30;
-				TRIGGER_SIGNAL = 2.05;
-				CLOSE_SIGNAL = 0.3;
-				break;
-			case 3:
-				MAXIMUM_ABSOLUTE_CONTRACTS = 100;
-				POSITION_CHANGE_ON_TRIGGER = 10;
-				POSITION_DOUBLE_DOWN_RATE = 10;
-				EMA_SHORT = 12;
-				EMA_LONG = 26;
-				TRIGGER_SIGNAL = 2.5;
-				CLOSE_SIGNAL = 0.3;
-				break;
-		}
-		String val = getStringVar("MINIMUM_CORRELATION_STAGE_TICKS_OVERRIDE");
-		if (val != null && !val.trim().isEmpty()) {
-			try {
-				MINIMUM_CORRELATION_STAGE_TICKS = Integer.parseInt(val);
-			} catch (NumberFormatException e) {
-				log("MINIMUM_CORRELATION_STAGE_TICKS_OVERRIDE: " + e.toString());
-			}
-		}
-		val = getStringVar("MAXIMUM_CORRELATION_STAGE_TICKS_OVERRIDE");
-		if (val != null && !val.trim().isEmpty()) {
-			try {
-				MAXIMUM_CORRELATION_STAGE_TICKS = Integer.parseInt(val);
-			} catch (NumberFormatException e) {
-				log("MAXIMUM_CORRELATION_STAGE_TICKS_OVERRIDE: " + e.toString());
-			}
-		}
-		val = getStringVar("POSITION_CHANGE_ON_TRIGGER_OVERRIDE");
-		if (val != null && !val.trim().isEmpty()) {
-			try {
-				POSITION_CHANGE_ON_TRIGGER = Integer.parseInt(val);
-			} catch (NumberFormatException e) {
-				log("POSITION_CHANGE_ON_TRIGGER_OVERRIDE: " + e.toString());
-			}
-		}
-		val = getStringVar("POSITION_DOUBLE_DOWN_RATE_OVERRIDE");
-		if (val != null && !val.trim().isEmpty()) {
-			try {
-				POSITION_DOUBLE_DOWN_RATE = Integer.parseInt(val);
-			} catch (NumberFormatException e) {
-				log("POSITION_DOUBLE_DOWN_RATE_OVERRIDE: " + e.toString());
-			}
-		}
-		val = getStringVar("EMA_SHORT_OVERRIDE");
-		if (val != null && !val.trim().isEmpty()) {
-			try {
-				EMA_SHORT = Integer.parseInt(val);
-			} catch (NumberFormatException e) {
-				log("EMA_SHORT_OVERRIDE: " + e.toString());
-			}
-		}
-		val = getStringVar("EMA_LONG_OVERRIDE");
-		if (val != null && !val.trim().isEmpty()) {
-			try {
-				EMA_LONG = Integer.parseInt(val);
-			} catch (NumberFormatException e) {
-				log("EMA_LONG_OVERRIDE: " + e.toString());
-			}
-		}
-		val = getStringVar("TRIGGER_SIGNAL_OVERRIDE");
+		logTicks = getIntVar("LOG_TICKS") != 0;
+		trades.clear();
+		parameters = Parameters.forRound(getIntVar("round"));
+		parameters.minimumCorrelationStageTicks = intOverride("MINIMUM_CORRELATION_STAGE_TICKS_OVERRIDE", parameters.minimumCorrelationStageTicks);
+		parameters.maximumCorrelationStageTicks = intOverride("MAXIMUM_CORRELATION_STAGE_TICKS_OVERRIDE", parameters.maximumCorrelationStageTicks);
+		parameters.positionChangeOnTrigger = intOverride("POSITION_CHANGE_ON_TRIGGER_OVERRIDE", parameters.positionChangeOnTrigger);
+		parameters.positionDoubleDownRate = intOverride("POSITION_DOUBLE_DOWN_RATE_OVERRIDE", parameters.positionDoubleDownRate);
+		parameters.emaShort = intOverride("EMA_SHORT_OVERRIDE", parameters.emaShort);
+		parameters.emaLong = intOverride("EMA_LONG_OVERRIDE", parameters.emaLong);
+		parameters.triggerSignal = doubleOverride("TRIGGER_SIGNAL_OVERRIDE", parameters.triggerSignal);
+		parameters.closeSignal = doubleOverride("CLOSE_SIGNAL_OVERRIDE", parameters.closeSignal);
+	}
+
+	private int intOverride(String variable, int value) {
+		String val = getStringVar(variable);
 		if (val != null && !val.trim().isEmpty()) {
 			try {
-				TRIGGER_SIGNAL = Double.parseDouble(val);
+				return Integer.parseInt(val);
 			} catch (NumberFormatException e) {
-				log("TRIGGER_SIGNAL_OVERRIDE: " + e.toString());
+				log(variable + ": " + e.toString());
 			}
 		}
-		val = getStringVar("CLOSE_SIGNAL_OVERRIDE");
+		return value;
+	}
+
+	private double doubleOverride(String variable, double value) {
+		String val = getStringVar(variable);
 		if (val != null && !val.trim().isEmpty()) {
 			try {
-				CLOSE_SIGNAL = Double.parseDouble(val);
+				return Double.parseDouble(val);
 			} catch (NumberFormatException e) {
-				log("CLOSE_SIGNAL_OVERRIDE: " + e.toString());
+				log(variable + ": " + e.toString());
 			}
 		}
+		return value;
 	}
 
-	private double getMean(List<Double> data, int start, int end) {
-		double sum = 0.0;
-		Iterator<Double> iter = data.listIterator(start);
-		for (int i = start; i < end; i++)
-			sum += iter.next().doubleValue();
-		return sum / (end - start);
-	}
-
-	private double getVariance(List<Double> data, int start, int end) {
-		double mean = getMean(data, start, end);
-		double temp = 0;
-		Iterator<Double> iter = data.listIterator(start);
-		for (int i = start; i < end; i++) {
-			double a = iter.next().doubleValue();
-			temp += (mean - a) * (mean - a);
-		}
-		return temp / (end - start - 1);
+	/**
+	 * What initializeAlgo() settled on for this round and its overrides.
+	 */
+	public Parameters parameters() {
+		return parameters;
 	}
 
 	@Override
@@ -385,15 +713,40 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 		log("The tickers available for this round is " + rv);
 		// initiate Order[]
 		orders = PairsUtils.initiateOrders(symbols);
+		matcher = new PairMatcher(numSymbols);
+
+		//only keep as many ratios as the longest moving window looks back (plus the current ratio)
+		int ratioRetention = Math.max(parameters.emaShort, parameters.emaLong + 2) + 1;
+		pairs = new StockPair[numSymbols - 1][numSymbols];
+		for (int i = 0; i < numSymbols - 1; i++)
+			for (int j = i + 1; j < numSymbols; j++)
+				pairs[i][j] = new StockPair(ratioRetention, parameters.emaLong + 2);
+		currentPrices = new double[numSymbols];
+		prevHoldings = new int[numSymbols];
+		pricesYest = new double[numSymbols];
+		zScore = new double[numSymbols - 1][numSymbols];
+		int numPairs = numSymbols * (numSymbols - 1) / 2;
+		pairIndex = new int[numSymbols - 1][numSymbols];
+		pairAt = new int[numPairs][];
+		for (int i = 0, p = 0; i < numSymbols - 1; i++) {
+			for (int j = i + 1; j < numSymbols; j++, p++) {
+				pairIndex[i][j] = p;
+				pairAt[p] = new int[] { i, j };
+			}
+		}
+		symbolsHeld = new long[(numSymbols + Long.SIZE - 1) / Long.SIZE];
+		prevDecision = new byte[numPairs];
+		prevSignal = new byte[numPairs];
+		pairsHeld = new long[(numPairs + Long.SIZE - 1) / Long.SIZE];
+		validPairs = new ArrayList<>(numPairs);
+		pairsToTrade = new ArrayList<>(numSymbols);
 	}
 
 	@Override
 	public Order[] getNewQuotes(Quote[] quotes) {
-		double[] pricesYest = new double[numSymbols];
 		for (int i = 0; i < numSymbols; i++) {
 			pricesYest[i] = currentPrices[i];
 			currentPrices[i] = (quotes[i].bid + quotes[i].offer) / 2;
-			prices.get(i).add(Double.valueOf(currentPrices[i]));
 		}
 		return generateQuotes(pricesYest);
 	}
@@ -412,7 +765,7 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 			return pairs[j][i].prevExpMa;
 	}
 
-	private List<Double> getRatios(int i, int j) {
+	private DoubleRingBuffer getRatios(int i, int j) {
 		if (i < j)
 			return pairs[i][j].ratios;
 		else
@@ -420,7 +773,272 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 	}
 
 	private void addRatio(int i, int j, double r) {
-		getRatios(i, j).add(Double.valueOf(r));
+		if (i < j)
+			pairs[i][j].addRatio(r);
+		else
+			pairs[j][i].addRatio(r);
+	}
+
+	private double getRatioVariance(int i, int j) {
+		if (i < j)
+			return pairs[i][j].ratioVariance();
+		else
+			return pairs[j][i].ratioVariance();
+	}
+
+	/**
+	 * Maximum-weight matching over the tickers: picks the set of disjoint pairs
+	 * whose weights (|z-score|s) sum to the most.
+	 *
+	 * Universes of up to {@link #EXACT_MAX_TICKERS} tickers are solved exactly by a
+	 * DP over subsets of tickers. Larger universes start from the greedy matching
+	 * (heaviest edge first) and then apply improving local moves until none is
+	 * left: replacing up to two matched edges with one heavier edge, re-pairing
+	 * two matched edges crosswise, and splitting one matched edge into two edges
+	 * to free tickers. Every buffer is allocated up front so solving allocates
+	 * nothing.
+	 */
+	public static class PairMatcher {
+		public static final int EXACT_MAX_TICKERS = 12;
+		private static final double MIN_GAIN = 1e-12;
+
+		private final int n;
+		private final boolean exact;
+		private final boolean[][] edge;
+		private final double[][] weight;
+		private final int[] mate;
+
+		//exact solver: best[mask] is the heaviest matching using only the tickers in mask
+		private final double[] best;
+		private final int[] bestPartner;
+
+		//approximate solver
+		private final int[] edgeFrom, edgeTo, order;
+		private final double[] edgeWeight;
+		private int edgeCount;
+
+		public PairMatcher(int numTickers) {
+			this(numTickers, numTickers <= EXACT_MAX_TICKERS);
+		}
+
+		public PairMatcher(int numTickers, boolean exact) {
+			if (exact && numTickers > EXACT_MAX_TICKERS)
+				throw new IllegalArgumentException("Exact matching is limited to " + EXACT_MAX_TICKERS + " tickers");
+			n = numTickers;
+			this.exact = exact;
+			edge = new boolean[n][n];
+			weight = new double[n][n];
+			mate = new int[n];
+			if (exact) {
+				best = new double[1 << n];
+				bestPartner = new int[1 << n];
+				edgeFrom = edgeTo = order = null;
+				edgeWeight = null;
+			} else {
+				best = null;
+				bestPartner = null;
+				int maxEdges = n * (n - 1) / 2;
+				edgeFrom = new int[maxEdges];
+				edgeTo = new int[maxEdges];
+				order = new int[maxEdges];
+				edgeWeight = new double[maxEdges];
+			}
+			clear();
+		}
+
+		public void clear() {
+			for (int i = 0; i < n; i++) {
+				Arrays.fill(edge[i], false);
+				mate[i] = -1;
+			}
+			edgeCount = 0;
+		}
+
+		public void setEdge(int i, int j, double w) {
+			if (i == j)
+				throw new IllegalArgumentException("A ticker can't be paired with itself");
+			if (!exact && !edge[i][j]) {
+				edgeFrom[edgeCount] = Math.min(i, j);
+				edgeTo[edgeCount] = Math.max(i, j);
+				edgeCount++;
+			}
+			edge[i][j] = edge[j][i] = true;
+			weight[i][j] = weight[j][i] = w;
+		}
+
+		/**
+		 * Returns the ticker matched with <tt>i</tt> by the last {@link #solve()}, or -1 if it is unmatched.
+		 */
+		public int mate(int i) {
+			return mate[i];
+		}
+
+		/**
+		 * Computes the matching and returns its total weight.
+		 */
+		public double solve() {
+			for (int i = 0; i < n; i++)
+				mate[i] = -1;
+			if (exact)
+				return solveExact();
+			else
+				return solveGreedy();
+		}
+
+		private double solveExact() {
+			int full = (1 << n) - 1;
+			best[0] = 0;
+			for (int mask = 1; mask <= full; mask++) {
+				int i = Integer.numberOfTrailingZeros(mask);
+				int rest = mask & ~(1 << i);
+				//on ties leave i unmatched, i.e. prefer fewer pairs
+				best[mask] = best[rest];
+				bestPartner[mask] = -1;
+				for (int others = rest; others != 0; others &= others - 1) {
+					int j = Integer.numberOfTrailingZeros(others);
+					if (edge[i][j] && weight[i][j] + best[rest & ~(1 << j)] > best[mask]) {
+						best[mask] = weight[i][j] + best[rest & ~(1 << j)];
+						bestPartner[mask] = j;
+					}
+				}
+			}
+			for (int mask = full; mask != 0;) {
+				int i = Integer.numberOfTrailingZeros(mask);
+				int j = bestPartner[mask];
+				mask &= ~(1 << i);
+				if (j != -1) {
+					mate[i] = j;
+					mate[j] = i;
+					mask &= ~(1 << j);
+				}
+			}
+			return best[full];
+		}
+
+		private double matchedWeight(int i) {
+			return mate[i] == -1 ? 0 : weight[i][mate[i]];
+		}
+
+		private void unmatch(int i) {
+			if (mate[i] != -1) {
+				mate[mate[i]] = -1;
+				mate[i] = -1;
+			}
+		}
+
+		private void match(int i, int j) {
+			mate[i] = j;
+			mate[j] = i;
+		}
+
+		private double solveGreedy() {
+			for (int e = 0; e < edgeCount; e++) {
+				order[e] = e;
+				edgeWeight[e] = weight[edgeFrom[e]][edgeTo[e]];
+			}
+			sortByWeightDescending();
+			for (int k = 0; k < edgeCount; k++) {
+				int e = order[k];
+				if (mate[edgeFrom[e]] == -1 && mate[edgeTo[e]] == -1)
+					match(edgeFrom[e], edgeTo[e]);
+			}
+
+			boolean improved;
+			do {
+				improved = false;
+				//an edge that is heavier than the (up to two) matched edges it conflicts with
+				for (int e = 0; e < edgeCount; e++) {
+					int u = edgeFrom[e], v = edgeTo[e];
+					if (mate[u] == v)
+						continue;
+					if (edgeWeight[e] - matchedWeight(u) - matchedWeight(v) > MIN_GAIN) {
+						unmatch(u);
+						unmatch(v);
+						match(u, v);
+						improved = true;
+					}
+				}
+				for (int a = 0; a < n; a++) {
+					int b = mate[a];
+					if (b < a)
+						continue;
+					//matched pairs (a, b) and (c, d) are better off as (a, c), (b, d) or (a, d), (b, c)
+					for (int c = a + 1; c < n && mate[a] == b; c++) {
+						int d = mate[c];
+						if (d < c || c == b)
+							continue;
+						double current = weight[a][b] + weight[c][d];
+						if (edge[a][c] && edge[b][d] && weight[a][c] + weight[b][d] - current > MIN_GAIN) {
+							match(a, c);
+							match(b, d);
+							improved = true;
+						} else if (edge[a][d] && edge[b][c] && weight[a][d] + weight[b][c] - current > MIN_GAIN) {
+							match(a, d);
+							match(b, c);
+							improved = true;
+						}
+					}
+					if (mate[a] != b)
+						continue;
+					//matched pair (a, b) is better off as (a, x), (b, y) with x and y currently unmatched
+					int x = bestFreePartner(a, -1), y = bestFreePartner(b, x);
+					int x2 = bestFreePartner(b, -1), y2 = bestFreePartner(a, x2);
+					double gain = (x == -1 || y == -1) ? 0 : weight[a][x] + weight[b][y] - weight[a][b];
+					double gain2 = (x2 == -1 || y2 == -1) ? 0 : weight[b][x2] + weight[a][y2] - weight[a][b];
+					if (gain2 > gain) {
+						gain = gain2;
+						x = y2;
+						y = x2;
+					}
+					if (gain > MIN_GAIN) {
+						match(a, x);
+						match(b, y);
+						improved = true;
+					}
+				}
+			} while (improved);
+
+			double total = 0;
+			for (int i = 0; i < n; i++)
+				if (mate[i] > i)
+					total += weight[i][mate[i]];
+			return total;
+		}
+
+		private int bestFreePartner(int i, int exclude) {
+			int bestJ = -1;
+			for (int j = 0; j < n; j++)
+				if (j != i && j != exclude && mate[j] == -1 && edge[i][j] && (bestJ == -1 || weight[i][j] > weight[i][bestJ]))
+					bestJ = j;
+			return bestJ;
+		}
+
+		//heapsort of order[0..edgeCount) by edgeWeight, heaviest first
+		private void sortByWeightDescending() {
+			for (int i = edgeCount / 2 - 1; i >= 0; i--)
+				siftDown(i, edgeCount);
+			for (int end = edgeCount - 1; end > 0; end--) {
+				int tmp = order[0];
+				order[0] = order[end];
+				order[end] = tmp;
+				siftDown(0, end);
+			}
+		}
+
+		//min-heap, so that popping to the back leaves the array in descending order
+		private void siftDown(int i, int size) {
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && edgeWeight[order[child + 1]] < edgeWeight[order[child]])
+					child++;
+				if (edgeWeight[order[i]] <= edgeWeight[order[child]])
+					return;
+				int tmp = order[i];
+				order[i] = order[child];
+				order[child] = tmp;
+				i = child;
+			}
+		}
 	}
 
 	public static class FindBestPairResult {
@@ -435,58 +1053,71 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 		}
 	}
 
-	public static FindBestPairResult findBestPair(List<int[]> validPairs, List<int[]> combination, int iGreaterThan, int pick, double[][] zScores) {
-		if (pick == 0) {
-			Set<Integer> stocksUsed = new HashSet<>();
-			double sumAbsoluteZScores = 0;
-			for (int[] pair : combination) {
-				if (!stocksUsed.add(pair[0]) || !stocksUsed.add(pair[1])) {
-					//invalid pair
-					return FindBestPairResult.NONE;
-				}
-				sumAbsoluteZScores += Math.abs(zScores[pair[0]][pair[1]]);
-			}
-			return new FindBestPairResult(sumAbsoluteZScores, combination);
-		}
+	/**
+	 * Picks the disjoint subset of <tt>validPairs</tt> with the largest sum of absolute z-scores.
+	 * The chosen pairs are returned in the order they appear in <tt>validPairs</tt>.
+	 */
+	public static FindBestPairResult findBestPair(List<int[]> validPairs, int numTickers, double[][] zScores) {
+		List<int[]> combination = new ArrayList<>();
+		double sumAbsoluteZScores = findBestPair(validPairs, zScores, new PairMatcher(numTickers), combination);
+		if (combination.isEmpty())
+			return FindBestPairResult.NONE;
+		return new FindBestPairResult(sumAbsoluteZScores, combination);
+	}
 
-		FindBestPairResult bestResult = FindBestPairResult.NONE;
-		for (int i = iGreaterThan; i < validPairs.size() - pick + 1; i++) {
-			combination.add(validPairs.get(i));
-			FindBestPairResult result = findBestPair(validPairs, combination, i + 1, pick - 1, zScores);
-			if (result.sumAbsoluteZScores > bestResult.sumAbsoluteZScores)
-				bestResult = result;
-			combination.remove(combination.size() - 1);
+	/**
+	 * Allocation-free version of {@link #findBestPair(List, int, double[][])} that appends the chosen pairs
+	 * to <tt>combination</tt> and returns their sum of absolute z-scores.
+	 */
+	private static double findBestPair(List<int[]> validPairs, double[][] zScores, PairMatcher matcher, List<int[]> combination) {
+		matcher.clear();
+		for (int k = 0; k < validPairs.size(); k++) {
+			int[] pair = validPairs.get(k);
+			matcher.setEdge(pair[0], pair[1], Math.abs(zScores[pair[0]][pair[1]]));
 		}
-		return bestResult;
+		double sumAbsoluteZScores = matcher.solve();
+		for (int k = 0; k < validPairs.size(); k++) {
+			int[] pair = validPairs.get(k);
+			if (matcher.mate(pair[0]) == pair[1])
+				combination.add(pair);
+		}
+		return sumAbsoluteZScores;
 	}
 
-	public static FindBestPairResult findBestPair(List<int[]> validPairs, int numTickers, double[][] zScores) {
-		FindBestPairResult bestResult = FindBestPairResult.NONE;
-		for (int i = 1; i <= numTickers / 2; i++) {
-			FindBestPairResult result = PairsCaseNYU1.findBestPair(validPairs, new ArrayList<int[]>(), 0, i, zScores);
-			if (result.sumAbsoluteZScores > bestResult.sumAbsoluteZScores)
-				bestResult = result;
-		}
-		return bestResult;
+	private void holdPair(int i, int j) {
+		int p = pairIndex[i][j];
+		pairsHeld[p >>> 6] |= 1L << p;
+		symbolsHeld[i >>> 6] |= 1L << i;
+		symbolsHeld[j >>> 6] |= 1L << j;
+	}
+
+	private void releasePair(int i, int j) {
+		int p = pairIndex[i][j];
+		pairsHeld[p >>> 6] &= ~(1L << p);
+		symbolsHeld[i >>> 6] &= ~(1L << i);
+		symbolsHeld[j >>> 6] &= ~(1L << j);
+	}
+
+	private boolean isHeld(int symbol) {
+		return (symbolsHeld[symbol >>> 6] & (1L << symbol)) != 0;
 	}
 
-	private List<int[]> add(Collection<ComparablePair> a, List<int[]> b) {
-		List<int[]> c = new ArrayList<int[]>();
-		for (ComparablePair aEnt : a)
-			c.add(aEnt.pair);
-		c.addAll(b);
-		return c;
+	private boolean anyHeld() {
+		for (long bits : symbolsHeld)
+			if (bits != 0)
+				return true;
+		return false;
 	}
 
 	public Order[] generateQuotes(double[] pricesYest) {
 		for (int i = 0; i < orders.length; i++)
 			orders[i].quantity = 0;
 
-		log("Tick " + (orderNum + 1));
-		LinearRegression[][] regs = new LinearRegression[numSymbols - 1][numSymbols];
+		if (logTicks)
+			log("Tick " + (orderNum + 1));
 		for (int i = 0; i < numSymbols - 1; i++) {
 			for (int j = i + 1; j < numSymbols; j++) {
-				regs[i][j] = new LinearRegression(prices.get(i), prices.get(j));
+				pairs[i][j].regression.add(currentPrices[i], currentPrices[j]);
 				addRatio(i, j, currentPrices[j] / currentPrices[i]);
 			}
 		}
@@ -494,14 +1125,14 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 		orderNum++;
 		if (orderNum < 2)
 			return orders;
-		assert MINIMUM_CORRELATION_STAGE_TICKS > 1;
-		if (orderNum < MINIMUM_CORRELATION_STAGE_TICKS)
+		assert parameters.minimumCorrelationStageTicks > 1;
+		if (orderNum < parameters.minimumCorrelationStageTicks)
 			return orders;
 
 		/** column C */ double ratio;
 		/** column D */ double thisExpMa;
 		boolean wasTrading = beganTrading;
-		if (orderNum >= MAXIMUM_CORRELATION_STAGE_TICKS)
+		if (orderNum >= parameters.maximumCorrelationStageTicks)
 			beganTrading = true;
 		else
 			return orders;
@@ -509,106 +1140,111 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 		//if the ratio of the price of Y over the price of X diverges too much
 		//from the exponential moving average, then we expect the ratio to
 		//mean revert over time
-		double[][] zScore = new double[numSymbols - 1][numSymbols];
-		List<int[]> validPairs = new ArrayList<>();
+		validPairs.clear();
 		for (int i = 0; i < numSymbols - 1; i++) {
 			for (int j = i + 1; j < numSymbols; j++) {
 				ratio = currentPrices[j] / currentPrices[i];
 				if (!wasTrading) {
 					//initial exponential moving average is mean of ratios preceding this one
-					thisExpMa = getMean(getRatios(i, j), getRatios(i, j).size() - 1 - EMA_SHORT, getRatios(i, j).size() - 1);
+					thisExpMa = getRatios(i, j).mean(getRatios(i, j).size() - 1 - parameters.emaShort, getRatios(i, j).size() - 1);
 				} else {
-					thisExpMa = (ratio - getPrevExpMa(i, j)) * 2 / (EMA_SHORT + 1) + getPrevExpMa(i, j);
+					thisExpMa = (ratio - getPrevExpMa(i, j)) * 2 / (parameters.emaShort + 1) + getPrevExpMa(i, j);
 				}
-				/** column F */ double stdev = Math.sqrt(getVariance(getRatios(i, j), getRatios(i, j).size() - 1 - EMA_LONG - 2, getRatios(i, j).size() - 1));
+				/** column F */ double stdev = Math.sqrt(getRatioVariance(i, j));
 				/** column G */ zScore[i][j] = (ratio - thisExpMa) / stdev;
-				if (regs[i][j].correlation() > 0) {
-					boolean valid = true;
-					for (ComparablePair p : pairsHeld)
-						if (p.pair[0] == i || p.pair[1] == i || p.pair[0] == j || p.pair[1] == j)
-							valid = false;
-					if (valid)
-						validPairs.add(new int[] { i, j });
+				if (pairs[i][j].regression.correlation() > 0) {
+					//neither ticker may already be used by a held pair
+					if (!isHeld(i) && !isHeld(j))
+						validPairs.add(pairAt[pairIndex[i][j]]);
 				} else {
 					//TODO: negative correlation strategy doesn't work with price ratios
 				}
 				setPrevExpMa(i, j, thisExpMa);
 			}
 		}
-		if (validPairs.size() == 0 && pairsHeld.size() == 0)
+		if (validPairs.size() == 0 && !anyHeld())
 			return orders;
 
-		for (int[] pair : add(pairsHeld, findBestPair(validPairs, numSymbols, zScore).combination)) {
+		//held pairs first, then the best new ones. copied since trading modifies pairsHeld
+		pairsToTrade.clear();
+		for (int w = 0; w < pairsHeld.length; w++)
+			for (long bits = pairsHeld[w]; bits != 0; bits &= bits - 1)
+				pairsToTrade.add(pairAt[(w << 6) + Long.numberOfTrailingZeros(bits)]);
+		findBestPair(validPairs, zScore, matcher, pairsToTrade);
+		for (int k = 0; k < pairsToTrade.size(); k++) {
+			int[] pair = pairsToTrade.get(k);
 			int useX = pair[0];
 			int useY = pair[1];
+			int usePair = pairIndex[useX][useY];
 			double useZScore = zScore[useX][useY];
 
-			System.out.println("USING PAIR " + useX + ", " + useY);
-			/** column H */ String buyOrSell;
-			if (useZScore > TRIGGER_SIGNAL)
-				buyOrSell = "sellY";
-			else if (useZScore < -TRIGGER_SIGNAL)
-				buyOrSell = "buyY";
+			/** column H */ byte buyOrSell;
+			if (useZScore > parameters.triggerSignal)
+				buyOrSell = SELL_Y;
+			else if (useZScore < -parameters.triggerSignal)
+				buyOrSell = BUY_Y;
 			else
-				buyOrSell = "";
-
-			/** column J */ String thisSignal;
-			if (("sellY".equals(prevDecision) || "sellhold".equals(prevSignal)) && useZScore > CLOSE_SIGNAL)
-				thisSignal = "sellhold";
-			else if (("sellY".equals(prevDecision) || "sellhold".equals(prevSignal)) && useZScore < CLOSE_SIGNAL)
-				thisSignal = "close";
-			else if (("buyY".equals(prevDecision) || "buyhold".equals(prevSignal)) && useZScore < -CLOSE_SIGNAL)
-				thisSignal = "buyhold";
-			else if (("buyY".equals(prevDecision) || "buyhold".equals(prevSignal)) && useZScore > -CLOSE_SIGNAL)
-				thisSignal = "close";
+				buyOrSell = NO_DECISION;
+
+			/** column J */ byte thisSignal;
+			boolean wasShortY = prevDecision[usePair] == SELL_Y || prevSignal[usePair] == SELL_HOLD;
+			boolean wasLongY = prevDecision[usePair] == BUY_Y || prevSignal[usePair] == BUY_HOLD;
+			if (wasShortY && useZScore > parameters.closeSignal)
+				thisSignal = SELL_HOLD;
+			else if (wasShortY && useZScore < parameters.closeSignal)
+				thisSignal = CLOSE;
+			else if (wasLongY && useZScore < -parameters.closeSignal)
+				thisSignal = BUY_HOLD;
+			else if (wasLongY && useZScore > -parameters.closeSignal)
+				thisSignal = CLOSE;
 			else
-				thisSignal = "";
+				thisSignal = NO_SIGNAL;
 
 			/** column L */ int thisDoubleDownX;
 			int steps;
-			if (useZScore > TRIGGER_SIGNAL + 0.5 && Math.abs(prevHoldings[useX]) <= POSITION_CHANGE_ON_TRIGGER)
-				steps = Math.min(2, (int) ((useZScore - TRIGGER_SIGNAL) / 0.5));
-			else if (useZScore < -TRIGGER_SIGNAL - 0.5 && Math.abs(prevHoldings[useX]) <= POSITION_CHANGE_ON_TRIGGER)
-				steps = -Math.min(2, (int) ((useZScore - TRIGGER_SIGNAL) / 0.5));
+			if (useZScore > parameters.triggerSignal + 0.5 && Math.abs(prevHoldings[useX]) <= parameters.positionChangeOnTrigger)
+				steps = Math.min(2, (int) ((useZScore - parameters.triggerSignal) / 0.5));
+			else if (useZScore < -parameters.triggerSignal - 0.5 && Math.abs(prevHoldings[useX]) <= parameters.positionChangeOnTrigger)
+				steps = -Math.min(2, (int) ((useZScore - parameters.triggerSignal) / 0.5));
 			else
 				steps = 0;
-			thisDoubleDownX = steps * POSITION_DOUBLE_DOWN_RATE;
+			thisDoubleDownX = steps * parameters.positionDoubleDownRate;
 
 			/** column K */ int thisHoldingsX;
-			if ("sellY".equals(buyOrSell))
-				thisHoldingsX = Math.max(POSITION_CHANGE_ON_TRIGGER + thisDoubleDownX, prevHoldings[useX]);
-			else if ("buyY".equals(buyOrSell))
-				thisHoldingsX = Math.min(-POSITION_CHANGE_ON_TRIGGER + thisDoubleDownX, prevHoldings[useX]);
-			else if ("sellhold".equals(thisSignal))
+			if (buyOrSell == SELL_Y)
+				thisHoldingsX = Math.max(parameters.positionChangeOnTrigger + thisDoubleDownX, prevHoldings[useX]);
+			else if (buyOrSell == BUY_Y)
+				thisHoldingsX = Math.min(-parameters.positionChangeOnTrigger + thisDoubleDownX, prevHoldings[useX]);
+			else if (thisSignal == SELL_HOLD)
 				thisHoldingsX = thisDoubleDownX + prevHoldings[useX];
-			else if ("buyhold".equals(thisSignal))
+			else if (thisSignal == BUY_HOLD)
 				thisHoldingsX = thisDoubleDownX + prevHoldings[useX];
 			else
 				thisHoldingsX = 0;
 
 			/** column O */ int thisDoubleDownY;
-			if (useZScore > TRIGGER_SIGNAL + 0.5 && Math.abs(prevHoldings[useY]) <= POSITION_CHANGE_ON_TRIGGER)
-				steps = -Math.min(2, (int) ((useZScore - TRIGGER_SIGNAL) / 0.5));
-			else if (useZScore < -TRIGGER_SIGNAL - 0.5 && Math.abs(prevHoldings[useY]) <= POSITION_CHANGE_ON_TRIGGER)
-				steps = Math.min(2, (int) ((useZScore - TRIGGER_SIGNAL) / 0.5));
+			if (useZScore > parameters.triggerSignal + 0.5 && Math.abs(prevHoldings[useY]) <= parameters.positionChangeOnTrigger)
+				steps = -Math.min(2, (int) ((useZScore - parameters.triggerSignal) / 0.5));
+			else if (useZScore < -parameters.triggerSignal - 0.5 && Math.abs(prevHoldings[useY]) <= parameters.positionChangeOnTrigger)
+				steps = Math.min(2, (int) ((useZScore - parameters.triggerSignal) / 0.5));
 			else
 				steps = 0;
-			thisDoubleDownY = steps * POSITION_DOUBLE_DOWN_RATE;
+			thisDoubleDownY = steps * parameters.positionDoubleDownRate;
 
 			/** column N */ int thisHoldingsY;
-			if ("sellY".equals(buyOrSell))
-				thisHoldingsY = Math.min(-POSITION_CHANGE_ON_TRIGGER + thisDoubleDownY, prevHoldings[useY]);
-			else if ("buyY".equals(buyOrSell))
-				thisHoldingsY = Math.max(POSITION_CHANGE_ON_TRIGGER + thisDoubleDownY, prevHoldings[useY]);
-			else if ("sellhold".equals(thisSignal))
+			if (buyOrSell == SELL_Y)
+				thisHoldingsY = Math.min(-parameters.positionChangeOnTrigger + thisDoubleDownY, prevHoldings[useY]);
+			else if (buyOrSell == BUY_Y)
+				thisHoldingsY = Math.max(parameters.positionChangeOnTrigger + thisDoubleDownY, prevHoldings[useY]);
+			else if (thisSignal == SELL_HOLD)
 				thisHoldingsY = thisDoubleDownY + prevHoldings[useY];
-			else if ("buyhold".equals(thisSignal))
+			else if (thisSignal == BUY_HOLD)
 				thisHoldingsY = thisDoubleDownY + prevHoldings[useY];
 			else
 				thisHoldingsY = 0;
 
 			/** column Q */ int absoluteContracts = Math.abs(thisHoldingsX) + Math.abs(thisHoldingsY);
-			int tooMany = absoluteContracts - MAXIMUM_ABSOLUTE_CONTRACTS;
+			int tooMany = absoluteContracts - parameters.maximumAbsoluteContracts;
 			if (tooMany > 0) {
 				if (thisHoldingsY < 0) {
 					thisHoldingsY += tooMany / 2;
@@ -625,18 +1261,20 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 			/** column T */ cashAndPnl += cashFlow;
 			contractsSold += Math.abs(thisHoldingsX - prevHoldings[useX]) + Math.abs(thisHoldingsY - prevHoldings[useY]);
 
-			prevSignal = thisSignal;
-			prevDecision = buyOrSell;
+			prevSignal[usePair] = thisSignal;
+			prevDecision[usePair] = buyOrSell;
 			prevHoldings[useX] = thisHoldingsX;
 			prevHoldings[useY] = thisHoldingsY;
 
-			log(useX + " holdings: " + thisHoldingsX + ", " + useY + " holdings: " + thisHoldingsY + ", PnL: " + (cashAndPnl - contractsSold / 2) + ", bid:ask fee: " + contractsSold / 2);
+			trades.record(orderNum, useX, useY, thisHoldingsX, thisHoldingsY, cashAndPnl - contractsSold / 2, contractsSold / 2);
+			if (logTicks)
+				trades.logLast();
 			orders[useX].quantity = change;
 			orders[useY].quantity = -change;
 			if (thisHoldingsX != 0)
-				pairsHeld.add(new ComparablePair(useX, useY));
+				holdPair(useX, useY);
 			else
-				pairsHeld.remove(new ComparablePair(useX, useY));
+				releasePair(useX, useY);
 		}
 		return orders;
 	}
@@ -647,13 +1285,24 @@ public class PairsCaseNYU1 extends AbstractPairsCase implements PairsInterface {
 			if (o.state != OrderState.FILLED) {
 				if (o.state == OrderState.REJECTED) {
 					log("My order for " + o.ticker + " is rejected, time to check my position/limit");
+					//show the trades that got us here if we haven't been
+					if (!logTicks)
+						trades.logNew();
 				}
-			} else {
+			} else if (logTicks) {
 				log("My order for " + o.ticker + " is filled");
 			}
 		}
 	}
 
+	/**
+	 * Logs the last <tt>count</tt> pair trades (at most TRADE_HISTORY), whether
+	 * or not LOG_TICKS logged them when they happened.
+	 */
+	public void logRecentTrades(int count) {
+		trades.log(count);
+	}
+
 	@Override
 	public PairsInterface getImplementation() {
 		return this;
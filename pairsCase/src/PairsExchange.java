@@ -0,0 +1,81 @@
+import org.uchicago.pairs.PairsHelper.Order;
+import org.uchicago.pairs.PairsHelper.OrderState;
+import org.uchicago.pairs.PairsHelper.Quote;
+
+/**
+ * Fills pairs orders the way the platform does, for the replay harness and
+ * the backtests alike. The position limit is on the gross position, the sum
+ * of the absolute positions in every ticker, and an order that would take it
+ * past the round's limit is rejected and leaves the position as it was.
+ * Orders are filled one at a time in the order they're sent, so one leg of a
+ * pair can be filled and the other rejected. An order for nothing was never
+ * sent, so it's left in its DEFAULT state rather than rejected.
+ * <p>
+ * Tickers are told apart by where they are in the quotes and orders, the
+ * order currentSymbols() got them in, rather than by name.
+ * <p>
+ * Filled orders are accounted for the way the strategy accounts for its
+ * own trades, at the mid price less half a point per contract, so PnL is
+ * the strategy's own figure for as long as nothing is rejected.
+ */
+public class PairsExchange {
+	//most contracts we may hold over every ticker put together, long or short, by round
+	private static final int[] POSITION_LIMITS = { 40, 60, 100 };
+
+	private final int limit;
+	private final int[] positions;
+	private final double[] mids;
+	private int gross;
+	private double cash;
+	private int contractsSold;
+	private int rejected;
+
+	public PairsExchange(int round, int numTickers) {
+		limit = POSITION_LIMITS[Math.min(Math.max(round, 1), POSITION_LIMITS.length) - 1];
+		positions = new int[numTickers];
+		mids = new double[numTickers];
+	}
+
+	/**
+	 * Sets every order's state to what the platform would confirm.
+	 */
+	public void fill(Quote[] quotes, Order[] orders) {
+		for (int t = 0; t < quotes.length; t++)
+			mids[t] = (quotes[t].bid + quotes[t].offer) / 2;
+		for (int t = 0; t < orders.length; t++) {
+			Order order = orders[t];
+			if (order.quantity == 0) {
+				order.state = OrderState.DEFAULT;
+				continue;
+			}
+			int after = gross - Math.abs(positions[t]) + Math.abs(positions[t] + order.quantity);
+			if (after > limit) {
+				order.state = OrderState.REJECTED;
+				rejected++;
+				continue;
+			}
+			order.state = OrderState.FILLED;
+			positions[t] += order.quantity;
+			gross = after;
+			cash -= order.quantity * mids[t];
+			contractsSold += Math.abs(order.quantity);
+		}
+	}
+
+	public double pnl() {
+		//the strategy halves its contract count in integers too
+		return cash - contractsSold / 2;
+	}
+
+	public int contractsSold() {
+		return contractsSold;
+	}
+
+	/**
+	 * How many orders were rejected for going over the position limit, which
+	 * the backtests report as penalties.
+	 */
+	public int rejected() {
+		return rejected;
+	}
+}
@@ -1,6 +1,11 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import org.uchicago.pairs.PairsHelper.Order;
 import org.uchicago.pairs.PairsHelper.OrderState;
@@ -8,7 +13,451 @@ import org.uchicago.pairs.PairsHelper.Quote;
 import org.uchicago.pairs.PairsHelper.Ticker;
 
 public class Test {
-	public static void main(String[] args) throws FileNotFoundException {
+	private static List<List<Double>> loadPrices(String file) throws IOException {
+		return TickFile.load(file).toLists();
+	}
+
+	private static void assertClose(String what, double expected, double actual, double relativeTolerance) {
+		if (Math.abs(expected - actual) > relativeTolerance * Math.max(1, Math.abs(expected)))
+			throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+	}
+
+	//RollingRegression should agree with a LinearRegression rebuilt over the same points on every tick
+	private static void verifyRollingRegression() throws IOException {
+		final int WINDOW = 40;
+		for (int round = 1; round <= 3; round++) {
+			List<List<Double>> columns = loadPrices("PairsRound" + round + ".csv");
+			for (int x = 0; x < columns.size() - 1; x++) {
+				for (int y = x + 1; y < columns.size(); y++) {
+					PairsCaseNYU1.RollingRegression all = new PairsCaseNYU1.RollingRegression();
+					PairsCaseNYU1.RollingRegression windowed = new PairsCaseNYU1.RollingRegression(WINDOW);
+					for (int i = 0; i < columns.get(x).size(); i++) {
+						all.add(columns.get(x).get(i).doubleValue(), columns.get(y).get(i).doubleValue());
+						windowed.add(columns.get(x).get(i).doubleValue(), columns.get(y).get(i).doubleValue());
+						if (i < 2)
+							continue;
+
+						String what = "round " + round + ", pair " + x + ", " + y + ", tick " + i;
+						PairsCaseNYU1.LinearRegression expected = new PairsCaseNYU1.LinearRegression(columns.get(x).subList(0, i + 1), columns.get(y).subList(0, i + 1));
+						assertClose(what + " correlation", expected.correlation(), all.correlation(), 1e-9);
+						assertClose(what + " slope", expected.slope(), all.slope(), 1e-9);
+						assertClose(what + " R2", expected.R2(), all.R2(), 1e-9);
+
+						int start = Math.max(0, i + 1 - WINDOW);
+						expected = new PairsCaseNYU1.LinearRegression(columns.get(x).subList(start, i + 1), columns.get(y).subList(start, i + 1));
+						assertClose(what + " windowed correlation", expected.correlation(), windowed.correlation(), 1e-9);
+						assertClose(what + " windowed slope", expected.slope(), windowed.slope(), 1e-9);
+						assertClose(what + " windowed R2", expected.R2(), windowed.R2(), 1e-9);
+					}
+				}
+			}
+		}
+	}
+
+	//MovingVariance slid over the ratio history should agree with a two-pass variance over the same window
+	private static void verifyMovingVariance() throws IOException {
+		for (int round = 1; round <= 3; round++) {
+			List<List<Double>> columns = loadPrices("PairsRound" + round + ".csv");
+			for (int window : new int[] { 28, 32 }) {
+				for (int x = 0; x < columns.size() - 1; x++) {
+					for (int y = x + 1; y < columns.size(); y++) {
+						PairsCaseNYU1.DoubleRingBuffer ratios = new PairsCaseNYU1.DoubleRingBuffer(window + 1);
+						PairsCaseNYU1.MovingVariance stats = new PairsCaseNYU1.MovingVariance();
+						for (int i = 0; i < columns.get(x).size(); i++) {
+							if (ratios.size() > window)
+								stats.remove(ratios.get(ratios.size() - 1 - window));
+							if (ratios.size() > 0)
+								stats.add(ratios.get(ratios.size() - 1));
+							ratios.add(columns.get(y).get(i).doubleValue() / columns.get(x).get(i).doubleValue());
+							if (stats.size() < window)
+								continue;
+
+							String what = "round " + round + ", pair " + x + ", " + y + ", tick " + i + ", window " + window;
+							double expected = ratios.variance(ratios.size() - 1 - window, ratios.size() - 1);
+							if (Math.abs(expected - stats.variance()) > 1e-12)
+								throw new AssertionError(what + ": expected " + expected + ", got " + stats.variance());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	//the exhaustive search PairsCaseNYU1.findBestPair used before it was replaced with PairMatcher
+	private static double bruteForceBestPair(List<int[]> validPairs, List<int[]> combination, int iGreaterThan, int pick, double[][] zScores) {
+		if (pick == 0) {
+			Set<Integer> stocksUsed = new HashSet<>();
+			double sumAbsoluteZScores = 0;
+			for (int[] pair : combination) {
+				if (!stocksUsed.add(pair[0]) || !stocksUsed.add(pair[1])) {
+					//invalid pair
+					return Double.NEGATIVE_INFINITY;
+				}
+				sumAbsoluteZScores += Math.abs(zScores[pair[0]][pair[1]]);
+			}
+			return sumAbsoluteZScores;
+		}
+
+		double best = Double.NEGATIVE_INFINITY;
+		for (int i = iGreaterThan; i < validPairs.size() - pick + 1; i++) {
+			combination.add(validPairs.get(i));
+			best = Math.max(best, bruteForceBestPair(validPairs, combination, i + 1, pick - 1, zScores));
+			combination.remove(combination.size() - 1);
+		}
+		return best;
+	}
+
+	private static double matchingWeight(PairsCaseNYU1.PairMatcher matcher, int numTickers, double[][] zScores) {
+		return matchingWeight(matcher, numTickers, zScores, null);
+	}
+
+	//also checks that every matched pair is one of the valid ones, unless valid is null
+	private static double matchingWeight(PairsCaseNYU1.PairMatcher matcher, int numTickers, double[][] zScores, boolean[][] valid) {
+		double sum = 0;
+		for (int i = 0; i < numTickers; i++) {
+			int j = matcher.mate(i);
+			if (j != -1 && matcher.mate(j) != i)
+				throw new AssertionError("ticker " + i + " is matched to " + j + " but not the other way around");
+			if (j > i && valid != null && !valid[i][j])
+				throw new AssertionError("tickers " + i + " and " + j + " are matched but aren't a valid pair");
+			if (j > i)
+				sum += Math.abs(zScores[i][j]);
+		}
+		return sum;
+	}
+
+	//heaviest valid pair first, without PairMatcher's local improvements
+	private static double plainGreedyWeight(boolean[][] valid, double[][] zScores) {
+		int n = valid.length;
+		boolean[] used = new boolean[n];
+		double sum = 0;
+		while (true) {
+			int bestI = -1, bestJ = -1;
+			for (int i = 0; i < n - 1; i++) {
+				for (int j = i + 1; j < n; j++) {
+					if (valid[i][j] && !used[i] && !used[j] && (bestI == -1 || Math.abs(zScores[i][j]) > Math.abs(zScores[bestI][bestJ]))) {
+						bestI = i;
+						bestJ = j;
+					}
+				}
+			}
+			if (bestI == -1)
+				return sum;
+			used[bestI] = used[bestJ] = true;
+			sum += Math.abs(zScores[bestI][bestJ]);
+		}
+	}
+
+	//PairMatcher should find the same optimum as the exhaustive search, and the greedy solver at least half of it
+	private static void verifyPairMatcher() {
+		Random random = new Random(0);
+		for (int trial = 0; trial < 2000; trial++) {
+			int numTickers = 2 + random.nextInt(7);
+			double[][] zScores = new double[numTickers][numTickers];
+			List<int[]> validPairs = new ArrayList<>();
+			for (int i = 0; i < numTickers - 1; i++) {
+				for (int j = i + 1; j < numTickers; j++) {
+					zScores[i][j] = random.nextGaussian() * 3;
+					if (random.nextInt(4) != 0)
+						validPairs.add(new int[] { i, j });
+				}
+			}
+
+			double expected = Double.NEGATIVE_INFINITY;
+			for (int pick = 1; pick <= numTickers / 2; pick++)
+				expected = Math.max(expected, bruteForceBestPair(validPairs, new ArrayList<int[]>(), 0, pick, zScores));
+			if (expected == Double.NEGATIVE_INFINITY)
+				expected = 0;
+
+			PairsCaseNYU1.PairMatcher exact = new PairsCaseNYU1.PairMatcher(numTickers, true);
+			PairsCaseNYU1.PairMatcher greedy = new PairsCaseNYU1.PairMatcher(numTickers, false);
+			for (int[] pair : validPairs) {
+				exact.setEdge(pair[0], pair[1], Math.abs(zScores[pair[0]][pair[1]]));
+				greedy.setEdge(pair[0], pair[1], Math.abs(zScores[pair[0]][pair[1]]));
+			}
+			double exactWeight = exact.solve(), greedyWeight = greedy.solve();
+			if (Math.abs(exactWeight - expected) > 1e-9 || Math.abs(matchingWeight(exact, numTickers, zScores) - expected) > 1e-9)
+				throw new AssertionError("trial " + trial + ": exact matching weighs " + exactWeight + ", expected " + expected);
+			if (Math.abs(matchingWeight(greedy, numTickers, zScores) - greedyWeight) > 1e-9 || greedyWeight < expected / 2 - 1e-9)
+				throw new AssertionError("trial " + trial + ": greedy matching weighs " + greedyWeight + ", optimum is " + expected);
+		}
+	}
+
+	private static boolean[][] randomPairs(Random random, int numTickers, double[][] zScores) {
+		boolean[][] valid = new boolean[numTickers][numTickers];
+		for (int i = 0; i < numTickers - 1; i++) {
+			for (int j = i + 1; j < numTickers; j++) {
+				zScores[i][j] = random.nextGaussian() * 3;
+				valid[i][j] = random.nextInt(4) != 0;
+			}
+		}
+		return valid;
+	}
+
+	private static PairsCaseNYU1.PairMatcher matcher(int numTickers, boolean exact, boolean[][] valid, double[][] zScores) {
+		PairsCaseNYU1.PairMatcher matcher = new PairsCaseNYU1.PairMatcher(numTickers, exact);
+		for (int i = 0; i < numTickers - 1; i++)
+			for (int j = i + 1; j < numTickers; j++)
+				if (valid[i][j])
+					matcher.setEdge(i, j, Math.abs(zScores[i][j]));
+		return matcher;
+	}
+
+	//up to EXACT_MAX_TICKERS the DP gives the optimum, which the greedy solver's local moves should get most of the way to.
+	//plain greedy only manages about 96% of it over these trials, so the 98% asked for needs the local moves
+	private static void verifyGreedyPairMatcher() {
+		Random random = new Random(1);
+		double greedyTotal = 0, optimumTotal = 0;
+		int improved = 0;
+		for (int trial = 0; trial < 5000; trial++) {
+			int numTickers = 9 + random.nextInt(PairsCaseNYU1.PairMatcher.EXACT_MAX_TICKERS - 8);
+			double[][] zScores = new double[numTickers][numTickers];
+			boolean[][] valid = randomPairs(random, numTickers, zScores);
+			PairsCaseNYU1.PairMatcher exact = matcher(numTickers, true, valid, zScores), greedy = matcher(numTickers, false, valid, zScores);
+			double optimum = exact.solve(), greedyWeight = greedy.solve(), plain = plainGreedyWeight(valid, zScores);
+			String what = "trial " + trial + ", " + numTickers + " tickers";
+			assertClose(what + " exact matching", optimum, matchingWeight(exact, numTickers, zScores, valid), 1e-9);
+			assertClose(what + " greedy matching", greedyWeight, matchingWeight(greedy, numTickers, zScores, valid), 1e-9);
+			if (greedyWeight < plain - 1e-9 || greedyWeight < 0.7 * optimum || greedyWeight > optimum + 1e-9)
+				throw new AssertionError(what + ": greedy matching weighs " + greedyWeight + ", plain greedy " + plain + ", optimum " + optimum);
+			if (greedyWeight > plain + 1e-9)
+				improved++;
+			greedyTotal += greedyWeight;
+			optimumTotal += optimum;
+		}
+		if (greedyTotal < 0.98 * optimumTotal || improved == 0)
+			throw new AssertionError("greedy matchings weigh " + greedyTotal / optimumTotal + " of the optimum, and beat plain greedy " + improved + " times");
+	}
+
+	//the universes the greedy solver is there for: it should still find a valid matching, never worse than plain greedy
+	private static void verifyLargePairMatcher() {
+		Random random = new Random(2);
+		for (int numTickers : new int[] { 50, 200 }) {
+			for (int trial = 0; trial < 5; trial++) {
+				double[][] zScores = new double[numTickers][numTickers];
+				boolean[][] valid = randomPairs(random, numTickers, zScores);
+				PairsCaseNYU1.PairMatcher greedy = new PairsCaseNYU1.PairMatcher(numTickers);
+				for (int i = 0; i < numTickers - 1; i++)
+					for (int j = i + 1; j < numTickers; j++)
+						if (valid[i][j])
+							greedy.setEdge(i, j, Math.abs(zScores[i][j]));
+				double greedyWeight = greedy.solve(), plain = plainGreedyWeight(valid, zScores);
+				String what = numTickers + " tickers, trial " + trial;
+				assertClose(what + " greedy matching", greedyWeight, matchingWeight(greedy, numTickers, zScores, valid), 1e-9);
+				if (greedyWeight < plain - 1e-9)
+					throw new AssertionError(what + ": greedy matching weighs " + greedyWeight + ", plain greedy " + plain);
+			}
+		}
+	}
+
+	private static PairsCaseNYU1 quietCase(final int round) {
+		return new PairsCaseNYU1() {
+			@Override
+			public String getStringVar(String str) {
+				return null;
+			}
+
+			@Override
+			public int getIntVar(String str) {
+				if (str.equals("round"))
+					return round;
+				if (str.equals("LOG_TICKS"))
+					return 0;
+				return -1;
+			}
+
+			@Override
+			public void log(String s) {
+			}
+		};
+	}
+
+	private static long replayAllocatedBytes(Ticker[] tickers, Quote[][] ticks) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		PairsCaseNYU1 c = quietCase(3);
+		c.initializeAlgo(null);
+		c.currentSymbols(tickers);
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		long overhead = threads.getThreadAllocatedBytes(thread) - before;
+		before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < ticks.length; i++)
+			c.getNewQuotes(ticks[i]);
+		return threads.getThreadAllocatedBytes(thread) - before - overhead;
+	}
+
+	//with tick logging off, getNewQuotes should not allocate anything once currentSymbols has run
+	private static void verifyAllocationFreeTicks() throws IOException {
+		Ticker[] tickers = { Ticker.HURON, Ticker.SUPERIOR, Ticker.MICHIGAN, Ticker.ONTARIO, Ticker.ERIE };
+		List<List<Double>> columns = loadPrices("PairsRound3.csv");
+		Quote[][] ticks = Arrays.copyOf(quotes(tickers, columns), 1000);
+
+		//the JIT's deoptimizations can allocate on our thread while it's still settling,
+		//so warm up first and then look for a replay that allocated nothing at all
+		for (int i = 0; i < 5; i++)
+			replayAllocatedBytes(tickers, ticks);
+		long allocated = Long.MAX_VALUE;
+		for (int i = 0; i < 5 && allocated != 0; i++)
+			allocated = Math.min(allocated, replayAllocatedBytes(tickers, ticks));
+		if (allocated != 0)
+			throw new AssertionError(allocated + " bytes allocated over " + ticks.length + " ticks");
+	}
+
+	//with tick logging off nothing should be formatted, but the latest trades should still be there to log on demand
+	private static void verifyLazyTradeLog() throws IOException {
+		Ticker[] tickers = { Ticker.HURON, Ticker.SUPERIOR, Ticker.MICHIGAN, Ticker.ONTARIO, Ticker.ERIE };
+		List<List<Double>> columns = loadPrices("PairsRound3.csv");
+		final List<String> logged = new ArrayList<String>();
+		PairsCaseNYU1 c = new PairsCaseNYU1() {
+			@Override
+			public String getStringVar(String str) {
+				return null;
+			}
+
+			@Override
+			public int getIntVar(String str) {
+				if (str.equals("round"))
+					return 3;
+				if (str.equals("LOG_TICKS"))
+					return 0;
+				return -1;
+			}
+
+			@Override
+			public void log(String s) {
+				logged.add(s);
+			}
+		};
+		c.initializeAlgo(null);
+		c.currentSymbols(tickers);
+		logged.clear();
+		Quote[] quotes = new Quote[tickers.length];
+		for (int i = 0; i < columns.get(0).size(); i++) {
+			for (int j = 0; j < tickers.length; j++)
+				quotes[j] = new Quote(tickers[j], columns.get(j).get(i).doubleValue() - 1, columns.get(j).get(i).doubleValue() + 1);
+			c.getNewQuotes(quotes);
+		}
+		if (!logged.isEmpty())
+			throw new AssertionError("LOG_TICKS 0 logged " + logged.get(0));
+
+		//the first rejection shows the trades that led up to it, and later ones only what's been traded since
+		Order[] rejected = { new Order(tickers[0], 1, OrderState.REJECTED), new Order(tickers[1], -1, OrderState.REJECTED) };
+		c.ordersConfirmation(rejected);
+		if (logged.size() != 2 + 64)
+			throw new AssertionError("the first rejections logged " + logged.size() + " lines, expected 2 and the last 64 trades");
+		logged.clear();
+		c.ordersConfirmation(rejected);
+		if (logged.size() != 2)
+			throw new AssertionError("rejections with no trades since logged " + logged.size() + " lines, expected 2");
+
+		logged.clear();
+		c.logRecentTrades(Integer.MAX_VALUE);
+		String last = logged.get(logged.size() - 1);
+		String expected = "PnL: " + (c.cashAndPnl - c.contractsSold / 2) + ", bid:ask fee: " + c.contractsSold / 2;
+		if (logged.size() != 64 || !last.startsWith("Tick ") || !last.endsWith(expected))
+			throw new AssertionError("expected the last 64 trades ending in \"" + expected + "\", got " + logged.size() + " ending in \"" + last + "\"");
+	}
+
+	private static Quote[][] quotes(Ticker[] tickers, List<List<Double>> columns) {
+		Quote[][] ticks = new Quote[columns.get(0).size()][tickers.length];
+		for (int i = 0; i < ticks.length; i++)
+			for (int j = 0; j < tickers.length; j++)
+				ticks[i][j] = new Quote(tickers[j], columns.get(j).get(i).doubleValue() - 1, columns.get(j).get(i).doubleValue() + 1);
+		return ticks;
+	}
+
+	//synthetic prices for numTickers tickers in groups of four that follow a common random walk.
+	//Ticker only has five values, so they're reused; the strategy only uses their names to log
+	private static Quote[][] syntheticQuotes(int numTickers, int numTicks, Random random) {
+		Ticker[] values = Ticker.values();
+		double[] group = new double[(numTickers + 3) / 4], own = new double[numTickers];
+		Quote[][] ticks = new Quote[numTicks][numTickers];
+		for (int i = 0; i < numTicks; i++) {
+			for (int g = 0; g < group.length; g++)
+				group[g] += random.nextGaussian() * 0.01;
+			for (int j = 0; j < numTickers; j++) {
+				own[j] = 0.9 * own[j] + random.nextGaussian() * 0.005;
+				double price = (20 + j % 7 * 10) * Math.exp(group[j / 4] + own[j]);
+				ticks[i][j] = new Quote(values[j % values.length], price - 1, price + 1);
+			}
+		}
+		return ticks;
+	}
+
+	//universes wider than the five tickers the case ships with should trade too, with no ticker in two pairs at once
+	private static void verifyLargeUniverse() {
+		Random random = new Random(3);
+		for (int numTickers : new int[] { 6, 12, 13, 48, 64, 65, 200 }) {
+			Quote[][] ticks = syntheticQuotes(numTickers, 300, random);
+			Ticker[] tickers = new Ticker[numTickers];
+			for (int j = 0; j < numTickers; j++)
+				tickers[j] = ticks[0][j].ticker;
+			PairsCaseNYU1 c = quietCase(3);
+			PairsExchange exchange = new PairsExchange(3, numTickers);
+			c.initializeAlgo(null);
+			c.currentSymbols(tickers);
+			for (int i = 0; i < ticks.length; i++) {
+				Order[] orders = c.getNewQuotes(ticks[i]);
+				if (orders.length != numTickers)
+					throw new AssertionError(numTickers + " tickers: " + orders.length + " orders on tick " + i);
+				//each traded pair buys as much of one ticker as it sells of the other
+				int net = 0;
+				for (Order order : orders)
+					net += order.quantity;
+				if (net != 0)
+					throw new AssertionError(numTickers + " tickers: orders on tick " + i + " net to " + net);
+				exchange.fill(ticks[i], orders);
+				c.ordersConfirmation(orders);
+			}
+			if (c.contractsSold == 0)
+				throw new AssertionError(numTickers + " tickers: nothing was traded");
+		}
+	}
+
+	//strategies for different rounds used to share their parameters, so interleaving them should change nothing now
+	private static void verifyIndependentInstances() throws IOException {
+		Ticker[] tickers = { Ticker.HURON, Ticker.SUPERIOR, Ticker.MICHIGAN, Ticker.ONTARIO, Ticker.ERIE };
+		Quote[][][] ticks = new Quote[3][][];
+		PairsCaseNYU1[] alone = new PairsCaseNYU1[3], together = new PairsCaseNYU1[3];
+		for (int round = 1; round <= 3; round++) {
+			List<List<Double>> columns = loadPrices("PairsRound" + round + ".csv");
+			Ticker[] roundTickers = Arrays.copyOf(tickers, columns.size());
+			ticks[round - 1] = quotes(roundTickers, columns);
+			alone[round - 1] = quietCase(round);
+			alone[round - 1].initializeAlgo(null);
+			alone[round - 1].currentSymbols(roundTickers);
+			for (Quote[] tick : ticks[round - 1])
+				alone[round - 1].getNewQuotes(tick);
+		}
+		for (int round = 1; round <= 3; round++) {
+			together[round - 1] = quietCase(round);
+			together[round - 1].initializeAlgo(null);
+			together[round - 1].currentSymbols(Arrays.copyOf(tickers, ticks[round - 1][0].length));
+		}
+		for (int i = 0; i < ticks[0].length; i++)
+			for (int round = 1; round <= 3; round++)
+				if (i < ticks[round - 1].length)
+					together[round - 1].getNewQuotes(ticks[round - 1][i]);
+		for (int round = 1; round <= 3; round++) {
+			if (alone[round - 1].cashAndPnl != together[round - 1].cashAndPnl || alone[round - 1].contractsSold != together[round - 1].contractsSold)
+				throw new AssertionError("round " + round + ": PnL " + alone[round - 1].cashAndPnl + " alone, " + together[round - 1].cashAndPnl + " interleaved with the other rounds");
+			if (alone[round - 1].parameters().maximumAbsoluteContracts != new int[] { 40, 60, 100 }[round - 1])
+				throw new AssertionError("round " + round + ": position limit " + alone[round - 1].parameters().maximumAbsoluteContracts);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		verifyRollingRegression();
+		verifyMovingVariance();
+		verifyPairMatcher();
+		verifyGreedyPairMatcher();
+		verifyLargePairMatcher();
+		verifyLargeUniverse();
+		verifyAllocationFreeTicks();
+		verifyLazyTradeLog();
+		verifyIndependentInstances();
+
 		final int ROUND = 2;
 		PairsCaseNYU1 c = new PairsCaseNYU1() {
 			@Override
@@ -28,71 +477,58 @@ public class Test {
 				System.out.println(s);
 			}
 		};
+		Latency.InstrumentedPairs timed = new Latency.InstrumentedPairs("pairs PairsRound" + ROUND + ".csv", c);
+		TickFile ticks = TickFile.load("PairsRound" + ROUND + ".csv");
+		//confirms orders the same way the backtests do
+		PairsExchange exchange = new PairsExchange(ROUND, ticks.columns());
 		switch (ROUND) {
 			case 1:
-				try (Scanner scan = new Scanner(new File("PairsRound1.csv"))) {
-					c.initializeAlgo(null);
-					c.currentSymbols(new Ticker[] { Ticker.HURON, Ticker.SUPERIOR });
-					for (int i = 0; i < 1001; i++) {
-						String[] line = scan.nextLine().split(",");
-						double huron = Double.parseDouble(line[0]);
-						double superior = Double.parseDouble(line[1]);
-						Order[] orders = c.getNewQuotes(new Quote[] { new Quote(Ticker.HURON, huron - 1, huron + 1), new Quote(Ticker.SUPERIOR, superior - 1, superior + 1) });
-						for (Order order : orders)
-							if (order.quantity != 0)
-								order.state = OrderState.FILLED;
-							else
-								order.state = OrderState.REJECTED;
-						c.ordersConfirmation(orders);
-					}
+				timed.initializeAlgo(null);
+				timed.currentSymbols(new Ticker[] { Ticker.HURON, Ticker.SUPERIOR });
+				for (int i = 0; i < ticks.rows(); i++) {
+					double huron = ticks.get(i, 0);
+					double superior = ticks.get(i, 1);
+					Quote[] quotes = { new Quote(Ticker.HURON, huron - 1, huron + 1), new Quote(Ticker.SUPERIOR, superior - 1, superior + 1) };
+					Order[] orders = timed.getNewQuotes(quotes);
+					exchange.fill(quotes, orders);
+					timed.ordersConfirmation(orders);
 				}
 				break;
 			case 2:
-				try (Scanner scan = new Scanner(new File("PairsRound2.csv"))) {
-					c.initializeAlgo(null);
-					c.currentSymbols(new Ticker[] { Ticker.HURON, Ticker.SUPERIOR, Ticker.MICHIGAN });
-					for (int i = 0; i < 1001; i++) {
-						String[] line = scan.nextLine().split(",");
-						double huron = Double.parseDouble(line[0]);
-						double superior = Double.parseDouble(line[1]);
-						double michigan = Double.parseDouble(line[2]);
-						Order[] orders = c.getNewQuotes(new Quote[] { new Quote(Ticker.HURON, huron - 1, huron + 1), new Quote(Ticker.SUPERIOR, superior - 1, superior + 1), new Quote(Ticker.MICHIGAN, michigan - 1, michigan + 1) });
-						for (Order order : orders)
-							if (order.quantity != 0)
-								order.state = OrderState.FILLED;
-							else
-								order.state = OrderState.REJECTED;
-						c.ordersConfirmation(orders);
-					}
+				timed.initializeAlgo(null);
+				timed.currentSymbols(new Ticker[] { Ticker.HURON, Ticker.SUPERIOR, Ticker.MICHIGAN });
+				for (int i = 0; i < ticks.rows(); i++) {
+					double huron = ticks.get(i, 0);
+					double superior = ticks.get(i, 1);
+					double michigan = ticks.get(i, 2);
+					Quote[] quotes = { new Quote(Ticker.HURON, huron - 1, huron + 1), new Quote(Ticker.SUPERIOR, superior - 1, superior + 1), new Quote(Ticker.MICHIGAN, michigan - 1, michigan + 1) };
+					Order[] orders = timed.getNewQuotes(quotes);
+					exchange.fill(quotes, orders);
+					timed.ordersConfirmation(orders);
 				}
 				break;
 			case 3:
-				try (Scanner scan = new Scanner(new File("PairsRound3.csv"))) {
-					c.initializeAlgo(null);
-					c.currentSymbols(new Ticker[] { Ticker.HURON, Ticker.SUPERIOR, Ticker.MICHIGAN, Ticker.ONTARIO, Ticker.ERIE });
-					for (int i = 0; i < 1000; i++) {
-						String[] line = scan.nextLine().split(",");
-						double huron = Double.parseDouble(line[0]);
-						double superior = Double.parseDouble(line[1]);
-						double michigan = Double.parseDouble(line[2]);
-						double ontario = Double.parseDouble(line[3]);
-						double erie = Double.parseDouble(line[4]);
-						Order[] orders = c.getNewQuotes(new Quote[] {
-							new Quote(Ticker.HURON, huron - 1, huron + 1),
-							new Quote(Ticker.SUPERIOR, superior - 1, superior + 1),
-							new Quote(Ticker.MICHIGAN, michigan - 1, michigan + 1),
-							new Quote(Ticker.ONTARIO, ontario - 1, ontario + 1),
-							new Quote(Ticker.ERIE, erie - 1, erie + 1)
-						});
-						for (Order order : orders)
-							if (order.quantity != 0)
-								order.state = OrderState.FILLED;
-							else
-								order.state = OrderState.REJECTED;
-						c.ordersConfirmation(orders);
-					}
+				timed.initializeAlgo(null);
+				timed.currentSymbols(new Ticker[] { Ticker.HURON, Ticker.SUPERIOR, Ticker.MICHIGAN, Ticker.ONTARIO, Ticker.ERIE });
+				for (int i = 0; i < ticks.rows(); i++) {
+					double huron = ticks.get(i, 0);
+					double superior = ticks.get(i, 1);
+					double michigan = ticks.get(i, 2);
+					double ontario = ticks.get(i, 3);
+					double erie = ticks.get(i, 4);
+					Quote[] quotes = {
+						new Quote(Ticker.HURON, huron - 1, huron + 1),
+						new Quote(Ticker.SUPERIOR, superior - 1, superior + 1),
+						new Quote(Ticker.MICHIGAN, michigan - 1, michigan + 1),
+						new Quote(Ticker.ONTARIO, ontario - 1, ontario + 1),
+						new Quote(Ticker.ERIE, erie - 1, erie + 1)
+					};
+					Order[] orders = timed.getNewQuotes(quotes);
+					exchange.fill(quotes, orders);
+					timed.ordersConfirmation(orders);
 				}
 				break;
 		}
+		System.err.println(timed.report());
 	}
 }
@@ -0,0 +1,282 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Market data as columns of doubles in one memory-mapped file, so that a
+ * replay reads ticks straight out of the page cache instead of parsing a CSV
+ * on every run.
+ * <p>
+ * Layout, all little endian: the magic int and format version, the number of
+ * rows and of columns, each column's name as a short length and its UTF-8
+ * bytes, zeros up to a multiple of 8 bytes, and then every row of the first
+ * column, every row of the second, and so on.
+ * <p>
+ * Each column is mapped on its own, so files can be far larger than 2 GB,
+ * but a column can't be: at most {@link #MAX_ROWS} rows.
+ */
+public class TickFile {
+	private static final int MAGIC = 0x5449434B; //"TICK"
+	private static final int VERSION = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int WRITE_BUFFER_BYTES = 1 << 16;
+	/**
+	 * Appended to a CSV's name for the converted file next to it.
+	 */
+	public static final String EXTENSION = ".ticks";
+	/**
+	 * The most rows a column's mapping (at most Integer.MAX_VALUE bytes) can hold.
+	 */
+	public static final int MAX_ROWS = Integer.MAX_VALUE / 8;
+
+	private final int rows;
+	private final String[] names;
+	//one mapping per column
+	private final DoubleBuffer[] values;
+
+	private TickFile(int rows, String[] names, DoubleBuffer[] values) {
+		this.rows = rows;
+		this.names = names;
+		this.values = values;
+	}
+
+	/**
+	 * Opens the converted copy of a CSV, converting it first if it's missing
+	 * or older than the CSV.
+	 */
+	public static TickFile load(String csv) throws IOException {
+		File source = new File(csv);
+		File converted = new File(csv + EXTENSION);
+		if (!converted.isFile() || converted.lastModified() < source.lastModified())
+			convert(csv, converted.getPath());
+		return open(converted.getPath());
+	}
+
+	public static TickFile open(String file) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			ByteBuffer header = read(channel, 0, 16);
+			if (header.remaining() < 16 || header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException(file + " is not a tick file");
+			int rows = header.getInt(), columns = header.getInt();
+			if (rows < 0 || columns < 0)
+				throw new IOException(file + " is not a tick file");
+			if (rows > MAX_ROWS)
+				throw new IOException(file + " has " + rows + " rows, but a column can only be mapped with up to " + MAX_ROWS);
+			String[] names = new String[columns];
+			long position = 16;
+			for (int c = 0; c < names.length; c++) {
+				ByteBuffer length = read(channel, position, 2);
+				if (length.remaining() < 2)
+					throw new IOException(file + " is truncated");
+				int bytes = length.getShort() & 0xFFFF;
+				ByteBuffer name = read(channel, position + 2, bytes);
+				if (name.remaining() < bytes)
+					throw new IOException(file + " is truncated");
+				names[c] = new String(name.array(), 0, name.remaining(), UTF_8);
+				position += 2 + name.remaining();
+			}
+			position = (position + 7) & ~7;
+			long columnBytes = (long) rows * 8;
+			if (channel.size() < position + columnBytes * names.length)
+				throw new IOException(file + " is truncated");
+			DoubleBuffer[] values = new DoubleBuffer[names.length];
+			for (int c = 0; c < names.length; c++) {
+				//stays valid after the channel is closed
+				MappedByteBuffer map = channel.map(MapMode.READ_ONLY, position + c * columnBytes, columnBytes);
+				values[c] = map.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+			return new TickFile(rows, names, values);
+		}
+	}
+
+	//up to length bytes from position, fewer at the end of the file
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) == -1)
+				break;
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Parses a CSV of numbers, with or without a line of column names, into a
+	 * tick file. Rows must all have the same number of columns; blank lines
+	 * are skipped. The file is written under a temporary name and then moved
+	 * into place, so concurrent readers never see half of one.
+	 */
+	public static void convert(String csv, String file) throws IOException {
+		String[] names = null;
+		double[][] columns = null;
+		int rows = 0;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(csv), UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().isEmpty())
+					continue;
+				String[] fields = line.split(",");
+				if (names == null) {
+					names = new String[fields.length];
+					columns = new double[fields.length][1024];
+					if (!isNumeric(fields)) {
+						for (int c = 0; c < fields.length; c++)
+							names[c] = fields[c].trim();
+						continue;
+					}
+					for (int c = 0; c < fields.length; c++)
+						names[c] = Integer.toString(c);
+				}
+				if (fields.length != names.length)
+					throw new IOException(csv + ": " + fields.length + " columns where " + names.length + " were expected, in \"" + line + "\"");
+				if (rows == columns[0].length)
+					for (int c = 0; c < columns.length; c++)
+						columns[c] = Arrays.copyOf(columns[c], rows * 2);
+				for (int c = 0; c < fields.length; c++)
+					columns[c][rows] = Double.parseDouble(fields[c]);
+				rows++;
+			}
+		}
+		if (names == null)
+			throw new IOException(csv + " is empty");
+		write(file, names, columns, rows);
+	}
+
+	public static void write(String file, String[] names, double[][] columns, int rows) throws IOException {
+		if (rows > MAX_ROWS)
+			throw new IOException(file + ": " + rows + " rows, but a column can only be mapped with up to " + MAX_ROWS);
+		byte[][] encoded = new byte[names.length][];
+		int header = 16;
+		for (int c = 0; c < names.length; c++) {
+			encoded[c] = names[c].getBytes(UTF_8);
+			header += 2 + encoded[c].length;
+		}
+		header = (header + 7) & ~7;
+
+		Path target = Paths.get(file).toAbsolutePath();
+		//not Files.createTempFile(), which would leave the result readable only by us
+		Path temporary = target.resolveSibling(target.getFileName() + "." + System.nanoTime() + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(WRITE_BUFFER_BYTES, header)).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(names.length);
+				for (byte[] name : encoded)
+					buffer.putShort((short) name.length).put(name);
+				while (buffer.position() < header)
+					buffer.put((byte) 0);
+				for (double[] column : columns) {
+					for (int r = 0; r < rows; r++) {
+						if (buffer.remaining() < 8)
+							drain(buffer, channel);
+						buffer.putDouble(column[r]);
+					}
+				}
+				drain(buffer, channel);
+			}
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private static boolean isNumeric(String[] fields) {
+		for (String field : fields) {
+			try {
+				Double.parseDouble(field);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public int columns() {
+		return names.length;
+	}
+
+	public String name(int column) {
+		return names[column];
+	}
+
+	/**
+	 * The index of the column with the given name, or -1 if there isn't one.
+	 */
+	public int column(String name) {
+		for (int c = 0; c < names.length; c++)
+			if (names[c].equals(name))
+				return c;
+		return -1;
+	}
+
+	public double get(int row, int column) {
+		return values[column].get(row);
+	}
+
+	/**
+	 * A view of one column's rows. Nothing is copied; reads go to the mapping.
+	 */
+	public DoubleBuffer column(int column) {
+		return values[column].duplicate();
+	}
+
+	/**
+	 * Fills into with the first into.length columns of a row.
+	 */
+	public double[] row(int row, double[] into) {
+		for (int c = 0; c < into.length; c++)
+			into[c] = values[c].get(row);
+		return into;
+	}
+
+	/**
+	 * Copies every column onto the heap, for code that wants lists.
+	 */
+	public List<List<Double>> toLists() {
+		List<List<Double>> lists = new ArrayList<List<Double>>(names.length);
+		for (int c = 0; c < names.length; c++) {
+			List<Double> list = new ArrayList<Double>(rows);
+			for (int r = 0; r < rows; r++)
+				list.add(Double.valueOf(get(r, c)));
+			lists.add(list);
+		}
+		return lists;
+	}
+
+	/**
+	 * Converts the CSVs named on the command line.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String csv : args) {
+			convert(csv, csv + EXTENSION);
+			TickFile ticks = open(csv + EXTENSION);
+			System.out.println(csv + EXTENSION + ": " + ticks.rows() + " rows, " + ticks.columns() + " columns");
+		}
+	}
+}
@@ -0,0 +1,82 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+public class TickFileTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	//a sparse tick file with the given columns of zeros, so that it takes no disk space however large it claims to be
+	private static long sparseTickFile(File file, int rows, String... names) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0x5449434B).putInt(1).putInt(rows).putInt(names.length);
+		for (String name : names)
+			header.putShort((short) name.getBytes(UTF_8).length).put(name.getBytes(UTF_8));
+		header.position((header.position() + 7) & ~7);
+		header.flip();
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.write(header.array(), 0, header.limit());
+			out.setLength(header.limit() + (long) rows * 8 * names.length);
+		}
+		return header.limit();
+	}
+
+	private static void putDouble(File file, long position, double value) throws IOException {
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.getChannel().write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(0, value), position);
+		}
+	}
+
+	private static void assertRejected(String what, File file, String reason) {
+		try {
+			TickFile.open(file.getPath());
+		} catch (IOException e) {
+			if (!e.getMessage().contains(reason))
+				throw new AssertionError(what + ": expected \"" + reason + "\", got \"" + e.getMessage() + "\"");
+			return;
+		}
+		throw new AssertionError(what + " opened");
+	}
+
+	//files past 2 GB should open, with each column still reading the right values, and columns too long to map should be refused
+	private static void verifyLargeFiles() throws IOException {
+		File file = File.createTempFile("large", TickFile.EXTENSION), tooLong = File.createTempFile("tooLong", TickFile.EXTENSION), truncated = File.createTempFile("truncated", TickFile.EXTENSION);
+		try {
+			//three columns of 1 GB
+			int rows = 1 << 27;
+			long start = sparseTickFile(file, rows, "bid", "ask", "last");
+			for (int c = 0; c < 3; c++) {
+				putDouble(file, start + (long) c * rows * 8, c + 0.25);
+				putDouble(file, start + ((long) c * rows + rows - 1) * 8, c + 0.75);
+			}
+			TickFile ticks = TickFile.open(file.getPath());
+			if (ticks.rows() != rows || ticks.columns() != 3 || !ticks.name(2).equals("last"))
+				throw new AssertionError(ticks.rows() + " rows and " + ticks.columns() + " columns, the last named " + ticks.name(ticks.columns() - 1));
+			double[] row = new double[3];
+			for (int c = 0; c < 3; c++) {
+				if (ticks.get(0, c) != c + 0.25 || ticks.get(rows - 1, c) != c + 0.75 || ticks.get(rows / 2, c) != 0)
+					throw new AssertionError("column " + c + " reads " + ticks.get(0, c) + " ... " + ticks.get(rows - 1, c));
+				if (ticks.column(c).remaining() != rows || ticks.column(c).get(rows - 1) != c + 0.75 || ticks.row(rows - 1, row)[c] != c + 0.75)
+					throw new AssertionError("column " + c + "'s view doesn't end in " + (c + 0.75));
+			}
+
+			sparseTickFile(tooLong, TickFile.MAX_ROWS + 1, "bid");
+			assertRejected("a column over 2 GB", tooLong, "can only be mapped with up to " + TickFile.MAX_ROWS);
+			sparseTickFile(truncated, 1000, "bid", "ask");
+			try (RandomAccessFile out = new RandomAccessFile(truncated, "rw")) {
+				out.setLength(out.length() - 8);
+			}
+			assertRejected("a file missing its last value", truncated, "is truncated");
+		} finally {
+			file.delete();
+			tooLong.delete();
+			truncated.delete();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		verifyLargeFiles();
+	}
+}